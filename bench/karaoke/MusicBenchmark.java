@@ -0,0 +1,168 @@
+package karaoke;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import karaoke.sound.Instrument;
+import karaoke.sound.Pitch;
+import karaoke.sound.SequencePlayer;
+
+/**
+ * Measures the operations of Music trees of growing size: duration(), play() into a player
+ * that schedules nothing, equals() of two trees built alike, hashCode() and toString().
+ * Trees are of three shapes:
+ *
+ * - concat: a left-deep chain of Concats, starting with a 0-beat rest, as PieceParser's
+ *   compress() builds a voice measure by measure
+ * - balanced: a balanced binary tree of Togethers
+ * - wide: a left-deep chain of Togethers, as PieceParser joins the voices of a piece and the
+ *   notes of a chord
+ *
+ * For each shape, size and operation, reports operations per second, microseconds per
+ * operation and nanoseconds per note; nanoseconds per note that grow with the size give
+ * away an operation that takes more than linear time.
+ *
+ * Run with, for example:
+ *
+ * java -cp bin:lib/parserlib.jar karaoke.MusicBenchmark 100 1000 10000
+ *
+ * Operations that recurse deeper than the thread's stack allows are reported as failed.
+ */
+public class MusicBenchmark {
+
+    private static final int[] DEFAULT_NOTES = { 100, 1000, 10000 };
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MEASURE_NANOS = TimeUnit.SECONDS.toNanos(2);
+    // at least this many operations are warmed up and measured, however long they take
+    private static final int MIN_OPERATIONS = 3;
+    private static final String VOICE = "voice1";
+
+    private enum Shape { CONCAT, BALANCED, WIDE }
+
+    // sink for results, so the JIT compiler cannot skip work whose result is unused
+    private static volatile long sink;
+
+    /**
+     * A player that schedules nothing, so only the cost of walking the tree is measured.
+     */
+    private static final SequencePlayer NO_OP_PLAYER = new SequencePlayer() {
+        @Override public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+            sink++;
+        }
+        @Override public void addEvent(double atBeat, Consumer<Double> callback) {
+            sink++;
+        }
+        @Override public void play() {
+        }
+    };
+
+    /**
+     * Run the benchmark.
+     * @param args numbers of notes of the trees to measure; defaults to 100, 1000 and 10000
+     */
+    public static void main(String[] args) {
+        int[] notes = DEFAULT_NOTES;
+        if (args.length > 0) {
+            notes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                notes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        final Map<String, LyricLog> voiceToLyricLog = Collections.singletonMap(VOICE, new LyricLog());
+        System.out.println("shape, notes, operation, ops/s, us/op, ns/note");
+        for (Shape shape : Shape.values()) {
+            for (int count : notes) {
+                final Music music = build(shape, count);
+                final Music same = build(shape, count);
+                final String prefix = shape.name().toLowerCase() + ", " + count + ", ";
+                report(prefix + "duration", count, () -> sink += (long) music.duration());
+                report(prefix + "play", count, () -> music.play(NO_OP_PLAYER, 0, voiceToLyricLog));
+                report(prefix + "equals", count, () -> sink += music.equals(same) ? 1 : 0);
+                report(prefix + "hashCode", count, () -> sink += music.hashCode());
+                report(prefix + "toString", count, () -> sink += music.toString().length());
+            }
+        }
+    }
+
+    /**
+     * @param index index of a note in its tree
+     * @return a one-beat note, every eighth one sung to a lyric, as notes starting a lyric line are
+     */
+    private static Music note(int index) {
+        final Music note = Music.note(1, Pitch.MIDDLE_C.transpose(index % Pitch.OCTAVE), Instrument.PIANO);
+        if (index % 8 == 0) {
+            return Music.together(note, Music.lyrics("*la* la la", VOICE));
+        }
+        return note;
+    }
+
+    /**
+     * @param shape shape of the tree
+     * @param notes number of notes, > 0
+     * @return a tree of shape with notes notes
+     */
+    private static Music build(Shape shape, int notes) {
+        switch (shape) {
+        case CONCAT: {
+            Music music = Music.rest(0);
+            for (int i = 0; i < notes; i++) {
+                music = Music.concat(music, note(i));
+            }
+            return music;
+        }
+        case BALANCED:
+            return balanced(0, notes);
+        case WIDE: {
+            Music music = note(0);
+            for (int i = 1; i < notes; i++) {
+                music = Music.together(music, note(i));
+            }
+            return music;
+        }
+        default:
+            throw new AssertionError(shape);
+        }
+    }
+
+    /**
+     * @param from index of the first note
+     * @param to index after the last note, > from
+     * @return a balanced tree of Togethers of the notes from..to-1
+     */
+    private static Music balanced(int from, int to) {
+        if (to - from == 1) {
+            return note(from);
+        }
+        final int middle = (from + to) / 2;
+        return Music.together(balanced(from, middle), balanced(middle, to));
+    }
+
+    /**
+     * Warm up, then measure, an operation, and print how long it took.
+     * @param prefix start of the line to print
+     * @param notes number of notes in the tree operated on
+     * @param operation operation to measure
+     */
+    private static void report(String prefix, int notes, Runnable operation) {
+        try {
+            final long warmupStart = System.nanoTime();
+            for (int i = 0; i < MIN_OPERATIONS || System.nanoTime() - warmupStart < WARMUP_NANOS; i++) {
+                operation.run();
+            }
+            final long start = System.nanoTime();
+            long operations = 0;
+            long elapsed;
+            do {
+                operation.run();
+                operations++;
+                elapsed = System.nanoTime() - start;
+            } while (operations < MIN_OPERATIONS || elapsed < MEASURE_NANOS);
+            System.out.println(prefix + ", " + String.format("%.1f, %.1f, %.1f", 1e9 * operations / elapsed,
+                    elapsed / 1e3 / operations, (double) elapsed / operations / notes));
+        } catch (StackOverflowError soe) {
+            System.out.println(prefix + ": failed, tree too deep for the stack");
+        }
+    }
+}
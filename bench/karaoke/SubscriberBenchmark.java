@@ -0,0 +1,173 @@
+package karaoke;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares WebServer executor modes by holding many idle text-stream subscribers open,
+ * then publishing one line to all of them. For each mode and number of subscribers, reports
+ * how long it took to connect and prime every subscriber, how many JVM threads and how much
+ * heap the server then used, and how long one line took to reach every subscriber.
+ *
+ * Run with, for example:
+ *
+ * java -cp bin:lib/parserlib.jar karaoke.SubscriberBenchmark 1000 10000 50000
+ *
+ * Tens of thousands of subscribers need a correspondingly high open-file limit (ulimit -n),
+ * since both ends of every connection live in this process. VIRTUAL_THREADS is skipped on
+ * Java runtimes without virtual threads.
+ */
+public class SubscriberBenchmark {
+
+    private static final int[] DEFAULT_SUBSCRIBERS = { 1000, 10000, 50000 };
+    private static final int FIRST_PORT = 5100;
+    // a subscriber is primed once it has received the headers and the 2K padding line
+    private static final int PRIMED_BYTES = 2049;
+    private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    /**
+     * Run the benchmark.
+     * @param args numbers of subscribers to measure; defaults to 1000, 10000 and 50000
+     * @throws Exception if the benchmark cannot run
+     */
+    public static void main(String[] args) throws Exception {
+        int[] counts = DEFAULT_SUBSCRIBERS;
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.println("mode, subscribers, connect ms, threads, heap MB, fan-out ms");
+        int port = FIRST_PORT;
+        for (WebServer.ExecutorMode mode : WebServer.ExecutorMode.values()) {
+            if (!mode.isAvailable()) {
+                System.out.println(mode + ": skipped, not available in this Java runtime");
+                continue;
+            }
+            for (int subscribers : counts) {
+                try {
+                    measure(mode, subscribers, port++);
+                } catch (IOException ioe) {
+                    System.out.println(mode + ", " + subscribers + ": failed, " + ioe);
+                }
+            }
+        }
+    }
+
+    private static void measure(WebServer.ExecutorMode mode, int subscribers, int port)
+            throws IOException, InterruptedException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put("voice1", log);
+        WebServer server = new WebServer(port, mode);
+        server.start(voiceToLyricLog);
+
+        Selector selector = Selector.open();
+        List<SocketChannel> clients = new ArrayList<>();
+        try {
+            byte[] request = ("GET /textStream/voice_0 HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            long start = System.nanoTime();
+            for (int i = 0; i < subscribers; i++) {
+                SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", port));
+                client.write(ByteBuffer.wrap(request));
+                client.configureBlocking(false);
+                client.register(selector, SelectionKey.OP_READ, new long[] { 0 });
+                clients.add(client);
+            }
+            awaitBytes(selector, subscribers, PRIMED_BYTES);
+            long connectNanos = System.nanoTime() - start;
+
+            System.gc();
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            Runtime runtime = Runtime.getRuntime();
+            long heapBytes = runtime.totalMemory() - runtime.freeMemory();
+
+            drainAndReset(selector);
+            start = System.nanoTime();
+            log.append("*fan*-out");
+            awaitBytes(selector, subscribers, "*fan*-out\n".length());
+            long fanOutNanos = System.nanoTime() - start;
+
+            System.out.println(mode + ", " + subscribers
+                    + ", " + TimeUnit.NANOSECONDS.toMillis(connectNanos)
+                    + ", " + threads
+                    + ", " + heapBytes / (1 << 20)
+                    + ", " + TimeUnit.NANOSECONDS.toMillis(fanOutNanos));
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            selector.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * Read and discard whatever the clients have left to receive, then reset every byte count to 0.
+     */
+    private static void drainAndReset(Selector selector) throws IOException {
+        final long quietMillis = 500;
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        while (selector.select(quietMillis) > 0) {
+            for (SelectionKey key : selector.selectedKeys()) {
+                buffer.clear();
+                ((SocketChannel) key.channel()).read(buffer);
+            }
+            selector.selectedKeys().clear();
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((long[]) key.attachment())[0] = 0;
+        }
+    }
+
+    /**
+     * Read from every client until each has received at least the given number of bytes in total.
+     * Each key's attachment counts the bytes its client has received so far.
+     */
+    private static void awaitBytes(Selector selector, int clients, long bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        int done = 0;
+        for (SelectionKey key : selector.keys()) {
+            if (((long[]) key.attachment())[0] >= bytes) {
+                done++;
+            }
+        }
+        while (done < clients) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new IOException("timed out with " + done + " of " + clients + " clients done");
+            }
+            selector.select(TimeUnit.SECONDS.toMillis(1));
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                long[] received = (long[]) key.attachment();
+                boolean wasDone = received[0] >= bytes;
+                buffer.clear();
+                int n = ((SocketChannel) key.channel()).read(buffer);
+                if (n < 0) {
+                    throw new IOException("server closed a subscriber");
+                }
+                received[0] += n;
+                if (!wasDone && received[0] >= bytes) {
+                    done++;
+                }
+            }
+        }
+    }
+}
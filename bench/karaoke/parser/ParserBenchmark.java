@@ -0,0 +1,215 @@
+package karaoke.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import edu.mit.eecs.parserlib.ParseTree;
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.Piece;
+import karaoke.parser.PieceParser.PieceGrammar;
+
+/**
+ * Measures the throughput and allocation of PieceParser.parse() on every piece in sample-abc
+ * and on synthetic pieces of many notes, whole and phase by phase: matching the grammar,
+ * building the abstract syntax tree from a parse tree matched beforehand, and, within
+ * building, compressing each voice's music. For each piece and phase, reports operations
+ * per second, microseconds per operation and bytes allocated per operation, after a warmup
+ * long enough for the JIT compiler to settle.
+ *
+ * Run with, for example:
+ *
+ * java -cp bin:lib/parserlib.jar karaoke.parser.ParserBenchmark 1000 10000 100000
+ *
+ * Allocation is counted by the running thread's allocated bytes, so it is n/a on Java runtimes
+ * that cannot count them. Pieces of 100000 notes need a larger heap than the default (-Xmx2g).
+ */
+public class ParserBenchmark {
+
+    private static final int[] DEFAULT_NOTES = { 1000, 10000, 100000 };
+    private static final String SAMPLES = "sample-abc";
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long MEASURE_NANOS = TimeUnit.SECONDS.toNanos(3);
+    // at least this many operations are warmed up and measured, however long they take
+    private static final int MIN_OPERATIONS = 3;
+    // notes in a measure, and measures in a line, of a synthetic piece
+    private static final int NOTES_PER_MEASURE = 8;
+    private static final int MEASURES_PER_LINE = 4;
+    private static final String[] PITCHES = { "C", "D", "E", "F", "G", "A", "B", "c" };
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // sink for results, so the JIT compiler cannot skip work whose result is unused
+    private static volatile int sink;
+
+    /**
+     * An operation being measured, which may spend part of its time in a phase it reports.
+     */
+    private interface Operation {
+        /**
+         * Do the operation once.
+         * @return nanoseconds of the operation spent in the phase reported, or 0
+         * @throws UnableToParseException if the piece does not parse
+         */
+        long run() throws UnableToParseException;
+    }
+
+    /**
+     * Run the benchmark.
+     * @param args numbers of notes of synthetic pieces to measure; defaults to 1000, 10000 and 100000
+     * @throws Exception if the benchmark cannot run
+     */
+    public static void main(String[] args) throws Exception {
+        int[] notes = DEFAULT_NOTES;
+        if (args.length > 0) {
+            notes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                notes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        Map<String, String> pieces = new LinkedHashMap<>();
+        File[] files = new File(SAMPLES).listFiles((dir, name) -> name.endsWith(".abc"));
+        if (files == null) {
+            throw new IOException("no directory " + SAMPLES + " here; run from the project directory");
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            pieces.put(file.getName(), read(file));
+        }
+        for (int count : notes) {
+            pieces.put(count + " notes", synthetic(count));
+        }
+
+        System.out.println("piece, characters, phase, ops/s, us/op, bytes/op");
+        for (Map.Entry<String, String> piece : pieces.entrySet()) {
+            try {
+                measure(piece.getKey(), piece.getValue());
+            } catch (UnableToParseException utpe) {
+                System.out.println(piece.getKey() + ": failed, " + utpe);
+            }
+        }
+    }
+
+    /**
+     * @param file abc file
+     * @return contents of file as Piece.parseFromFile() reads it, with a newline after each line
+     * @throws IOException if file cannot be read
+     */
+    private static String read(File file) throws IOException {
+        StringBuilder contents = new StringBuilder();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            contents.append(line).append("\n");
+        }
+        return contents.toString();
+    }
+
+    /**
+     * Make a piece of one voice with lyrics, in lines of MEASURES_PER_LINE measures of
+     * NOTES_PER_MEASURE eighth notes, each note sung to a syllable. Every other line is
+     * repeated, so compressing has repeats as well as measures to fold.
+     * @param notes number of notes, rounded up to a whole line
+     * @return abc text of the piece
+     */
+    private static String synthetic(int notes) {
+        final int notesPerLine = NOTES_PER_MEASURE * MEASURES_PER_LINE;
+        final int lines = (notes + notesPerLine - 1) / notesPerLine;
+        StringBuilder abc = new StringBuilder();
+        abc.append("X:1\nT:Synthetic ").append(notes).append(" notes\nM:4/4\nL:1/8\nQ:1/4=120\nK:C\n");
+        for (int line = 0; line < lines; line++) {
+            final boolean repeated = line % 2 == 1;
+            StringBuilder music = new StringBuilder(repeated ? "|:" : "|");
+            StringBuilder lyric = new StringBuilder("w:");
+            for (int measure = 0; measure < MEASURES_PER_LINE; measure++) {
+                for (int note = 0; note < NOTES_PER_MEASURE; note++) {
+                    music.append(PITCHES[(line + measure + note) % PITCHES.length]);
+                    lyric.append(" la");
+                }
+                final boolean last = measure == MEASURES_PER_LINE - 1;
+                music.append(last && repeated ? ":|" : "|");
+                lyric.append(" |");
+            }
+            abc.append(music).append("\n").append(lyric).append("\n");
+        }
+        return abc.toString();
+    }
+
+    private static void measure(String name, String abc) throws UnableToParseException {
+        final String prefix = name + ", " + abc.length() + ", ";
+        final ParseTree<PieceGrammar> parseTree = PieceParser.parseGrammar(abc);
+
+        report(prefix + "parse", time(() -> {
+            Piece piece = PieceParser.parse(abc);
+            sink += piece.getVoices().size();
+            return 0;
+        }));
+        report(prefix + "grammar", time(() -> {
+            sink += PieceParser.parseGrammar(abc).children().size();
+            return 0;
+        }));
+        long[] build = time(() -> {
+            ParseEvent event = new ParseEvent();
+            Piece piece = PieceParser.makeAbstractSyntaxTree(parseTree, event);
+            sink += piece.getVoices().size();
+            return event.compressNanos;
+        });
+        report(prefix + "build", build);
+        // compressing is timed within each build, so it has no allocation of its own
+        System.out.println(prefix + "compress, "
+                + String.format("%.1f, %.1f, n/a", 1e9 * build[0] / build[3], build[3] / 1e3 / build[0]));
+    }
+
+    /**
+     * Warm up, then measure, an operation.
+     * @param operation operation to measure
+     * @return operations measured, nanoseconds they took, bytes they allocated or -1 if that
+     *         cannot be counted, and nanoseconds they spent in the phase they report
+     * @throws UnableToParseException if the operation fails
+     */
+    private static long[] time(Operation operation) throws UnableToParseException {
+        final long warmupStart = System.nanoTime();
+        for (int i = 0; i < MIN_OPERATIONS || System.nanoTime() - warmupStart < WARMUP_NANOS; i++) {
+            operation.run();
+        }
+        final long allocatedStart = allocatedBytes();
+        final long start = System.nanoTime();
+        long operations = 0;
+        long phaseNanos = 0;
+        long elapsed;
+        do {
+            phaseNanos += operation.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (operations < MIN_OPERATIONS || elapsed < MEASURE_NANOS);
+        final long allocatedEnd = allocatedBytes();
+        final long allocated = allocatedStart < 0 ? -1 : allocatedEnd - allocatedStart;
+        return new long[] { operations, elapsed, allocated, phaseNanos };
+    }
+
+    /**
+     * @return bytes allocated so far by this thread, or -1 if this Java runtime cannot count them
+     */
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static void report(String prefix, long[] measured) {
+        final long operations = measured[0];
+        final long nanos = measured[1];
+        final String bytes = measured[2] < 0 ? "n/a" : Long.toString(measured[2] / operations);
+        System.out.println(prefix + ", " + String.format("%.1f, %.1f, ", 1e9 * operations / nanos,
+                nanos / 1e3 / operations) + bytes);
+    }
+}
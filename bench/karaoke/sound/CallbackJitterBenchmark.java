@@ -0,0 +1,136 @@
+package karaoke.sound;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Compares running lyric callbacks inline on the player's thread with handing them to a
+ * DispatchingSequencePlayer, while another thread keeps contending for the lock the callbacks
+ * need, as the web server once did for the shared lyric map. Plays the same sequence of
+ * events in real time on a VirtualClockSequencePlayer in each mode and reports two histograms:
+ *
+ * - firing: how late each event fired on the player's thread, which is what delays MIDI events
+ * - delivery: how late each callback itself started to run
+ *
+ * Run with, for example:
+ *
+ * java -cp bin karaoke.sound.CallbackJitterBenchmark 500 2
+ *
+ * where 500 is the number of events, 2 ms apart, and 2 is how many milliseconds the contending
+ * thread holds the lock at a time.
+ */
+public class CallbackJitterBenchmark {
+
+    private static final int BEATS_PER_MINUTE = 600;
+    private static final int TICKS_PER_BEAT = 64;
+    private static final double BEATS_BETWEEN_EVENTS = 0.02;
+    private static final long NANOS_PER_BEAT = TimeUnit.MINUTES.toNanos(1) / BEATS_PER_MINUTE;
+
+    private enum Mode { INLINE, DISPATCHED }
+
+    /**
+     * Run the benchmark.
+     * @param args number of events, default 500, and milliseconds the lock is held, default 2
+     * @throws InterruptedException if interrupted while waiting for playback
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int events = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final long holdMillis = args.length > 1 ? Long.parseLong(args[1]) : 2;
+        for (Mode mode : Mode.values()) {
+            measure(mode, events, holdMillis);
+        }
+    }
+
+    private static void measure(Mode mode, int events, long holdMillis) throws InterruptedException {
+        final Object sharedLock = new Object();
+        final LatencyHistogram firing = new LatencyHistogram();
+        final LatencyHistogram delivery = new LatencyHistogram();
+        // System.nanoTime() when the event at beat 0 fired
+        final long[] beatZeroNanos = { 0 };
+
+        // a thread that keeps taking the lock the callbacks need
+        Thread contender = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                synchronized (sharedLock) {
+                    long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(holdMillis);
+                    while (System.nanoTime() < until) {
+                        // hold the lock, busy
+                    }
+                }
+                Thread.yield();
+            }
+        }, "contender");
+        contender.setDaemon(true);
+
+        final VirtualClockSequencePlayer clock = new VirtualClockSequencePlayer(BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        // measures on the player's own thread, then runs or hands off the callback
+        final SequencePlayer measuring = new SequencePlayer() {
+            @Override
+            public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+                clock.addNote(instr, pitch, startBeat, numBeats);
+            }
+
+            @Override
+            public void addEvent(double atBeat, Consumer<Double> callback) {
+                clock.addEvent(atBeat, (Double beat) -> {
+                    final long now = System.nanoTime();
+                    if (beat == 0) {
+                        beatZeroNanos[0] = now;
+                    }
+                    firing.record(now - scheduledNanos(beatZeroNanos[0], beat));
+                    callback.accept(beat);
+                });
+            }
+
+            @Override
+            public void play() {
+                clock.play();
+            }
+        };
+        final DispatchingSequencePlayer dispatching = mode == Mode.DISPATCHED
+                ? new DispatchingSequencePlayer(measuring) : null;
+        final SequencePlayer player = dispatching != null ? dispatching : measuring;
+
+        final Object done = new Object();
+        final boolean[] finished = { false };
+        for (int i = 0; i < events; i++) {
+            player.addEvent(i * BEATS_BETWEEN_EVENTS, (Double beat) -> {
+                delivery.record(System.nanoTime() - scheduledNanos(beatZeroNanos[0], beat));
+                synchronized (sharedLock) {
+                    // the work a lyric callback used to do under the shared lock
+                }
+            });
+        }
+        player.addEvent(events * BEATS_BETWEEN_EVENTS, (Double beat) -> {
+            synchronized (done) {
+                finished[0] = true;
+                done.notifyAll();
+            }
+        });
+
+        contender.start();
+        player.play();
+        synchronized (done) {
+            while (!finished[0]) {
+                done.wait();
+            }
+        }
+        contender.interrupt();
+        contender.join();
+        if (dispatching != null) {
+            dispatching.close();
+        }
+
+        System.out.println(mode + ", " + events + " events, lock held " + holdMillis + " ms at a time");
+        System.out.println("firing on the player's thread: " + firing);
+        System.out.println("callback delivery: " + delivery);
+        if (dispatching != null) {
+            System.out.println("handoff to dispatcher: " + dispatching.handoffLatency());
+        }
+        System.out.println();
+    }
+
+    private static long scheduledNanos(long beatZeroNanos, double beat) {
+        return beatZeroNanos + Math.round(beat * NANOS_PER_BEAT);
+    }
+}
@@ -1,6 +1,5 @@
 package karaoke;
 
-import java.util.List;
 import java.util.Map;
 import karaoke.sound.*;
 
@@ -43,10 +42,10 @@ public class Concat implements Music {
     }
 
     @Override
-    public void play(SequencePlayer player, double atBeat, Map<String, List<String>> voiceToLyricsMap) {
+    public void play(SequencePlayer player, double atBeat, Map<String, LyricLog> voiceToLyricLog) {
         checkRep();
-        first.play(player, atBeat, voiceToLyricsMap);
-        second.play(player, atBeat + first.duration(), voiceToLyricsMap);
+        first.play(player, atBeat, voiceToLyricLog);
+        second.play(player, atBeat + first.duration(), voiceToLyricLog);
         checkRep();
     }
 
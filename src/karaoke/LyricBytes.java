@@ -0,0 +1,75 @@
+package karaoke;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The bytes that lyric streams send, shared by every client of every server. Each lyric
+ * line is encoded once, when it is published, into an immutable buffer that streams to any
+ * number of clients without being encoded again.
+ */
+final class LyricBytes {
+
+    // some web browsers don't start displaying a page until at least 2K bytes have been received
+    private static final int ENOUGH_BYTES_TO_START_STREAMING = 2048;
+
+    private static final ByteBuffer PADDING_LINE;
+    static {
+        byte[] spaces = new byte[ENOUGH_BYTES_TO_START_STREAMING + 1];
+        Arrays.fill(spaces, (byte) ' ');
+        spaces[ENOUGH_BYTES_TO_START_STREAMING] = '\n';
+        PADDING_LINE = ByteBuffer.wrap(spaces).asReadOnlyBuffer();
+    }
+
+    private LyricBytes() {
+        // not instantiable
+    }
+
+    /**
+     * @param line text without newlines
+     * @return a new read-only buffer holding line and a newline, UTF-8 encoded
+     */
+    static ByteBuffer encode(String line) {
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a new read-only view of the line of 2K spaces that primes a stream,
+     *         so browsers start displaying it; every view shares the same bytes
+     */
+    static ByteBuffer paddingLine() {
+        return PADDING_LINE.duplicate();
+    }
+
+    /**
+     * @param line text without newlines
+     * @param scheduledMillis server wall-clock time at which line is to be shown
+     * @return a new read-only buffer holding [scheduledMillis,line] as JSON and a newline, 
+     *         UTF-8 encoded
+     */
+    static ByteBuffer encodeTimed(String line, long scheduledMillis) {
+        StringBuilder json = new StringBuilder().append('[').append(scheduledMillis).append(',');
+        appendJsonString(json, line);
+        json.append("]\n");
+        return ByteBuffer.wrap(json.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Append text to json as a quoted JSON string.
+     */
+    static void appendJsonString(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,134 @@
+package karaoke;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+import karaoke.sound.LatencyHistogram;
+
+/**
+ * How late the lines of one lyric log reach their clients, from the beat each line is sung at
+ * to the write of its bytes to a client's socket, broken down by stage, so that lag can be
+ * blamed on the sequencer, the callback, or the server. Each line is stamped four times: with
+ * the beat its event is scheduled at by SequencePlayer.addEvent(), when that event fires on the
+ * player's thread, when the line is published to its log, and every time it is written to a
+ * client. Lines published without the first two stamps only count toward the WRITE stage.
+ * Thread safe.
+ */
+public class LyricLatency {
+
+    /**
+     * A stage of the trip of a lyric line from its beat to a client.
+     */
+    public enum Stage {
+        /** from the time its beat is due until its event fires on the player's thread */
+        SEQUENCER("sequencer"),
+        /** from its event firing until the callback publishes it, including any handoff and waits */
+        CALLBACK("callback"),
+        /** from being published until its bytes are written to a client */
+        WRITE("write"),
+        /** from the time its beat is due until its bytes are written to a client: every stage */
+        BEAT_TO_WRITE("beat_to_write");
+
+        private final String label;
+
+        private Stage(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return name of this stage as a metric label, in lower case
+         */
+        public String label() {
+            return label;
+        }
+    }
+
+    private final Map<Stage, LatencyHistogram> stages;
+
+    // Abstraction function:
+    //     AF(stages) = the latencies of every line traced through each stage s, recorded in
+    //                  stages.get(s)
+    // Representation invariant:
+    //     - stages has a histogram for every stage
+    // Safety from rep exposure:
+    //     - stages is private, final and unmodifiable; its histograms are returned, but they are
+    //       thread safe and documented as live views
+    // Thread safety argument:
+    //     - stages is filled in the constructor and never modified after, and final, so it is
+    //       safely published; every histogram is thread safe
+
+    private void checkRep() {
+        assert stages.keySet().containsAll(EnumSet.allOf(Stage.class));
+    }
+
+    /**
+     * Make a trace of a log that has published no lines yet.
+     */
+    public LyricLatency() {
+        Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+        this.stages = Collections.unmodifiableMap(histograms);
+        checkRep();
+    }
+
+    /**
+     * @param stage a stage
+     * @return live histogram of the latency of every line traced through that stage
+     */
+    public LatencyHistogram stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Record that a line was published.
+     * @param dueNanos System.nanoTime() at which the beat of the line was due, or -1 if unknown
+     * @param firedNanos System.nanoTime() at which its event fired, or -1 if unknown
+     * @param publishedNanos System.nanoTime() at which it was published
+     */
+    void published(long dueNanos, long firedNanos, long publishedNanos) {
+        if (firedNanos < 0) {
+            return;
+        }
+        if (dueNanos >= 0) {
+            stages.get(Stage.SEQUENCER).record(firedNanos - dueNanos);
+        }
+        stages.get(Stage.CALLBACK).record(publishedNanos - firedNanos);
+    }
+
+    /**
+     * Record that a line was written to a client.
+     * @param dueNanos System.nanoTime() at which the beat of the line was due, or -1 if unknown
+     * @param publishedNanos System.nanoTime() at which it was published
+     * @param writtenNanos System.nanoTime() at which it was written
+     */
+    void written(long dueNanos, long publishedNanos, long writtenNanos) {
+        stages.get(Stage.WRITE).record(writtenNanos - publishedNanos);
+        if (dueNanos >= 0) {
+            stages.get(Stage.BEAT_TO_WRITE).record(writtenNanos - dueNanos);
+        }
+    }
+
+    /**
+     * @return one line per stage, with its name, count, and 50th, 99th and 100th percentiles
+     *         in microseconds
+     */
+    @Override
+    public String toString() {
+        final double nanosPerMicro = 1000;
+        StringBuilder summary = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram latencies = stages.get(stage);
+            if (summary.length() > 0) {
+                summary.append(String.format("%n"));
+            }
+            summary.append(String.format("%s: count %d, p50 %.1f us, p99 %.1f us, max %.1f us",
+                    stage.label(), latencies.count(), latencies.percentileNanos(50) / nanosPerMicro,
+                    latencies.percentileNanos(99) / nanosPerMicro, latencies.maxNanos() / nanosPerMicro));
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,466 @@
+package karaoke;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An append-only log of the lyric lines published for one voice while a piece plays.
+ * Every line gets a sequence number, counting from 0 in order of publication; only the
+ * most recent lines are retained, in a bounded ring. Readers wait for new lines on the log
+ * of their own voice only, so publishing a line wakes only the subscribers of that voice.
+ * Once the voice has nothing more to sing, the log is closed, which wakes every reader so
+ * that streams can end instead of waiting forever.
+ * Thread safe. Reading never blocks a writer, and publishing takes no lock: a single writer
+ * never waits, but with several writers, each one yields until every line claimed before its
+ * own has been published, since lines are published in order.
+ */
+public class LyricLog {
+
+    /**
+     * Number of lines retained by a log made with the default constructor.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile Timebase timebase = null;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final LyricLatency latency = new LyricLatency();
+
+    // Abstraction function:
+    //     AF(ring, mask, claimed, published, waiters, listeners, timebase, closed, latency) = the log of the first
+    //         published.get() lines of a voice, where the line with sequence number n is
+    //         ring[n & mask].line, scheduled to be shown at ring[n & mask].scheduledMillis, as long
+    //         as ring[n & mask].sequence == n, and has been overwritten by a later line otherwise;
+    //         the threads of waiters are parked until a line is published, listeners are run after
+    //         every line is published, and lines appended at a beat are scheduled by timebase;
+    //         no more lines will be published once closed; latency traces how late its lines are
+    // Representation invariant:
+    //     - ring.length() is a power of two and mask == ring.length() - 1
+    //     - 0 <= published.get() <= claimed.get()
+    //     - for every retained sequence number n, ring[n & mask].sequence == n
+    // Safety from rep exposure:
+    //     - all fields are private and final, and entries are immutable
+    //     - encoded() and encodedTimed() return read-only duplicates of an entry's bytes
+    //     - lines() returns a new list
+    //     - latency is returned, but it is thread safe and only its live histograms can be read
+    // Thread safety argument:
+    //     - a writer claims a sequence number with an atomic increment, so no two writers share
+    //       a slot, stores its entry, and then publishes in sequence-number order by advancing
+    //       published, so every entry below published.get() is visible to readers
+    //     - readers validate each entry's sequence number, so a slot overwritten by a lapping
+    //       writer is detected rather than misread
+    //     - a writer whose predecessor has claimed but not yet published yields in a loop until
+    //       it has; appends never wait on readers, so this wait is bounded by the other writers
+    //     - waiters is a thread safe queue; a reader enqueues itself before checking
+    //       published, so a wakeup cannot be lost between the check and LockSupport.park;
+    //       whoever takes a waiter off the queue clears its queued flag and then unparks it,
+    //       so a reader whose wakeup did not end its wait sees the flag cleared and enqueues
+    //       itself again, at most once at a time; it takes itself off when it stops waiting
+    //     - listeners is a copy-on-write list, so appends iterate it without locking
+    //     - timebase is volatile and refers to an immutable value
+    //     - closed is atomic and only ever set, once; close() sets it before waking waiters,
+    //       and waiters check it after enqueueing, as they do for published
+    //     - latency is thread safe
+
+    private void checkRep() {
+        assert Integer.bitCount(ring.length()) == 1;
+        assert mask == ring.length() - 1;
+        assert published.get() >= 0;
+    }
+
+    /**
+     * Make an empty log retaining DEFAULT_CAPACITY lines.
+     */
+    public LyricLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Make an empty log.
+     * @param capacity minimum number of most recent lines to retain, >= 1
+     */
+    public LyricLog(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        ring = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+        checkRep();
+    }
+
+    /**
+     * Publish a line, scheduled to be shown now, and wake every reader waiting on this log.
+     * @param line lyric line to publish, non-null
+     * @return the sequence number of line
+     * @throws IllegalStateException if this log is closed
+     */
+    public long append(String line) {
+        return appendScheduled(line, System.currentTimeMillis(), -1, -1);
+    }
+
+    /**
+     * Publish a line sung at a beat of the player, and wake every reader waiting on this log.
+     * The line is scheduled to be shown at the wall-clock time of that beat according to the
+     * timebase of this log, or now if it has none.
+     * @param line lyric line to publish, non-null
+     * @param beat the beat passed to the player callback that publishes line
+     * @return the sequence number of line
+     * @throws IllegalStateException if this log is closed
+     */
+    public long append(String line, double beat) {
+        final Timebase current = timebase;
+        return appendScheduled(line, current == null ? System.currentTimeMillis() : current.toMillis(beat), -1, -1);
+    }
+
+    /**
+     * Publish a line sung at a beat of the player, as append(line, beat), and trace it in
+     * latency(): how late its event fired after its beat was due, if this log has a timebase,
+     * and how long after firing it was published.
+     * @param line lyric line to publish, non-null
+     * @param beat the beat passed to the player callback that publishes line
+     * @param scheduledBeat the beat that callback was scheduled at by SequencePlayer.addEvent()
+     * @param firedNanos System.nanoTime() at which its event fired, as SequencePlayer.firedNanos()
+     * @return the sequence number of line
+     * @throws IllegalStateException if this log is closed
+     */
+    public long append(String line, double beat, double scheduledBeat, long firedNanos) {
+        final Timebase current = timebase;
+        return current == null
+                ? appendScheduled(line, System.currentTimeMillis(), -1, firedNanos)
+                : appendScheduled(line, current.toMillis(beat), current.toNanos(scheduledBeat), firedNanos);
+    }
+
+    private long appendScheduled(String line, long scheduledMillis, long dueNanos, long firedNanos) {
+        if (closed.get()) {
+            throw new IllegalStateException("no lines can be appended to a closed log");
+        }
+        final long sequence = claimed.getAndIncrement();
+        final long appendedNanos = System.nanoTime();
+        // encode once here, rather than once per reader
+        ring.set((int) sequence & mask, new Entry(sequence, line, scheduledMillis, dueNanos, appendedNanos,
+                LyricBytes.encode(line), LyricBytes.encodeTimed(line, scheduledMillis)));
+        // publish in order: wait for writers that claimed earlier numbers, if any
+        while (!published.compareAndSet(sequence, sequence + 1)) {
+            Thread.yield();
+        }
+        latency.published(dueNanos, firedNanos, appendedNanos);
+        wakeWaiters();
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return sequence;
+    }
+
+    private void wakeWaiters() {
+        for (Waiter waiter = waiters.poll(); waiter != null; waiter = waiters.poll()) {
+            waiter.queued = false;
+            LockSupport.unpark(waiter.thread);
+        }
+    }
+
+    /**
+     * Signal that no more lines will be appended: wake every waiting reader, so it can finish
+     * once it has read every line, and run every listener. Closing a closed log does nothing.
+     * Lines appended concurrently with close() may or may not be published.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        wakeWaiters();
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @return true iff this log has been closed
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Schedule the lines appended at a beat from now on by the given timebase.
+     * Set it just before playing the player whose callbacks append to this log.
+     * @param timebase maps beats of the player to server wall-clock time
+     */
+    public void setTimebase(Timebase timebase) {
+        this.timebase = timebase;
+    }
+
+    /**
+     * @return live trace of how late the lines of this log are, through each stage from their
+     *         beat to their clients
+     */
+    public LyricLatency latency() {
+        return latency;
+    }
+
+    /**
+     * Run listener on the appending thread after every line published from now on, and on the
+     * closing thread when this log is closed, for readers that cannot park a thread per log.
+     * The listener must return quickly.
+     * @param listener function to run, after the line is visible to size() and get(), or after
+     *        isClosed() becomes true
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop running a listener added with addListener, if it was added.
+     * @param listener function to stop running
+     */
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return number of lines published so far, which is also the sequence number
+     *         the next line will get
+     */
+    public long size() {
+        return published.get();
+    }
+
+    /**
+     * @return sequence number of the oldest line still retained; equal to size() if
+     *         no line has been published yet
+     */
+    public long oldestRetained() {
+        return Math.max(0, published.get() - ring.length());
+    }
+
+    /**
+     * @param sequence sequence number of a line, 0 <= sequence < size()
+     * @return the line with that sequence number, or null if it is no longer retained
+     * @throws IndexOutOfBoundsException if no line with that number has been published
+     */
+    public String get(long sequence) {
+        Entry entry = entry(sequence);
+        return entry == null ? null : entry.line;
+    }
+
+    /**
+     * @param sequence sequence number of a line, 0 <= sequence < size()
+     * @return the server wall-clock time, in milliseconds since the epoch, at which the line with
+     *         that sequence number is scheduled to be shown, or -1 if it is no longer retained
+     * @throws IndexOutOfBoundsException if no line with that number has been published
+     */
+    public long scheduledMillis(long sequence) {
+        Entry entry = entry(sequence);
+        return entry == null ? -1 : entry.scheduledMillis;
+    }
+
+    /**
+     * @return the most recently published line, or null if none has been published
+     */
+    public String latest() {
+        long size = published.get();
+        return size == 0 ? null : get(size - 1);
+    }
+
+    /**
+     * @return the retained lines, oldest first; lines published concurrently may or may not
+     *         be included, but the result has no gaps
+     */
+    public List<String> lines() {
+        long end = published.get();
+        List<String> lines = new ArrayList<>();
+        for (long sequence = Math.max(0, end - ring.length()); sequence < end; sequence++) {
+            String line = get(sequence);
+            if (line == null) {
+                // overwritten while we were reading: only the newer lines are still retained
+                lines.clear();
+                continue;
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    /**
+     * Wait until more than count lines have been published, or this log is closed.
+     * @param count number of lines the caller has already seen, >= 0
+     * @return size(), which is <= count only if this log is closed and the caller has seen every line
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long awaitMoreThan(long count) throws InterruptedException {
+        return awaitMoreThan(count, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Wait until more than count lines have been published, this log is closed, or the timeout elapses.
+     * @param count number of lines the caller has already seen, >= 0
+     * @param timeout maximum time to wait
+     * @param unit unit of timeout
+     * @return size(), which is <= count only if the timeout elapsed, or this log is closed and 
+     *         the caller has seen every line
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long awaitMoreThan(long count, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+        long size = published.get();
+        if (size > count) {
+            return size;
+        }
+        final Waiter me = new Waiter(Thread.currentThread());
+        // enqueue before checking, so an append or close after the check still wakes us
+        waiters.add(me);
+        try {
+            while ((size = published.get()) <= count) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || closed.get()) {
+                    // a closed log's lines are all published, since close() comes after the last append
+                    return published.get();
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (!me.queued) {
+                    // woken by an append our last check already saw: get back on, then check again
+                    me.queued = true;
+                    waiters.add(me);
+                }
+            }
+            return size;
+        } finally {
+            // still queued after a timeout, an interrupt, or a wakeup that was not for us
+            if (me.queued) {
+                waiters.remove(me);
+            }
+        }
+    }
+
+    /**
+     * @return number of readers enqueued to be woken by the next append or close
+     */
+    int waiting() {
+        return waiters.size();
+    }
+
+    /**
+     * @param sequence sequence number of a line, 0 <= sequence < size()
+     * @return the entry for that line, or null if it is no longer retained
+     * @throws IndexOutOfBoundsException if no line with that number has been published
+     */
+    Entry entry(long sequence) {
+        if (sequence < 0 || sequence >= published.get()) {
+            throw new IndexOutOfBoundsException("no line " + sequence + " published yet");
+        }
+        Entry entry = ring.get((int) sequence & mask);
+        return entry.sequence == sequence ? entry : null;
+    }
+
+    /**
+     * @param sequence sequence number of a line, 0 <= sequence < size()
+     * @return a new read-only view of the line and a newline, UTF-8 encoded, sharing its
+     *         bytes with every other view of the same line; or null if it is no longer retained
+     * @throws IndexOutOfBoundsException if no line with that number has been published
+     */
+    ByteBuffer encoded(long sequence) {
+        Entry entry = entry(sequence);
+        return entry == null ? null : entry.bytes.duplicate();
+    }
+
+    /**
+     * @param sequence sequence number of a line, 0 <= sequence < size()
+     * @return a new read-only view of [scheduledMillis(sequence),get(sequence)] as JSON and a newline, 
+     *         UTF-8 encoded, sharing its bytes with every other view of the same line; or null if 
+     *         it is no longer retained
+     * @throws IndexOutOfBoundsException if no line with that number has been published
+     */
+    ByteBuffer encodedTimed(long sequence) {
+        Entry entry = entry(sequence);
+        return entry == null ? null : entry.timedBytes.duplicate();
+    }
+
+    /**
+     * @param sequence sequence number of a line, 0 <= sequence < size()
+     * @return System.nanoTime() when the line was appended, or -1 if it is no longer retained
+     * @throws IndexOutOfBoundsException if no line with that number has been published
+     */
+    long appendedNanos(long sequence) {
+        Entry entry = entry(sequence);
+        return entry == null ? -1 : entry.appendedNanos;
+    }
+
+    /**
+     * Trace in latency() that a line has just been written to a client. Does nothing if the
+     * line is no longer retained.
+     * @param sequence sequence number of a line, 0 <= sequence < size()
+     * @throws IndexOutOfBoundsException if no line with that number has been published
+     */
+    void written(long sequence) {
+        final long now = System.nanoTime();
+        Entry entry = entry(sequence);
+        if (entry != null) {
+            latency.written(entry.dueNanos, entry.appendedNanos, now);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return lines().toString();
+    }
+
+    /**
+     * A reader parked in awaitMoreThan(), and whether it is still in the queue of waiters.
+     */
+    private static final class Waiter {
+        final Thread thread;
+        // cleared by whoever takes this waiter off the queue, before unparking its thread
+        volatile boolean queued = true;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * A published line, its sequence number, the time it is scheduled to be shown, the time its
+     * beat was due, the time it was appended, and its encodings as streamed to clients. Immutable.
+     */
+    static final class Entry {
+        final long sequence;
+        final String line;
+        final long scheduledMillis;
+        // System.nanoTime() when its beat was due, or -1 if not traced
+        final long dueNanos;
+        // System.nanoTime() when appended
+        final long appendedNanos;
+        // read-only; readers take duplicates, so their positions never move
+        final ByteBuffer bytes;
+        final ByteBuffer timedBytes;
+
+        Entry(long sequence, String line, long scheduledMillis, long dueNanos, long appendedNanos,
+                ByteBuffer bytes, ByteBuffer timedBytes) {
+            this.sequence = sequence;
+            this.line = line;
+            this.scheduledMillis = scheduledMillis;
+            this.dueNanos = dueNanos;
+            this.appendedNanos = appendedNanos;
+            this.bytes = bytes;
+            this.timedBytes = timedBytes;
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package karaoke;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Represents a push server that streams each set of lyrics for a voice to any number of
+ * clients from a single thread, using a non-blocking NIO selector instead of a thread
+ * per client. Serves the same addresses and chunked plain-text streams as WebServer.
+ * 
+ * A client that does not read as fast as lines are published gets a bounded queue of lines:
+ * once it holds the maximum, the oldest queued line is skipped to make room for the newest,
+ * so the client catches up on the latest lyrics instead of falling further behind. A client
+ * that stays behind for too long is evicted. Appending a line never waits for any client.
+ * 
+ * A client joining mid-song is first sent the newest line, or the newest N lines with the
+ * query ?last=N, as WebServer does.
+ * 
+ * Once the log of a voice is closed, each of its clients is sent the newest line, if it has
+ * not been yet, then the last chunk of its response, and is disconnected.
+ */
+public class LyricStreamServer {
+
+    /**
+     * Default maximum number of lines queued for a client that is not keeping up.
+     */
+    public static final int DEFAULT_MAX_QUEUED_LINES = 4;
+
+    /**
+     * Default time, in milliseconds, that a client may stay behind before it is evicted.
+     */
+    public static final long DEFAULT_EVICT_AFTER_MILLIS = 10_000;
+
+    private static final int INITIAL_REQUEST_BYTES = 512;
+    private static final int MAX_REQUEST_BYTES = 8192;
+    private static final int DISCARD_BYTES = 1024;
+    private static final long EVICTION_CHECK_MILLIS = 250;
+
+    private static final byte[] STREAM_HEADERS = ascii("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Transfer-Encoding: chunked\r\n"
+            + "\r\n");
+    private static final byte[] NOT_FOUND = ascii("HTTP/1.1 404 Not Found\r\n"
+            + "Content-Length: 0\r\n"
+            + "Connection: close\r\n"
+            + "\r\n");
+    private static final byte[] CHUNK_END = ascii("\r\n");
+    private static final byte[] LAST_CHUNK = ascii("0\r\n\r\n");
+    private static final byte[] PADDING_CHUNK_HEADER = chunkHeader(LyricBytes.paddingLine());
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final int port;
+    private final int maxQueuedLines;
+    private final long evictAfterNanos;
+    private final LongAdder skippedLines = new LongAdder();
+    private final LongAdder evictedClients = new LongAdder();
+    private final Map<String, LyricLog> pathToLog = new HashMap<>();
+    private final Map<LyricLog, Runnable> listeners = new HashMap<>();
+    private final Map<LyricLog, Set<Connection>> subscribers = new HashMap<>();
+    private final ConcurrentLinkedQueue<LyricLog> updated = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer discard = ByteBuffer.allocate(DISCARD_BYTES);
+    private long lastEvictionCheckNanos = System.nanoTime();
+    private Thread selectorThread;
+    private volatile boolean running = false;
+
+    // Abstraction function:
+    //     AF(serverChannel, selector, port, maxQueuedLines, evictAfterNanos, skippedLines,
+    //        evictedClients, pathToLog, subscribers, updated, running) = a server
+    //         listening on port that streams the log pathToLog.get(path) to every client that
+    //         requested path; subscribers maps each log to its connected clients, and updated
+    //         holds logs with lines not yet pushed to them; serving iff running.
+    //         A client is queued at most about maxQueuedLines lines, and is evicted once it has
+    //         been behind for evictAfterNanos; skippedLines and evictedClients count how many
+    //         lines were skipped and clients evicted so far
+    // Representation invariant:
+    //     - 1 <= port <= 65535
+    //     - maxQueuedLines >= 1, evictAfterNanos > 0
+    //     - every key of subscribers is a value of pathToLog
+    // Safety from rep exposure:
+    //     - all fields are private, and no rep object is ever returned
+    // Thread safety argument:
+    //     - pathToLog and listeners are written only before the selector thread starts and
+    //       after it stops; Thread.start() and join() order those writes with its reads
+    //     - subscribers, connections, discard and lastEvictionCheckNanos are confined to the
+    //       selector thread
+    //     - skippedLines and evictedClients are thread safe counters
+    //     - appending threads only touch updated, a thread safe queue, and wake up the selector
+
+    private void checkRep() {
+        final int maxPort = 65535;
+        assert port >= 1 && port <= maxPort;
+        assert maxQueuedLines >= 1 && evictAfterNanos > 0;
+    }
+
+    /**
+     * Open a server socket at the given serverPort.
+     * @param serverPort port for the server, or 0 to pick any free port
+     * @throws IOException if an error occurs opening the socket
+     */
+    public LyricStreamServer(int serverPort) throws IOException {
+        this(serverPort, DEFAULT_MAX_QUEUED_LINES, DEFAULT_EVICT_AFTER_MILLIS);
+    }
+
+    /**
+     * Open a server socket at the given serverPort, with the given limits for slow clients.
+     * @param serverPort port for the server, or 0 to pick any free port
+     * @param maxQueuedLines maximum number of lines queued for a client, >= 1; when a new line
+     *        would exceed it, the oldest line not yet being written is skipped
+     * @param evictAfterMillis time, in milliseconds, after which a client that has not caught up
+     *        with its queued output is disconnected, > 0
+     * @throws IOException if an error occurs opening the socket
+     */
+    public LyricStreamServer(int serverPort, int maxQueuedLines, long evictAfterMillis) throws IOException {
+        if (maxQueuedLines < 1 || evictAfterMillis <= 0) {
+            throw new IllegalArgumentException("limits must be positive");
+        }
+        this.maxQueuedLines = maxQueuedLines;
+        this.evictAfterNanos = TimeUnit.MILLISECONDS.toNanos(evictAfterMillis);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(serverPort));
+        serverChannel.configureBlocking(false);
+        selector = Selector.open();
+        port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        checkRep();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int port() {
+        checkRep();
+        return port;
+    }
+
+    /**
+     * @return number of lines skipped so far, over all clients, because a client's queue was full
+     */
+    public long skippedLineCount() {
+        return skippedLines.sum();
+    }
+
+    /**
+     * @return number of clients evicted so far for staying behind too long
+     */
+    public long evictedClientCount() {
+        return evictedClients.sum();
+    }
+
+    /**
+     * Starts streaming every voice concurrently from a single selector thread.
+     * For the voice at index i in the sorted voiceToLyricLog map, the address streaming
+     * the lyrics for that voice is http://localhost:port/textStream/voice_i
+     * @param voiceToLyricLog a map that maps a voice to its log of lyrics, whenever
+     *        a lyric is appended to the log, the server pushes out the newest line
+     *        to every client at the address for that voice
+     * @throws IOException if the selector cannot be set up
+     */
+    public void start(SortedMap<String, LyricLog> voiceToLyricLog) throws IOException {
+        int index = 0;
+        for (LyricLog log : voiceToLyricLog.values()) {
+            pathToLog.put("/textStream/voice_" + index, log);
+            subscribers.put(log, new LinkedHashSet<>());
+            Runnable listener = () -> {
+                updated.add(log);
+                selector.wakeup();
+            };
+            listeners.put(log, listener);
+            log.addListener(listener);
+            index++;
+        }
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(this::serve, "lyric-stream-selector");
+        selectorThread.start();
+    }
+
+    /**
+     * Stop this server and disconnect every client. Once stopped, this server cannot be restarted.
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+        try {
+            if (selectorThread != null) {
+                selectorThread.join();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        for (Map.Entry<LyricLog, Runnable> entry : listeners.entrySet()) {
+            entry.getKey().removeListener(entry.getValue());
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key);
+        }
+        try {
+            selector.close();
+            serverChannel.close();
+        } catch (IOException ioe) {
+            // already stopping
+        }
+    }
+
+    /**
+     * Selector loop: accept clients, read their requests, push new lines and flush output.
+     */
+    private void serve() {
+        while (running) {
+            try {
+                selector.select(EVICTION_CHECK_MILLIS);
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                return;
+            }
+            pushUpdatedLogs();
+            evictLaggingClients();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        read(key);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(key);
+                    }
+                } catch (IOException ioe) {
+                    // client went away
+                    closeQuietly(key);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection();
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    /**
+     * Read from a client: its request if not complete yet, otherwise discard anything it sends.
+     */
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        if (connection.request == null) {
+            discard.clear();
+            if (channel.read(discard) < 0) {
+                closeQuietly(key);
+            }
+            return;
+        }
+        if (!connection.request.hasRemaining()) {
+            if (connection.request.capacity() >= MAX_REQUEST_BYTES) {
+                closeQuietly(key);
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(connection.request.capacity() * 2);
+            connection.request.flip();
+            larger.put(connection.request);
+            connection.request = larger;
+        }
+        if (channel.read(connection.request) < 0) {
+            closeQuietly(key);
+            return;
+        }
+        String request = new String(connection.request.array(), 0, connection.request.position(),
+                                    StandardCharsets.ISO_8859_1);
+        if (!request.contains("\r\n\r\n")) {
+            return;
+        }
+        connection.request = null;
+        handleRequest(key, connection, request);
+    }
+
+    /**
+     * Answer a complete request: subscribe the client to a voice, or reply 404.
+     */
+    private void handleRequest(SelectionKey key, Connection connection, String request) throws IOException {
+        String[] requestLine = request.substring(0, request.indexOf("\r\n")).split(" ");
+        String path = requestLine.length == 3 && requestLine[0].equals("GET") ? requestLine[1] : "";
+        String rawQuery = null;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            rawQuery = path.substring(query + 1);
+            path = path.substring(0, query);
+        }
+        LyricLog log = pathToLog.get(path);
+        if (log == null) {
+            connection.pending.add(new Message(false, ByteBuffer.wrap(NOT_FOUND)));
+            connection.closeWhenFlushed = true;
+            flush(key);
+            return;
+        }
+
+        connection.log = log;
+        subscribers.get(log).add(connection);
+        connection.pending.add(new Message(false, ByteBuffer.wrap(STREAM_HEADERS)));
+        // some web browsers don't start displaying a page until at least 2K bytes have been received
+        connection.pending.add(chunk(false, PADDING_CHUNK_HEADER, LyricBytes.paddingLine()));
+        // like WebServer, start with a snapshot of the newest lines the log retains, by default 
+        // only the newest one; lines before the newest are not skipped if the client is slow
+        final long size = log.size();
+        for (long sequence = Math.max(log.oldestRetained(), size - WebServer.linesOnConnect(rawQuery));
+                sequence < size; sequence++) {
+            ByteBuffer line = log.encoded(sequence);
+            if (line == null) {
+                continue;
+            }
+            if (sequence == size - 1) {
+                queueLine(connection, chunkHeader(line), line);
+            } else {
+                connection.pending.add(chunk(false, chunkHeader(line), line));
+            }
+        }
+        connection.counter = size;
+        if (log.isClosed()) {
+            // the listener has already run for the close, so end the stream here
+            endStream(connection);
+        }
+        flush(key);
+    }
+
+    /**
+     * Push the newest line of every updated log to its subscribers, and end their streams if
+     * the log is closed. Every subscriber is sent the same bytes, encoded once when the line
+     * was published, so the cost per subscriber is only the write itself.
+     */
+    private void pushUpdatedLogs() {
+        Set<LyricLog> logs = new LinkedHashSet<>();
+        for (LyricLog log = updated.poll(); log != null; log = updated.poll()) {
+            logs.add(log);
+        }
+        for (LyricLog log : logs) {
+            Set<Connection> clients = subscribers.get(log);
+            if (clients.isEmpty()) {
+                continue;
+            }
+            long size = log.size();
+            ByteBuffer line = size > 0 ? log.encoded(size - 1) : null;
+            byte[] header = line != null ? chunkHeader(line) : null;
+            final boolean closed = log.isClosed();
+            for (Connection connection : clients.toArray(new Connection[0])) {
+                final boolean sendLine = line != null && connection.counter < size;
+                if (sendLine) {
+                    connection.counter = size;
+                    queueLine(connection, header, line.duplicate());
+                }
+                if (closed) {
+                    endStream(connection);
+                }
+                if (sendLine || closed) {
+                    try {
+                        flush(connection.key);
+                    } catch (IOException ioe) {
+                        closeQuietly(connection.key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write as much pending output to a client as the socket accepts, with one gathering write,
+     * and wait for the socket to become writable again if some output is left.
+     */
+    private void flush(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        if (!connection.pending.isEmpty()) {
+            List<ByteBuffer> output = new ArrayList<>();
+            for (Message message : connection.pending) {
+                output.addAll(Arrays.asList(message.buffers));
+            }
+            ((SocketChannel) key.channel()).write(output.toArray(new ByteBuffer[0]));
+            while (!connection.pending.isEmpty() && connection.pending.peek().isWritten()) {
+                if (connection.pending.poll().line) {
+                    connection.queuedLines--;
+                }
+            }
+        }
+        if (connection.pending.isEmpty()) {
+            if (connection.closeWhenFlushed) {
+                closeQuietly(key);
+                return;
+            }
+            connection.behindSinceNanos = 0;
+            key.interestOps(SelectionKey.OP_READ);
+        } else {
+            if (connection.behindSinceNanos == 0) {
+                connection.behindSinceNanos = System.nanoTime();
+            }
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Queue the last chunk of a client's response, after which it is disconnected.
+     * Does nothing if that has been done already.
+     */
+    private static void endStream(Connection connection) {
+        if (!connection.closeWhenFlushed) {
+            connection.pending.add(new Message(false, ByteBuffer.wrap(LAST_CHUNK)));
+            connection.closeWhenFlushed = true;
+        }
+    }
+
+    private void closeQuietly(SelectionKey key) {
+        Object attachment = key.attachment();
+        if (attachment instanceof Connection && ((Connection) attachment).log != null) {
+            subscribers.get(((Connection) attachment).log).remove(attachment);
+        }
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ioe) {
+            // already closed
+        }
+    }
+
+    /**
+     * Disconnect every subscriber that has been behind for longer than evictAfterNanos.
+     * Checks at most every EVICTION_CHECK_MILLIS.
+     */
+    private void evictLaggingClients() {
+        final long now = System.nanoTime();
+        if (now - lastEvictionCheckNanos < TimeUnit.MILLISECONDS.toNanos(EVICTION_CHECK_MILLIS)) {
+            return;
+        }
+        lastEvictionCheckNanos = now;
+        for (Set<Connection> clients : subscribers.values()) {
+            for (Connection connection : clients.toArray(new Connection[0])) {
+                if (connection.behindSinceNanos != 0 && now - connection.behindSinceNanos > evictAfterNanos) {
+                    evictedClients.increment();
+                    closeQuietly(connection.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue a lyric line for a client as one HTTP chunk, without copying it. If the client
+     * already has maxQueuedLines lines queued, skip the oldest one it has not started to receive.
+     * @param header chunk header of data, as made by chunkHeader(); never modified
+     * @param data bytes to send, not shared with any other connection's pending output
+     */
+    private void queueLine(Connection connection, byte[] header, ByteBuffer data) {
+        if (connection.queuedLines >= maxQueuedLines) {
+            Iterator<Message> queued = connection.pending.iterator();
+            while (queued.hasNext()) {
+                Message message = queued.next();
+                if (message.line && !message.isStarted()) {
+                    queued.remove();
+                    connection.queuedLines--;
+                    skippedLines.increment();
+                    break;
+                }
+            }
+        }
+        connection.pending.add(chunk(true, header, data));
+        connection.queuedLines++;
+    }
+
+    /**
+     * @param line true iff data is a lyric line
+     * @param header chunk header of data, as made by chunkHeader(); never modified
+     * @param data bytes to send, not shared with any other connection's pending output
+     * @return data as one HTTP chunk, without copying it
+     */
+    private static Message chunk(boolean line, byte[] header, ByteBuffer data) {
+        return new Message(line, ByteBuffer.wrap(header), data, ByteBuffer.wrap(CHUNK_END));
+    }
+
+    /**
+     * @param data bytes to send as one HTTP chunk, at least one byte
+     * @return the chunk header announcing the remaining bytes of data
+     */
+    private static byte[] chunkHeader(ByteBuffer data) {
+        return ascii(Integer.toHexString(data.remaining()) + "\r\n");
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * State of one client connection. Confined to the selector thread.
+     */
+    private static final class Connection {
+        // bytes of the request read so far, or null once the request is complete
+        ByteBuffer request = ByteBuffer.allocate(INITIAL_REQUEST_BYTES);
+        // output not yet written, oldest first; the bytes of its buffers may be shared with
+        // other connections, but the buffers themselves are not
+        final ArrayDeque<Message> pending = new ArrayDeque<>();
+        // number of lyric-line messages in pending
+        int queuedLines = 0;
+        // System.nanoTime() when the socket last stopped accepting all pending output, or 0 if 
+        // pending has been written out since
+        long behindSinceNanos = 0;
+        // the log this client is subscribed to, or null if none yet
+        LyricLog log = null;
+        // number of lines of log published when this client was last sent a line
+        long counter = 0;
+        boolean closeWhenFlushed = false;
+        // registration of this client with the selector
+        SelectionKey key = null;
+    }
+
+    /**
+     * Output for a client that is written out in order: the response headers, a chunk of padding,
+     * a chunk holding a lyric line or the last chunk. Lines queued as they are published
+     * are marked as lines, and may be skipped; lines of the snapshot sent on connect,
+     * except the newest, are not. Confined to the selector thread.
+     */
+    private static final class Message {
+        final boolean line;
+        final ByteBuffer[] buffers;
+
+        Message(boolean line, ByteBuffer... buffers) {
+            this.line = line;
+            this.buffers = buffers;
+        }
+
+        /**
+         * @return true iff any of this message has been written
+         */
+        boolean isStarted() {
+            return buffers[0].position() > 0;
+        }
+
+        /**
+         * @return true iff all of this message has been written
+         */
+        boolean isWritten() {
+            return !buffers[buffers.length - 1].hasRemaining();
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package karaoke;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import karaoke.sound.Instrument;
+import karaoke.sound.Pitch;
+import karaoke.sound.RecordingSequencePlayer;
+import karaoke.sound.SequencePlayer;
+
+/**
+ * The complete lyric timeline of a piece: for each voice, every lyric line it publishes while
+ * the piece plays, with the time of that line in milliseconds after playback starts. Sent to
+ * clients once, so that they can highlight lyrics on their own clock, following a PlaybackClock,
+ * instead of being sent every line as it is sung.
+ * Immutable.
+ */
+public class LyricTimeline {
+
+    // same resolution as the players made by Piece, so lines round to the same beats
+    private static final int TICKS_PER_BEAT = 64;
+    private static final double MILLIS_PER_MINUTE = 60_000;
+
+    private final SortedMap<String, long[]> voiceToOffsets;
+    private final SortedMap<String, String[]> voiceToLines;
+    private final long durationMillis;
+
+    // Abstraction function:
+    //     AF(voiceToOffsets, voiceToLines, durationMillis) = a timeline lasting durationMillis in
+    //         which the i-th lyric line of voice is voiceToLines.get(voice)[i], shown
+    //         voiceToOffsets.get(voice)[i] milliseconds after playback starts
+    // Representation invariant:
+    //     - voiceToOffsets and voiceToLines have the same voices as keys
+    //     - for each voice, both arrays have the same length, and offsets are nondecreasing
+    //       and between 0 and durationMillis inclusive
+    //     - no line is null or contains a newline
+    // Safety from rep exposure:
+    //     - all fields are private and final; the arrays are never returned, and observers
+    //       return single elements, new collections, or strings
+    // Thread safety argument:
+    //     - immutable, and fully built before the constructor returns
+
+    private void checkRep() {
+        assert voiceToOffsets.keySet().equals(voiceToLines.keySet());
+        for (String voice : voiceToOffsets.keySet()) {
+            long[] offsets = voiceToOffsets.get(voice);
+            String[] lines = voiceToLines.get(voice);
+            assert offsets.length == lines.length;
+            for (int i = 0; i < offsets.length; i++) {
+                assert 0 <= offsets[i] && offsets[i] <= durationMillis;
+                assert i == 0 || offsets[i - 1] <= offsets[i];
+                assert lines[i] != null && !lines[i].contains("\n");
+            }
+        }
+    }
+
+    /**
+     * Compile the lyric timeline of a piece, by playing its music into a recording player
+     * that publishes to scratch lyric logs, without sound or waiting.
+     * @param piece piece to compile
+     * @return the timeline of every voice of piece, at the tempo piece.getBeatsPerMinute()
+     */
+    public static LyricTimeline compile(Piece piece) {
+        final double millisPerBeat = MILLIS_PER_MINUTE / piece.getBeatsPerMinute();
+        final RecordingSequencePlayer recorder = new RecordingSequencePlayer(TICKS_PER_BEAT);
+        // the beat of the event callback running now, since log listeners are not told it
+        final double[] currentBeat = { 0 };
+        final SequencePlayer stampingPlayer = new SequencePlayer() {
+            @Override
+            public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+                recorder.addNote(instr, pitch, startBeat, numBeats);
+            }
+
+            @Override
+            public void addEvent(double atBeat, Consumer<Double> callback) {
+                recorder.addEvent(atBeat, (Double beat) -> {
+                    currentBeat[0] = beat;
+                    callback.accept(beat);
+                });
+            }
+
+            @Override
+            public void play() {
+                recorder.play();
+            }
+        };
+
+        SortedMap<String, LyricLog> scratchLogs = new TreeMap<>();
+        SortedMap<String, List<Long>> offsets = new TreeMap<>();
+        SortedMap<String, List<String>> lines = new TreeMap<>();
+        for (String voice : piece.getVoices()) {
+            // a scratch log retains only its latest lines, so each line is copied out as it is published
+            LyricLog log = new LyricLog(1);
+            List<Long> voiceOffsets = new ArrayList<>();
+            List<String> voiceLines = new ArrayList<>();
+            log.addListener(() -> {
+                voiceOffsets.add(Math.round(currentBeat[0] * millisPerBeat));
+                voiceLines.add(log.latest());
+            });
+            scratchLogs.put(voice, log);
+            offsets.put(voice, voiceOffsets);
+            lines.put(voice, voiceLines);
+        }
+
+        Music music = piece.getMusic();
+        music.play(stampingPlayer, 0, scratchLogs);
+        stampingPlayer.play();
+
+        SortedMap<String, long[]> voiceToOffsets = new TreeMap<>();
+        SortedMap<String, String[]> voiceToLines = new TreeMap<>();
+        for (String voice : scratchLogs.keySet()) {
+            List<Long> voiceOffsets = offsets.get(voice);
+            long[] offsetArray = new long[voiceOffsets.size()];
+            for (int i = 0; i < offsetArray.length; i++) {
+                offsetArray[i] = voiceOffsets.get(i);
+            }
+            voiceToOffsets.put(voice, offsetArray);
+            voiceToLines.put(voice, lines.get(voice).toArray(new String[0]));
+        }
+        return new LyricTimeline(voiceToOffsets, voiceToLines,
+                                 Math.round(music.duration() * millisPerBeat));
+    }
+
+    private LyricTimeline(SortedMap<String, long[]> voiceToOffsets, SortedMap<String, String[]> voiceToLines,
+            long durationMillis) {
+        this.voiceToOffsets = voiceToOffsets;
+        this.voiceToLines = voiceToLines;
+        this.durationMillis = durationMillis;
+        checkRep();
+    }
+
+    /**
+     * @return the voices of this timeline, in the same order as the voice_i addresses of WebServer
+     */
+    public SortedSet<String> voices() {
+        return new TreeSet<>(voiceToLines.keySet());
+    }
+
+    /**
+     * @return milliseconds from the start of playback to the end of the piece
+     */
+    public long durationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @param voice a voice of this timeline
+     * @return number of lyric lines the voice publishes
+     */
+    public int lineCount(String voice) {
+        return lines(voice).length;
+    }
+
+    /**
+     * @param voice a voice of this timeline
+     * @param i index of a line, 0 <= i < lineCount(voice)
+     * @return the i-th lyric line of voice
+     */
+    public String line(String voice, int i) {
+        return lines(voice)[i];
+    }
+
+    /**
+     * @param voice a voice of this timeline
+     * @param i index of a line, 0 <= i < lineCount(voice)
+     * @return milliseconds from the start of playback until the i-th lyric line of voice is shown
+     */
+    public long offsetMillis(String voice, int i) {
+        return voiceToOffsets.get(voice)[i];
+    }
+
+    /**
+     * @param voice a voice of this timeline
+     * @return the timeline of voice as compact JSON:
+     *         {"voice":voice,"durationMillis":d,"lines":[[offsetMillis,line],...]}
+     */
+    public String toJson(String voice) {
+        String[] lines = lines(voice);
+        long[] offsets = voiceToOffsets.get(voice);
+        StringBuilder json = new StringBuilder("{\"voice\":");
+        LyricBytes.appendJsonString(json, voice);
+        json.append(",\"durationMillis\":").append(durationMillis).append(",\"lines\":[");
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('[').append(offsets[i]).append(',');
+            LyricBytes.appendJsonString(json, lines[i]);
+            json.append(']');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * @param voice a voice of this timeline
+     * @return toJson(voice), UTF-8 encoded
+     */
+    public byte[] toJsonBytes(String voice) {
+        return toJson(voice).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private String[] lines(String voice) {
+        String[] lines = voiceToLines.get(voice);
+        if (lines == null) {
+            throw new IllegalArgumentException("no voice " + voice + " in timeline");
+        }
+        return lines;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (!(that instanceof LyricTimeline)) {
+            return false;
+        }
+        LyricTimeline other = (LyricTimeline) that;
+        if (durationMillis != other.durationMillis || !voices().equals(other.voices())) {
+            return false;
+        }
+        for (String voice : voiceToLines.keySet()) {
+            if (!toJson(voice).equals(other.toJson(voice))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = Long.hashCode(durationMillis);
+        for (String voice : voiceToLines.keySet()) {
+            hash = 31 * hash + toJson(voice).hashCode();
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        List<String> voices = new ArrayList<>();
+        for (String voice : voiceToLines.keySet()) {
+            voices.add(toJson(voice));
+        }
+        return voices.toString();
+    }
+}
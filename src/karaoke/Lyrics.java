@@ -1,6 +1,5 @@
 package karaoke;
 
-import java.util.List;
 import java.util.Map;
 import karaoke.sound.SequencePlayer;
 
@@ -78,13 +77,13 @@ public class Lyrics implements Music {
     }
 
     @Override
-    public void play(SequencePlayer player, double atBeat, Map<String, List<String>> voiceToLyricsMap) {
+    public void play(SequencePlayer player, double atBeat, Map<String, LyricLog> voiceToLyricLog) {
+        LyricLog log = voiceToLyricLog.get(voice);
         player.addEvent(atBeat, (Double beat) -> {
-            synchronized (voiceToLyricsMap) {
-                // Mutate the voiceToLyricsMap for the given voice, then wake up all waiting threads 
-                voiceToLyricsMap.get(voice).add(lyricLine);
-                voiceToLyricsMap.notifyAll();
-            }
+            // Publish to the log for the given voice, which wakes up only its own readers,
+            // scheduled at the wall-clock time of the beat the line is sung at, and traced
+            // from the beat it was scheduled at and the time its event fired
+            log.append(lyricLine, beat, atBeat, player.firedNanos());
         });
     }
 
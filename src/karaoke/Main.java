@@ -1,11 +1,8 @@
 package karaoke;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Scanner;
 import java.util.SortedMap;
-import java.util.TreeMap;
 import java.net.InetAddress;
 
 import javax.sound.midi.InvalidMidiDataException;
@@ -34,7 +31,18 @@ public class Main {
      * 
      * java -cp bin:lib/parserlib.jar karaoke.Main sample-abc/abc_song.abc
      * 
-     * @param args contains a path to a valid abc file 
+     * An optional second argument plays the piece on a virtual clock instead of the MIDI
+     * synthesizer, sped up by the given factor; use 1 for real time without a sound device:
+     * 
+     * java -cp bin:lib/parserlib.jar karaoke.Main sample-abc/abc_song.abc 1
+     * 
+     * or the word receiver instead plays it on the synthesizer without the MIDI sequencer,
+     * sending each note from a scheduling thread of its own:
+     * 
+     * java -cp bin:lib/parserlib.jar karaoke.Main sample-abc/abc_song.abc receiver
+     * 
+     * @param args contains a path to a valid abc file, optionally followed by a speed-up factor
+     *        or receiver
      * @throws IOException if no abc file is found at path filename
      * @throws UnableToParseException if the abc file is not in right format.
      * @throws InvalidMidiDataException if MIDI device unavailable
@@ -42,10 +50,10 @@ public class Main {
      */
     public static void main(String[] args) throws IOException, UnableToParseException, MidiUnavailableException, InvalidMidiDataException {
         // Thread safety argument: 
-        //      The main thread only creates multiple threads through the web-server 
-        //      The only data type modified on multiple threads is the voiceToLyricsMap
-        //      Every time the voiceToLyricsMap is read or modified, it is done inside a 
-        //          synchronized block 
+        //      The main thread only creates multiple threads through the web-server and the 
+        //      room's player, whose lyric callbacks all run on its single dispatcher thread 
+        //      The only data types modified on multiple threads are the LyricLog of each voice
+        //      and the PlaybackClock of the room, which are thread safe 
         
         // Get the filename and parse the file into a Piece 
         String path = args[0];
@@ -55,59 +63,54 @@ public class Main {
         System.out.println("Title:" + piece.getTitle());
         System.out.println("Composer: " + piece.getNameOfComposer());
         
-        // Create voiceToLyricsMap and SequencePlayer
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>();
-        for (String voice : piece.getVoices()) {
-            voiceToLyricsMap.put(voice, new ArrayList<String>());
+        // Create a room, with a log of lyrics per voice, that plays the piece on its own player
+        final boolean receiver = args.length > 1 && args[1].equals("receiver");
+        final boolean virtual = args.length > 1 && !receiver;
+        final double speedUp = virtual ? Double.parseDouble(args[1]) : 1;
+        final SequencePlayer player;
+        if (virtual) {
+            player = piece.createVirtualClockPlayer(speedUp);
+        } else if (receiver) {
+            player = piece.createReceiverPlayer();
+        } else {
+            player = piece.createPlayer();
         }
-        SequencePlayer player = piece.createPlayer();
+        Room room = new Room("main", piece, player, speedUp);
+        SortedMap<String, LyricLog> voiceToLyricLog = room.voiceToLyricLog();
         
-        // Start the web-server
+        // Start the web-server, also serving the lyric timeline for clients that keep their own time
         final int serverPort = 5002;
         WebServer server = new WebServer(serverPort);
-        server.start(voiceToLyricsMap);
+        server.start(voiceToLyricLog);
+        server.startTimeline(room.timeline(), room.clock());
         
         // Print out URL's for each voice 
         String myIP = InetAddress.getLocalHost().getHostAddress();
-        synchronized(voiceToLyricsMap) {
-            int index = 0;
-            for (String voice : voiceToLyricsMap.keySet()) {
-                System.out.println("For voice " + voice + 
-                        ", go to http://" + myIP + ":" + serverPort + "/textStream/voice_" + index);
-                index++;
-            }
+        int index = 0;
+        for (String voice : voiceToLyricLog.keySet()) {
+            System.out.println("For voice " + voice + 
+                    ", go to http://" + myIP + ":" + serverPort + "/textStream/voice_" + index
+                    + " (timeline at /timeline/voice_" + index + ")");
+            index++;
         }
+        System.out.println("Playback clock at http://" + myIP + ":" + serverPort + "/clock");
         
         Main.promptEnterKey();
         
-        // Initialize the sequence player 
-        final double warmup = 0.125;
-        Music music = piece.getMusic();
-        music.play(player, warmup, voiceToLyricsMap);
-        
-        // Add a listener at the end of the piece to tell main thread when it's done
-        Object lock = new Object();
-        player.addEvent(music.duration() + warmup, (Double beat) -> {
-            synchronized (lock) {
-                lock.notify();
-            }
-        });
-        
-        // Play the music with the sequence player 
-        player.play();
+        // Play the music; the room ends every stream when the piece is over 
+        room.play();
         
         // Wait until player is done
-        synchronized (lock) {
-            try {
-                lock.wait();
-            } catch (InterruptedException e) {
-                return;
-            }
+        try {
+            room.awaitEnd();
+        } catch (InterruptedException e) {
+            return;
         }
         
-        // Then close the server and terminate the program
-        server.stop();
-        System.exit(1);
+        // Then let the streams send their last lines and end, and stop the server; once every
+        // handler thread has ended, the program terminates on its own 
+        final int drainSeconds = 2;
+        server.stop(drainSeconds);
     }
     
     /**
@@ -1,6 +1,5 @@
 package karaoke;
 
-import java.util.List;
 import java.util.Map;
 import karaoke.sound.*;
 
@@ -78,15 +77,15 @@ public interface Music {
     double duration();
 
     /**
-     * Play this piece and add events to the player for modifying the map while playing the music.
-     * Whenever an event is added to the player to modify the map, the modification of the map
-     * occurs inside a synchronized block. At the end of the mutation in the synchronized block, 
-     * the event then calls notifyAll() to wake up all waiting threads. 
+     * Play this piece and add events to the player for publishing lyrics while playing the music.
+     * Whenever a lyric is to be printed, the event appends it to the log for its voice, which
+     * wakes up the threads waiting on that log only.
      * @param player player to play on
      * @param atBeat when to play
-     * @param voiceToLyricsMap player modifies this whenever a lyric is to be printed.
+     * @param voiceToLyricLog player appends to the log of a voice whenever a lyric of that voice
+     *        is to be printed; must have a log for every voice in this piece
      */
-    void play(SequencePlayer player, double atBeat, Map<String, List<String>> voiceToLyricsMap);
+    void play(SequencePlayer player, double atBeat, Map<String, LyricLog> voiceToLyricLog);
     
     /**
      * Get a string representation of the music that shows its overall structure.
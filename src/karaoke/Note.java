@@ -1,6 +1,5 @@
 package karaoke;
 
-import java.util.List;
 import java.util.Map;
 import karaoke.sound.*;
 
@@ -52,7 +51,7 @@ public class Note implements Music {
     }
 
     @Override
-    public void play(SequencePlayer player, double atBeat, Map<String, List<String>> voiceToLyricsMap) {
+    public void play(SequencePlayer player, double atBeat, Map<String, LyricLog> voiceToLyricLog) {
         checkRep();
         player.addNote(instrument, pitch, atBeat, duration);
         checkRep();
@@ -14,8 +14,11 @@ import javax.sound.midi.MidiUnavailableException;
 
 import edu.mit.eecs.parserlib.UnableToParseException;
 import karaoke.parser.PieceParser;
+import karaoke.sound.MidiPlayerPool;
 import karaoke.sound.MidiSequencePlayer;
+import karaoke.sound.ReceiverSequencePlayer;
 import karaoke.sound.SequencePlayer;
+import karaoke.sound.VirtualClockSequencePlayer;
 
 /**
  * An object having all information in an abc file, i.e., header and music.
@@ -237,6 +240,46 @@ public class Piece {
         SequencePlayer sp = new MidiSequencePlayer(beatsPerMinute, ticksPerBeat);
         return sp;
     }
+    
+    /**
+     * Creates an empty sequence player with same beats per minute as specified in the piece,
+     * that plays on a warm synthesizer and sequencer from pool and hands them back when done.
+     * @param pool pool of MIDI engines shared by the pieces played one after another
+     * @return the sequence player.
+     * @throws InvalidMidiDataException if MIDI device unavailable
+     * @throws MidiUnavailableException if MIDI play fails
+     */
+    public SequencePlayer createPlayer(MidiPlayerPool pool) throws MidiUnavailableException, InvalidMidiDataException {
+        final int ticksPerBeat = 64;
+        SequencePlayer sp = pool.createPlayer(beatsPerMinute, ticksPerBeat);
+        return sp;
+    }
+    
+    /**
+     * Creates an empty sequence player with same beats per minute as specified in the piece,
+     * that sends MIDI messages straight to its own synthesizer from a scheduling thread,
+     * instead of through the MIDI sequencer. Its callbacks run on that thread, so it should
+     * be played in a Room, which hands them off to a dispatcher thread.
+     * @return the sequence player.
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    public SequencePlayer createReceiverPlayer() throws MidiUnavailableException {
+        final int ticksPerBeat = 64;
+        SequencePlayer sp = new ReceiverSequencePlayer(beatsPerMinute, ticksPerBeat);
+        return sp;
+    }
+    
+    /**
+     * Creates an empty sequence player with same beats per minute as specified in the piece,
+     * that plays on a virtual clock and needs no MIDI device.
+     * @param speedUp how many times faster than real time to play, > 0
+     * @return the sequence player.
+     */
+    public SequencePlayer createVirtualClockPlayer(double speedUp) {
+        final int ticksPerBeat = 64;
+        SequencePlayer sp = new VirtualClockSequencePlayer(beatsPerMinute, ticksPerBeat, speedUp);
+        return sp;
+    }
 
     /**
      * Get a string representation of the piece that shows its header fields and its music.
@@ -281,7 +324,7 @@ public class Piece {
         return this.composer.equals(that.composer)
             && this.index == that.index
             && this.defaultNoteDuration == that.defaultNoteDuration
-            && this.meter == that.meter
+            && this.meter.equals(that.meter)
             && this.beatsPerMinute == that.beatsPerMinute
             && this.title.equals(that.title)
             && this.voices.equals(that.voices)
@@ -0,0 +1,100 @@
+package karaoke;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * A cache of pieces parsed from abc files, shared by every room of a server, so a song queued
+ * in many rooms is read and parsed only once. Concurrent requests for a file that is not
+ * cached yet wait for a single parse instead of each parsing it. Pieces are immutable, so
+ * every room can play the same cached piece. A file that fails to parse is not cached.
+ * Files are assumed not to change while cached; call clear() after editing them.
+ * Thread safe.
+ */
+public class PieceCache {
+
+    private final ConcurrentMap<String, FutureTask<Piece>> pieces = new ConcurrentHashMap<>();
+
+    // Abstraction function:
+    //     AF(pieces) = a cache holding, for each canonical path p in pieces, the piece parsed
+    //                  from the abc file at p, or being parsed from it if pieces.get(p) is not done
+    // Representation invariant:
+    //     - every key of pieces is a canonical path
+    // Safety from rep exposure:
+    //     - pieces is private and final, and never returned; Piece is immutable
+    // Thread safety argument:
+    //     - pieces is a thread safe map, and putIfAbsent makes exactly one thread run the
+    //       parse of each path; FutureTask publishes the parsed piece safely to every waiter
+
+    /**
+     * Make an empty cache.
+     */
+    public PieceCache() {
+    }
+
+    /**
+     * Get the piece of an abc file, parsing it only if it is not cached yet.
+     * @param filename name of the abc file
+     * @return the piece parsed from the file
+     * @throws IOException if no abc file is found at path filename
+     * @throws UnableToParseException if the abc file is not in right format.
+     */
+    public Piece get(String filename) throws IOException, UnableToParseException {
+        final String path = new File(filename).getCanonicalPath();
+        FutureTask<Piece> parse = pieces.get(path);
+        if (parse == null) {
+            FutureTask<Piece> ours = new FutureTask<>(() -> Piece.parseFromFile(path));
+            parse = pieces.putIfAbsent(path, ours);
+            if (parse == null) {
+                parse = ours;
+                ours.run();
+            }
+        }
+        try {
+            return parse.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for " + path + " to be parsed", ie);
+        } catch (ExecutionException ee) {
+            // forget the failure, so the next request tries again
+            pieces.remove(path, parse);
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof UnableToParseException) {
+                throw (UnableToParseException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /**
+     * @return number of files cached or being parsed
+     */
+    public int size() {
+        return pieces.size();
+    }
+
+    /**
+     * Forget every cached piece. Rooms already playing a piece keep playing it.
+     */
+    public void clear() {
+        pieces.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "cache of " + pieces.size() + " pieces";
+    }
+}
@@ -0,0 +1,181 @@
+package karaoke;
+
+/**
+ * The playback position of a piece whose lyric timeline clients render on their own, and the
+ * control channel that tells them about every start, pause and seek. Each change is published
+ * as one line of JSON to a LyricLog, so it streams to clients like any lyric line:
+ *
+ * {"state":"playing"|"paused","positionMillis":p,"rate":r,"serverTimeMillis":t}
+ *
+ * meaning the piece was at position p milliseconds, and playing or paused, at server wall-clock
+ * time t, and while playing advances r milliseconds per millisecond of wall-clock time, as
+ * when the piece is played faster than its tempo. A client that knows the state extrapolates
+ * the position itself until the next change, so the server sends one line per control event,
+ * not one per lyric line.
+ * Thread safe.
+ */
+public class PlaybackClock {
+
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final LyricLog events = new LyricLog();
+    private final double rate;
+    private boolean playing = false;
+    // position when last started, paused or sought
+    private long positionMillis = 0;
+    // System.nanoTime() when last started, paused or sought
+    private long changedNanos = System.nanoTime();
+
+    // Abstraction function:
+    //     AF(events, rate, playing, positionMillis, changedNanos) = a playback clock that is
+    //         running iff playing, whose position is positionMillis at time changedNanos plus, if
+    //         playing, rate times the time elapsed since then; events holds every change
+    //         published so far, newest last
+    // Representation invariant:
+    //     - rate > 0
+    //     - positionMillis >= 0
+    //     - events is non-empty, and its newest line describes the current state
+    //     - if events is closed, playing is false
+    // Safety from rep exposure:
+    //     - all fields are private; events is returned, but it is a thread safe log that only
+    //       this clock appends to, as documented by events()
+    // Thread safety argument:
+    //     - rate is final and immutable
+    //     - playing, positionMillis and changedNanos are only read and written while
+    //       holding this object's lock
+    //     - each change is appended to events while holding the lock, so changes are published
+    //       in the order they happen; events is itself thread safe for readers
+
+    private void checkRep() {
+        assert rate > 0;
+        assert positionMillis >= 0;
+        assert events.size() > 0;
+        assert !events.isClosed() || !playing;
+    }
+
+    /**
+     * Make a clock paused at the start of the piece, that plays at the piece's tempo.
+     */
+    public PlaybackClock() {
+        this(1);
+    }
+
+    /**
+     * Make a clock paused at the start of the piece.
+     * @param rate how many times faster than the piece's tempo it plays, > 0; its position
+     *        advances rate milliseconds per millisecond of wall-clock time
+     */
+    public PlaybackClock(double rate) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("rate must be > 0: " + rate);
+        }
+        this.rate = rate;
+        publish();
+        checkRep();
+    }
+
+    /**
+     * Start or resume playback from the current position. Does nothing if already playing,
+     * or if this clock is closed, since a piece may end before the start of its music is
+     * handled.
+     */
+    public synchronized void start() {
+        if (!playing && !events.isClosed()) {
+            positionMillis = currentPositionMillis();
+            changedNanos = System.nanoTime();
+            playing = true;
+            publish();
+        }
+        checkRep();
+    }
+
+    /**
+     * Pause playback at the current position. Does nothing if already paused.
+     */
+    public synchronized void pause() {
+        if (playing) {
+            positionMillis = currentPositionMillis();
+            changedNanos = System.nanoTime();
+            playing = false;
+            publish();
+        }
+        checkRep();
+    }
+
+    /**
+     * Move playback to a position, without starting or pausing it.
+     * @param positionMillis milliseconds from the start of the piece, >= 0
+     * @throws IllegalStateException if this clock is closed
+     */
+    public synchronized void seek(long positionMillis) {
+        if (positionMillis < 0) {
+            throw new IllegalArgumentException("position must be >= 0: " + positionMillis);
+        }
+        this.positionMillis = positionMillis;
+        changedNanos = System.nanoTime();
+        publish();
+        checkRep();
+    }
+
+    /**
+     * Pause playback, if playing, and end the control channel, so clients streaming it finish.
+     * The clock must not be started, paused or sought afterwards. Closing a closed clock does nothing.
+     */
+    public synchronized void close() {
+        if (!events.isClosed()) {
+            pause();
+            events.close();
+        }
+        checkRep();
+    }
+
+    /**
+     * @return how many times faster than the piece's tempo this clock plays
+     */
+    public double rate() {
+        return rate;
+    }
+
+    /**
+     * @return true iff playing
+     */
+    public synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * @return the current position, in milliseconds from the start of the piece
+     */
+    public synchronized long positionMillis() {
+        return currentPositionMillis();
+    }
+
+    /**
+     * @return the control channel of this clock: a log with one JSON line per change, newest last.
+     *         Callers must only read it; the clock is the only writer.
+     */
+    public LyricLog events() {
+        return events;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return events.latest();
+    }
+
+    // requires holding the lock
+    private long currentPositionMillis() {
+        if (!playing) {
+            return positionMillis;
+        }
+        return positionMillis + (long) ((System.nanoTime() - changedNanos) * rate / NANOS_PER_MILLI);
+    }
+
+    // requires holding the lock, or the constructor
+    private void publish() {
+        events.append("{\"state\":\"" + (playing ? "playing" : "paused") + "\""
+                + ",\"positionMillis\":" + positionMillis
+                + ",\"rate\":" + rate
+                + ",\"serverTimeMillis\":" + System.currentTimeMillis() + "}");
+    }
+}
@@ -1,6 +1,5 @@
 package karaoke;
 
-import java.util.List;
 import java.util.Map;
 import karaoke.sound.SequencePlayer;
 
@@ -39,7 +38,7 @@ public class Rest implements Music {
     }
 
     @Override
-    public void play(SequencePlayer player, double atBeat, Map<String, List<String>> voiceToLyricsMap) {
+    public void play(SequencePlayer player, double atBeat, Map<String, LyricLog> voiceToLyricLog) {
         checkRep();
         return;
     }
@@ -0,0 +1,279 @@
+package karaoke;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import karaoke.sound.DispatchingSequencePlayer;
+import karaoke.sound.Instrument;
+import karaoke.sound.Pitch;
+import karaoke.sound.SequencePlayer;
+
+/**
+ * One karaoke session: a piece played once on its own sequence player, with its own log of
+ * lyrics for each voice, its own lyric timeline and its own playback clock. Many rooms can
+ * play at once in one server, each streaming only to its own clients.
+ * When the piece ends, or the room is closed, every log and the clock are closed, so
+ * every stream of the room ends.
+ * Thread safe.
+ */
+public class Room {
+
+    private static final double WARMUP_BEATS = 0.125;
+
+    private final String id;
+    private final Piece piece;
+    private final DispatchingSequencePlayer player;
+    private final double speedUp;
+    private final SortedMap<String, LyricLog> voiceToLyricLog;
+    private final LyricTimeline timeline;
+    private final PlaybackClock clock;
+    private final AtomicBoolean played = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final CountDownLatch ended = new CountDownLatch(1);
+    private final Runnable whenClosed;
+
+    // Abstraction function:
+    //     AF(id, piece, player, speedUp, voiceToLyricLog, timeline, clock, played, closed, ended,
+    //        whenClosed) =
+    //         the room named id playing piece on player, speedUp times faster than its tempo,
+    //         publishing the lyrics of each voice to its log in voiceToLyricLog, and its start
+    //         and end to clock; timeline is the compiled timeline of piece. The room has been
+    //         played iff played, and is closed iff closed, after which ended counts down;
+    //         whenClosed is run once it is closed
+    // Representation invariant:
+    //     - id is a valid room id, as isValidId()
+    //     - speedUp > 0, and clock plays at rate speedUp
+    //     - voiceToLyricLog.keySet() equals piece.getVoices()
+    //     - if ended has counted down, closed is true
+    // Safety from rep exposure:
+    //     - all fields are private and final
+    //     - voiceToLyricLog is returned as an unmodifiable view; its logs, the timeline and
+    //       the clock are returned, but they are thread safe, and documented to be only read
+    //     - piece and id are immutable
+    // Thread safety argument:
+    //     - played and closed are atomic, so the room is played at most once and closed at most 
+    //       once, and whenClosed is run at most once
+    //     - lyric callbacks all run on the single dispatcher thread of player, before the
+    //       callback at the end of the piece, which closes the logs; logs and the clock are
+    //       themselves thread safe
+    //     - ended is a thread safe latch
+
+    private void checkRep() {
+        assert isValidId(id);
+        assert speedUp > 0;
+        assert clock.rate() == speedUp;
+        assert voiceToLyricLog.keySet().equals(piece.getVoices());
+        assert ended.getCount() > 0 || closed.get();
+    }
+
+    /**
+     * @param id candidate room id
+     * @return true iff id is a non-empty string of at most 64 letters, digits, '-' and '_',
+     *         so that it can be used as part of a URL path as is
+     */
+    public static boolean isValidId(String id) {
+        return id.matches("[A-Za-z0-9_-]{1,64}");
+    }
+
+    /**
+     * Make a room that is ready to play a piece.
+     * @param id name of the room, as isValidId()
+     * @param piece the piece the room plays
+     * @param player an empty sequence player made for piece, not played yet; the room owns it
+     * @param speedUp how many times faster than the piece's tempo player plays, > 0
+     */
+    public Room(String id, Piece piece, SequencePlayer player, double speedUp) {
+        this(id, piece, player, speedUp, () -> { });
+    }
+
+    /**
+     * Make a room that is ready to play a piece, and tell its owner when it is closed.
+     * @param id name of the room, as isValidId()
+     * @param piece the piece the room plays
+     * @param player an empty sequence player made for piece, not played yet; the room owns it
+     * @param speedUp how many times faster than the piece's tempo player plays, > 0
+     * @param whenClosed function to run once the room is closed, on the thread closing it,
+     *        which is the dispatcher thread when the piece ends; must return quickly
+     */
+    Room(String id, Piece piece, SequencePlayer player, double speedUp, Runnable whenClosed) {
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("invalid room id: " + id);
+        }
+        if (!(speedUp > 0)) {
+            throw new IllegalArgumentException("speed-up must be > 0: " + speedUp);
+        }
+        this.id = id;
+        this.piece = piece;
+        // lyric callbacks run on a dispatcher thread, so they never delay the MIDI events after them
+        this.player = new DispatchingSequencePlayer(player);
+        this.speedUp = speedUp;
+        SortedMap<String, LyricLog> logs = new TreeMap<>();
+        for (String voice : piece.getVoices()) {
+            logs.put(voice, new LyricLog());
+        }
+        this.voiceToLyricLog = Collections.unmodifiableSortedMap(logs);
+        this.timeline = LyricTimeline.compile(piece);
+        // the clock's position is in the piece's time, which passes speedUp times faster
+        this.clock = new PlaybackClock(speedUp);
+        this.whenClosed = whenClosed;
+        checkRep();
+    }
+
+    /**
+     * @return the name of this room
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * @return the piece this room plays
+     */
+    public Piece piece() {
+        return piece;
+    }
+
+    /**
+     * @return unmodifiable map from each voice of the piece to its log of lyrics; callers must
+     *         only read the logs
+     */
+    public SortedMap<String, LyricLog> voiceToLyricLog() {
+        return voiceToLyricLog;
+    }
+
+    /**
+     * @return the compiled lyric timeline of the piece
+     */
+    public LyricTimeline timeline() {
+        return timeline;
+    }
+
+    /**
+     * @return the playback clock of this room; callers must only read it
+     */
+    public PlaybackClock clock() {
+        return clock;
+    }
+
+    /**
+     * Start playing the piece, and return at once. The playback clock starts with the music,
+     * and the room is closed when the piece ends. Scheduling the music on the player is
+     * recorded as a ScheduleEvent when a Flight Recorder recording enables it.
+     * @throws IllegalStateException if this room has already been played or closed
+     */
+    public void play() {
+        if (closed.get() || !played.compareAndSet(false, true)) {
+            throw new IllegalStateException("room " + id + " has already been played");
+        }
+        Music music = piece.getMusic();
+
+        // schedule each lyric line at the wall-clock time of its beat, counting from beat 0 as
+        // the player actually played it: play() may take a while to load instruments and open
+        // the sequencer first; beat 0 comes before every lyric, so every line is scheduled
+        final double beatsPerMinute = piece.getBeatsPerMinute() * speedUp;
+        player.addEvent(0, (Double beat) -> {
+            Timebase timebase = Timebase.firedAt(beat, player.firedNanos(), beatsPerMinute);
+            for (LyricLog log : voiceToLyricLog.values()) {
+                log.setTimebase(timebase);
+            }
+        });
+
+        final ScheduleEvent event = new ScheduleEvent();
+        // count what is scheduled only while it is being recorded
+        final SequencePlayer scheduling = event.isEnabled() ? counting(player, event) : player;
+        event.begin();
+        music.play(scheduling, WARMUP_BEATS, voiceToLyricLog);
+        event.end();
+        if (event.shouldCommit()) {
+            event.room = id;
+            event.beats = music.duration();
+            event.commit();
+        }
+
+        // start the playback clock of timeline clients when the music itself starts
+        player.addEvent(WARMUP_BEATS, (Double beat) -> clock.start());
+
+        // runs after every lyric callback, so each log is closed after its last line
+        player.addEvent(music.duration() + WARMUP_BEATS, (Double beat) -> close());
+
+        player.play();
+        checkRep();
+    }
+
+    /**
+     * @return a player that forwards everything to player, counting the notes and events
+     *         added in event
+     */
+    private static SequencePlayer counting(SequencePlayer player, ScheduleEvent event) {
+        return new SequencePlayer() {
+            @Override
+            public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+                event.notes++;
+                player.addNote(instr, pitch, startBeat, numBeats);
+            }
+
+            @Override
+            public void addEvent(double atBeat, Consumer<Double> callback) {
+                event.events++;
+                player.addEvent(atBeat, callback);
+            }
+
+            @Override
+            public void play() {
+                player.play();
+            }
+
+            @Override
+            public long firedNanos() {
+                return player.firedNanos();
+            }
+        };
+    }
+
+    /**
+     * Wait until the piece has ended or this room has been closed, and its owner has been told.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitEnd() throws InterruptedException {
+        ended.await();
+    }
+
+    /**
+     * @return true iff the piece has ended or this room has been closed
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * End every stream of this room: stop running lyric callbacks, and close every log and the
+     * playback clock. Music already playing is not stopped; if the room was never played, its
+     * player releases its devices now. Closing a closed room does nothing.
+     */
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        player.close();
+        for (LyricLog log : voiceToLyricLog.values()) {
+            log.close();
+        }
+        clock.close();
+        // tell the owner first, so that awaitEnd() returns only once the owner knows
+        try {
+            whenClosed.run();
+        } finally {
+            ended.countDown();
+        }
+        checkRep();
+    }
+
+    @Override
+    public String toString() {
+        return "room " + id + ": " + piece.getTitle();
+    }
+}
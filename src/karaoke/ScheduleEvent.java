@@ -0,0 +1,33 @@
+package karaoke;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for scheduling the music of a room on its sequence player with
+ * Music.play(), which adds every note, and every lyric event, to the player's track.
+ * Costs next to nothing unless a recording that enables it is running.
+ */
+@Name("karaoke.MusicSchedule")
+@Label("Music Schedule")
+@Category({ "Karaoke", "Player" })
+@Description("Scheduling of the notes and lyrics of a piece on a sequence player")
+final class ScheduleEvent extends jdk.jfr.Event {
+
+    @Label("Room")
+    String room;
+
+    @Label("Notes")
+    @Description("Notes added to the player")
+    int notes;
+
+    @Label("Events")
+    @Description("Lyric callbacks added to the player")
+    int events;
+
+    @Label("Beats")
+    @Description("Duration of the music scheduled")
+    double beats;
+}
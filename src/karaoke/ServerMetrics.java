@@ -0,0 +1,385 @@
+package karaoke;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import karaoke.LyricLatency.Stage;
+import karaoke.sound.LatencyHistogram;
+
+/**
+ * Metrics of a WebServer under load, for each log it streams: connected clients, lines
+ * published and written, bytes of lines written, how far behind each client is, a
+ * histogram of the time from publishing each line to writing it to a client, and histograms
+ * of the latency of each stage from the beat of each line to its write, as LyricLatency, and
+ * clients evicted for not reading; and for the whole server, exchanges in progress and the
+ * state of its executor.
+ * Recording only touches striped LongAdder counters, fixed-bucket histograms, concurrent
+ * sets and the lock of the one client written to, never a lock shared between clients, so it
+ * costs almost nothing on the paths that stream lines; all the work is done when metrics are
+ * read, by exposition().
+ * Thread safe.
+ */
+public class ServerMetrics {
+
+    // histogram buckets exposed, from about 1 us to about 69 s
+    private static final int MIN_EXPOSED_BUCKET = 10;
+    private static final int MAX_EXPOSED_BUCKET = 36;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Map<String, StreamMetrics> streams = new ConcurrentSkipListMap<>();
+    private final LongAdder activeExchanges = new LongAdder();
+    private final AtomicLong nextClientId = new AtomicLong();
+    private final Set<Client> connected = ConcurrentHashMap.newKeySet();
+
+    // Abstraction function:
+    //     AF(streams, activeExchanges, nextClientId, connected) = the metrics of a server
+    //         streaming, for each name in streams, a log whose metrics are streams.get(name),
+    //         and handling activeExchanges.sum() exchanges now; nextClientId is the id of the
+    //         next client, and connected holds every client connected now, including clients
+    //         of streams whose metrics have been removed
+    // Representation invariant:
+    //     - every key of streams is the name of its value
+    //     - activeExchanges.sum() >= 0 whenever no exchange is starting or ending
+    // Safety from rep exposure:
+    //     - all fields are private and final; StreamMetrics and Client are only returned to
+    //       this package, and are thread safe
+    // Thread safety argument:
+    //     - streams is a thread safe sorted map, activeExchanges a thread safe adder,
+    //       nextClientId atomic and connected a thread safe set; StreamMetrics and Client are
+    //       thread safe
+
+    private void checkRep() {
+        for (Map.Entry<String, StreamMetrics> stream : streams.entrySet()) {
+            assert stream.getKey().equals(stream.getValue().name);
+        }
+    }
+
+    /**
+     * Make metrics of a server that streams nothing yet.
+     */
+    public ServerMetrics() {
+        checkRep();
+    }
+
+    /**
+     * Get the metrics of a stream, making them if it has none yet.
+     * @param name name of the stream, as shown in the stream label; one name per log
+     * @param log the log the stream serves
+     * @return the metrics of the stream called name
+     */
+    StreamMetrics stream(String name, LyricLog log) {
+        return streams.computeIfAbsent(name, n -> new StreamMetrics(n, log, nextClientId, connected));
+    }
+
+    /**
+     * Forget the metrics of a stream that is no longer served. Does nothing if there are none.
+     * @param name name of the stream
+     */
+    void removeStream(String name) {
+        streams.remove(name);
+    }
+
+    /**
+     * Count an exchange as started; each must be followed by one exchangeEnded().
+     */
+    void exchangeStarted() {
+        activeExchanges.increment();
+    }
+
+    /**
+     * Count an exchange as ended.
+     */
+    void exchangeEnded() {
+        activeExchanges.decrement();
+    }
+
+    /**
+     * Evict every client that a write has been blocked on for longer than allowed, because it
+     * stopped reading, by interrupting the thread writing to it, which closes its connection.
+     * Each eviction is counted in the metrics of the client's stream.
+     * @param evictAfterNanos time, in nanoseconds, that a write to a client may block, > 0
+     * @return number of clients evicted
+     */
+    int evictStalledClients(long evictAfterNanos) {
+        final long now = System.nanoTime();
+        int evicted = 0;
+        for (Client client : connected) {
+            if (client.evictIfStalled(now, evictAfterNanos)) {
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @param executor the executor of the server, or null if it has not started
+     * @return every metric in the Prometheus text exposition format, version 0.0.4; the
+     *         executor's queue depth and pool threads are only shown if it is a thread pool,
+     *         such as the executor of WebServer.ExecutorMode.PLATFORM_THREADS
+     */
+    public String exposition(ExecutorService executor) {
+        StringBuilder text = new StringBuilder();
+        metric(text, "lyric_active_exchanges", "gauge", "Exchanges being handled.");
+        text.append("lyric_active_exchanges ").append(activeExchanges.sum()).append('\n');
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            metric(text, "lyric_executor_queue_depth", "gauge", "Exchanges waiting for a thread.");
+            text.append("lyric_executor_queue_depth ").append(pool.getQueue().size()).append('\n');
+            metric(text, "lyric_executor_active_threads", "gauge", "Threads handling an exchange.");
+            text.append("lyric_executor_active_threads ").append(pool.getActiveCount()).append('\n');
+            metric(text, "lyric_executor_pool_threads", "gauge", "Threads in the pool.");
+            text.append("lyric_executor_pool_threads ").append(pool.getPoolSize()).append('\n');
+        }
+
+        metric(text, "lyric_subscribers", "gauge", "Clients connected to a stream.");
+        for (StreamMetrics stream : streams.values()) {
+            text.append("lyric_subscribers").append(stream.label).append(' ')
+                .append(stream.clients.size()).append('\n');
+        }
+        metric(text, "lyric_lines_published_total", "counter", "Lines published to the log of a stream.");
+        for (StreamMetrics stream : streams.values()) {
+            text.append("lyric_lines_published_total").append(stream.label).append(' ')
+                .append(stream.log.size()).append('\n');
+        }
+        metric(text, "lyric_lines_written_total", "counter", "Lines written to clients of a stream.");
+        for (StreamMetrics stream : streams.values()) {
+            text.append("lyric_lines_written_total").append(stream.label).append(' ')
+                .append(stream.linesWritten.sum()).append('\n');
+        }
+        metric(text, "lyric_line_bytes_written_total", "counter", "Bytes of lines written to clients of a stream.");
+        for (StreamMetrics stream : streams.values()) {
+            text.append("lyric_line_bytes_written_total").append(stream.label).append(' ')
+                .append(stream.bytesWritten.sum()).append('\n');
+        }
+        metric(text, "lyric_client_lag_lines", "gauge", "Lines published that a client has not been sent.");
+        for (StreamMetrics stream : streams.values()) {
+            final long published = stream.log.size();
+            final String streamLabel = stream.label.substring(0, stream.label.length() - 1);
+            for (Client client : stream.clients) {
+                text.append("lyric_client_lag_lines").append(streamLabel)
+                    .append(",client=\"").append(client.id).append("\"} ")
+                    .append(Math.max(0, published - client.sent)).append('\n');
+            }
+        }
+        metric(text, "lyric_clients_evicted_total", "counter",
+                "Clients of a stream disconnected because a write to them blocked for too long.");
+        for (StreamMetrics stream : streams.values()) {
+            text.append("lyric_clients_evicted_total").append(stream.label).append(' ')
+                .append(stream.clientsEvicted.sum()).append('\n');
+        }
+        metric(text, "lyric_publish_to_write_seconds", "histogram",
+                "Time from publishing a line to writing it to a client.");
+        for (StreamMetrics stream : streams.values()) {
+            histogram(text, "lyric_publish_to_write_seconds", stream.label, stream.publishToWrite());
+        }
+        metric(text, "lyric_stage_latency_seconds", "histogram",
+                "Time each line spent in a stage from its beat to a client.");
+        for (StreamMetrics stream : streams.values()) {
+            final String streamLabel = stream.label.substring(0, stream.label.length() - 1);
+            for (Stage stage : Stage.values()) {
+                histogram(text, "lyric_stage_latency_seconds",
+                        streamLabel + ",stage=\"" + stage.label() + "\"}", stream.log.latency().stage(stage));
+            }
+        }
+        return text.toString();
+    }
+
+    private static void metric(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Append a histogram of latencies, in seconds, with cumulative buckets whose bounds are
+     * the powers of two nanoseconds from 2^MIN_EXPOSED_BUCKET to 2^MAX_EXPOSED_BUCKET.
+     */
+    static void histogram(StringBuilder text, String name, String label, LatencyHistogram latencies) {
+        final String labelPrefix = label.substring(0, label.length() - 1) + ",le=\"";
+        long cumulative = 0;
+        for (int i = 0; i <= MAX_EXPOSED_BUCKET; i++) {
+            cumulative += latencies.bucketCount(i);
+            if (i >= MIN_EXPOSED_BUCKET) {
+                // bucket i holds latencies < 2^i ns
+                text.append(name).append("_bucket").append(labelPrefix)
+                    .append(seconds(1L << i)).append("\"} ").append(cumulative).append('\n');
+            }
+        }
+        final long count = latencies.count();
+        text.append(name).append("_bucket").append(labelPrefix).append("+Inf\"} ").append(count).append('\n');
+        text.append(name).append("_sum").append(label).append(' ')
+            .append(seconds(latencies.sumNanos())).append('\n');
+        text.append(name).append("_count").append(label).append(' ').append(count).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / NANOS_PER_SECOND);
+    }
+
+    /**
+     * @param name name of a stream
+     * @return {stream="name"}, with name escaped as a label value
+     */
+    static String label(String name) {
+        return "{stream=\"" + name.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"}";
+    }
+
+    @Override
+    public String toString() {
+        return "metrics of streams " + streams.keySet();
+    }
+
+    /**
+     * Metrics of the stream of one log. Thread safe.
+     */
+    static final class StreamMetrics {
+        private final String name;
+        private final String label;
+        private final LyricLog log;
+        private final AtomicLong clientIds;
+        // every client connected to any stream of the server
+        private final Set<Client> connected;
+        private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+        private final LongAdder linesWritten = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder clientsEvicted = new LongAdder();
+
+        private StreamMetrics(String name, LyricLog log, AtomicLong clientIds, Set<Client> connected) {
+            this.name = name;
+            this.label = label(name);
+            this.log = log;
+            this.clientIds = clientIds;
+            this.connected = connected;
+        }
+
+        /**
+         * @return name of this stream
+         */
+        String name() {
+            return name;
+        }
+
+        /**
+         * @return a new client of this stream, counted as connected until it is closed
+         */
+        Client connect() {
+            Client client = new Client(clientIds.getAndIncrement(), this);
+            clients.add(client);
+            connected.add(client);
+            return client;
+        }
+
+        /**
+         * Count a line as written to a client as soon as it could be, and trace how late it is.
+         * @param sequence sequence number of the line in the log
+         * @param bytes number of bytes written for it
+         */
+        void written(long sequence, int bytes) {
+            linesWritten.increment();
+            bytesWritten.add(bytes);
+            log.written(sequence);
+        }
+
+        /**
+         * Count a line as written to a client that connected after it was published, such as
+         * a line of the snapshot sent on connect; it is not traced, since how late it is says
+         * nothing about the server.
+         * @param bytes number of bytes written for it
+         */
+        void replayed(int bytes) {
+            linesWritten.increment();
+            bytesWritten.add(bytes);
+        }
+
+        /**
+         * @return live histogram of the time from publishing each line to writing it to a client,
+         *         which is the WRITE stage of the latency of the log
+         */
+        LatencyHistogram publishToWrite() {
+            return log.latency().stage(Stage.WRITE);
+        }
+    }
+
+    /**
+     * A client connected to a stream, how many lines of its log it has been sent, and the
+     * write to it in progress, if any.
+     * Thread safe: the write in progress is guarded by the client's own lock, which only the
+     * thread writing to the client and evictStalledClients() take.
+     */
+    static final class Client implements AutoCloseable {
+        private final long id;
+        private final StreamMetrics stream;
+        private volatile long sent = 0;
+        // thread writing to this client now, or null if none, and System.nanoTime() when
+        // it started; evicted once it has been interrupted for writing too long
+        private Thread writer = null;
+        private long writingSinceNanos = 0;
+        private boolean evicted = false;
+
+        private Client(long id, StreamMetrics stream) {
+            this.id = id;
+            this.stream = stream;
+        }
+
+        /**
+         * @param count number of lines published when this client was last sent a line
+         */
+        void sent(long count) {
+            sent = count;
+        }
+
+        /**
+         * Mark the start of a write to this client, which blocks while the client is not
+         * reading. Must be followed by wrote() on the same thread once the write returns or fails.
+         */
+        synchronized void writing() {
+            writer = Thread.currentThread();
+            writingSinceNanos = System.nanoTime();
+        }
+
+        /**
+         * Mark the end of the write started by writing().
+         * @return true iff this client was evicted during the write; the interrupt that ended
+         *         the write is then cleared from the calling thread
+         */
+        synchronized boolean wrote() {
+            writer = null;
+            if (evicted) {
+                Thread.interrupted();
+            }
+            return evicted;
+        }
+
+        /**
+         * Evict this client if a write to it has been blocked for longer than allowed.
+         * @param nowNanos System.nanoTime() now
+         * @param evictAfterNanos time, in nanoseconds, that a write may block
+         * @return true iff this client was evicted by this call
+         */
+        private synchronized boolean evictIfStalled(long nowNanos, long evictAfterNanos) {
+            if (writer == null || evicted || nowNanos - writingSinceNanos <= evictAfterNanos) {
+                return false;
+            }
+            evicted = true;
+            // a blocked write on an interruptible channel closes it and throws at once
+            writer.interrupt();
+            stream.clientsEvicted.increment();
+            return true;
+        }
+
+        /**
+         * Count this client as disconnected.
+         */
+        @Override
+        public void close() {
+            stream.clients.remove(this);
+            stream.connected.remove(this);
+        }
+    }
+}
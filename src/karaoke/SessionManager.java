@@ -0,0 +1,226 @@
+package karaoke;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.MidiPlayerPool;
+import karaoke.sound.SequencePlayer;
+
+/**
+ * Hosts many independent karaoke rooms in one server, so a whole venue can be served from one
+ * process instead of one process per stage. Each room plays its own piece on its own player,
+ * with its own playback clock and lyric streams under /room/id/ on the web server, as described
+ * by WebServer.addRoom(); every room shares the server's executor and one cache of parsed pieces.
+ * A room is removed from the server once its piece ends, or when it is closed.
+ * Thread safe.
+ */
+public class SessionManager {
+
+    private final WebServer server;
+    private final PieceCache pieces;
+    private final PlayerMaker players;
+    private final double speedUp;
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    // Abstraction function:
+    //     AF(server, pieces, players, speedUp, rooms) = a venue serving on server the rooms in
+    //         rooms, keyed by id, reading pieces through the cache pieces, and playing each on a
+    //         player made by players, speedUp times faster than its tempo
+    // Representation invariant:
+    //     - speedUp > 0
+    //     - every key of rooms is the id of its room
+    // Safety from rep exposure:
+    //     - all fields are private and final; server, pieces and the pool players may play on
+    //       are shared on purpose, as documented by the constructors, and are thread safe
+    //     - rooms is never returned; the rooms it holds are, but they are thread safe
+    // Thread safety argument:
+    //     - rooms is a thread safe map; rooms are only added by open(), with putIfAbsent, so
+    //       each id is claimed by exactly one room, and removed by remove(), which only removes
+    //       the room it was given
+    //     - a room is added to rooms and to server, and removed from both, while holding this
+    //       object's lock, so rooms and the rooms server serves agree whenever the lock is free;
+    //       open() parses the piece and makes its player and room before taking the lock
+    //     - server, pieces, the pool players may play on and every room are thread safe;
+    //       players itself is immutable
+
+    private void checkRep() {
+        assert speedUp > 0;
+        for (ConcurrentMap.Entry<String, Room> room : rooms.entrySet()) {
+            assert room.getKey().equals(room.getValue().id());
+        }
+    }
+
+    /**
+     * Make a manager that plays every room on warm MIDI engines.
+     * @param server the web server to serve every room on; may already be started
+     * @param pieces cache of parsed pieces, which may be shared with other managers
+     * @param pool pool of MIDI engines to play the rooms on
+     */
+    public SessionManager(WebServer server, PieceCache pieces, MidiPlayerPool pool) {
+        this.server = server;
+        this.pieces = pieces;
+        this.players = piece -> piece.createPlayer(pool);
+        this.speedUp = 1;
+        checkRep();
+    }
+
+    /**
+     * Make a manager that plays every room on a synthesizer of its own, sending each note
+     * straight to it from a scheduling thread instead of through the MIDI sequencer.
+     * @param server the web server to serve every room on; may already be started
+     * @param pieces cache of parsed pieces, which may be shared with other managers
+     */
+    public SessionManager(WebServer server, PieceCache pieces) {
+        this.server = server;
+        this.pieces = pieces;
+        this.players = Piece::createReceiverPlayer;
+        this.speedUp = 1;
+        checkRep();
+    }
+
+    /**
+     * Make a manager that plays every room on a virtual clock, without any MIDI device.
+     * @param server the web server to serve every room on; may already be started
+     * @param pieces cache of parsed pieces, which may be shared with other managers
+     * @param speedUp how many times faster than real time to play, > 0
+     */
+    public SessionManager(WebServer server, PieceCache pieces, double speedUp) {
+        if (!(speedUp > 0)) {
+            throw new IllegalArgumentException("speed-up must be > 0: " + speedUp);
+        }
+        this.server = server;
+        this.pieces = pieces;
+        this.players = piece -> piece.createVirtualClockPlayer(speedUp);
+        this.speedUp = speedUp;
+        checkRep();
+    }
+
+    /**
+     * Open a room that plays the piece of an abc file, and serve its streams. The room does
+     * not start playing until its play() is called; once it is closed, by the end of its piece
+     * or otherwise, it is removed.
+     * @param id name of the new room, as Room.isValidId()
+     * @param filename name of the abc file to play, parsed only if not cached yet
+     * @return the new room
+     * @throws IllegalArgumentException if id is invalid or a room with that id is open
+     * @throws IOException if no abc file is found at path filename
+     * @throws UnableToParseException if the abc file is not in right format.
+     * @throws MidiUnavailableException if MIDI device unavailable
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    public Room open(String id, String filename)
+            throws IOException, UnableToParseException, MidiUnavailableException, InvalidMidiDataException {
+        if (!Room.isValidId(id)) {
+            throw new IllegalArgumentException("invalid room id: " + id);
+        }
+        // fail fast before parsing; the id is only claimed below
+        if (rooms.containsKey(id)) {
+            throw new IllegalArgumentException("room " + id + " is already open");
+        }
+        // parse, load and compile without the lock, so rooms open in parallel
+        Piece piece = pieces.get(filename);
+        SequencePlayer player = players.make(piece);
+        Room[] opened = new Room[1];
+        try {
+            opened[0] = new Room(id, piece, player, speedUp, () -> remove(opened[0]));
+        } catch (RuntimeException re) {
+            // give back its engine, since no room owns the player to close it
+            player.close();
+            throw re;
+        }
+        final boolean claimed;
+        synchronized (this) {
+            claimed = rooms.putIfAbsent(id, opened[0]) == null;
+            if (claimed) {
+                try {
+                    server.addRoom(opened[0]);
+                } catch (RuntimeException re) {
+                    rooms.remove(id, opened[0]);
+                    opened[0].close();
+                    throw re;
+                }
+            }
+        }
+        if (!claimed) {
+            // another open() of the same id got there first; closing gives back the engine
+            opened[0].close();
+            throw new IllegalArgumentException("room " + id + " is already open");
+        }
+        checkRep();
+        return opened[0];
+    }
+
+    /**
+     * @param id name of a room
+     * @return the open room with that id, or null if there is none
+     */
+    public Room room(String id) {
+        return rooms.get(id);
+    }
+
+    /**
+     * @return the ids of the rooms open now, in sorted order
+     */
+    public Set<String> roomIds() {
+        return Collections.unmodifiableSet(new TreeSet<>(rooms.keySet()));
+    }
+
+    /**
+     * Close a room, ending all of its streams, and stop serving it. Music it is already playing
+     * is not stopped. Does nothing if no room with that id is open.
+     * @param id name of the room
+     */
+    public void close(String id) {
+        Room room = rooms.get(id);
+        if (room != null) {
+            // removed by the room itself, once closed
+            room.close();
+        }
+    }
+
+    /**
+     * Close every open room.
+     */
+    public void closeAll() {
+        for (String id : rooms.keySet()) {
+            close(id);
+        }
+    }
+
+    /**
+     * Stop serving a room once it is closed. Runs on the thread that closed it.
+     */
+    private synchronized void remove(Room room) {
+        if (rooms.remove(room.id(), room)) {
+            server.removeRoom(room.id());
+        }
+        checkRep();
+    }
+
+    @Override
+    public String toString() {
+        return "venue with rooms " + roomIds();
+    }
+
+    /**
+     * Makes the player of each room.
+     */
+    @FunctionalInterface
+    private interface PlayerMaker {
+        /**
+         * @param piece piece to play
+         * @return an empty sequence player made for piece
+         * @throws MidiUnavailableException if MIDI device unavailable
+         * @throws InvalidMidiDataException if MIDI play fails
+         */
+        SequencePlayer make(Piece piece) throws MidiUnavailableException, InvalidMidiDataException;
+    }
+}
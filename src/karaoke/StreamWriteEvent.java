@@ -0,0 +1,37 @@
+package karaoke;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for one write of lyric lines to a web client of a WebServer, up to and
+ * including the flush that sends them; its duration is the time the write took.
+ * Costs next to nothing unless a recording that enables it is running.
+ */
+@Name("karaoke.StreamWrite")
+@Label("Stream Write")
+@Category({ "Karaoke", "Web Server" })
+@Description("Lyric lines written and flushed to a web client")
+@StackTrace(false)
+final class StreamWriteEvent extends jdk.jfr.Event {
+
+    @Label("Stream")
+    @Description("Name of the stream, as in the metrics of the server")
+    String stream;
+
+    @Label("First Sequence")
+    @Description("Sequence number in its log of the first line written")
+    long firstSequence;
+
+    @Label("Lines")
+    int lines;
+
+    @Label("Bytes")
+    @Description("Bytes of lines written, not counting framing")
+    @DataAmount(DataAmount.BYTES)
+    long bytes;
+}
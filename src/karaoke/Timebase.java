@@ -0,0 +1,110 @@
+package karaoke;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps the beats of a playing sequence player to the server's wall-clock time, so each lyric
+ * line can carry the time it is scheduled to be shown, not just the time it was published.
+ * Immutable.
+ */
+public class Timebase {
+
+    private static final double MILLIS_PER_MINUTE = 60_000;
+    private static final double NANOS_PER_MINUTE = 60e9;
+
+    private final long beatZeroMillis;
+    private final long beatZeroNanos;
+    private final double beatsPerMinute;
+
+    // Abstraction function:
+    //     AF(beatZeroMillis, beatZeroNanos, beatsPerMinute) = a player at beat 0 at server wall-clock
+    //         time beatZeroMillis (milliseconds since the epoch), advancing beatsPerMinute beats a
+    //         minute; beatZeroNanos is the same instant on the System.nanoTime() clock, as nearly
+    //         as the two clocks can be compared
+    // Representation invariant:
+    //     - beatsPerMinute > 0 and finite
+    // Safety from rep exposure:
+    //     - all fields are private, final and immutable
+
+    private void checkRep() {
+        assert beatsPerMinute > 0 && !Double.isInfinite(beatsPerMinute);
+    }
+
+    /**
+     * @param beatZeroMillis server wall-clock time, as System.currentTimeMillis(), of beat 0
+     * @param beatsPerMinute the number of beats per minute, > 0
+     */
+    public Timebase(long beatZeroMillis, double beatsPerMinute) {
+        this(beatZeroMillis,
+                System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - beatZeroMillis),
+                beatsPerMinute);
+    }
+
+    private Timebase(long beatZeroMillis, long beatZeroNanos, double beatsPerMinute) {
+        if (!(beatsPerMinute > 0) || Double.isInfinite(beatsPerMinute)) {
+            throw new IllegalArgumentException("beats per minute must be > 0: " + beatsPerMinute);
+        }
+        this.beatZeroMillis = beatZeroMillis;
+        this.beatZeroNanos = beatZeroNanos;
+        this.beatsPerMinute = beatsPerMinute;
+        checkRep();
+    }
+
+    /**
+     * @param beatsPerMinute the number of beats per minute the player actually plays, > 0
+     * @return a timebase whose beat 0 is now; make it just before playing the player
+     */
+    public static Timebase startingNow(double beatsPerMinute) {
+        return new Timebase(System.currentTimeMillis(), System.nanoTime(), beatsPerMinute);
+    }
+
+    /**
+     * @param beat a beat of the player, as passed to a SequencePlayer callback
+     * @param firedNanos System.nanoTime() at which the event at that beat fired, as
+     *                   SequencePlayer.firedNanos()
+     * @param beatsPerMinute the number of beats per minute the player actually plays, > 0
+     * @return a timebase in which beat was due when it fired; make it in an event callback,
+     *         so it counts from when the player really started, after any startup it did in play()
+     */
+    public static Timebase firedAt(double beat, long firedNanos, double beatsPerMinute) {
+        final long beatZeroNanos = firedNanos - Math.round(beat * NANOS_PER_MINUTE / beatsPerMinute);
+        final long beatZeroMillis = System.currentTimeMillis()
+                - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beatZeroNanos);
+        return new Timebase(beatZeroMillis, beatZeroNanos, beatsPerMinute);
+    }
+
+    /**
+     * @param beat a beat of the player, as passed to a SequencePlayer callback
+     * @return the server wall-clock time of that beat, in milliseconds since the epoch
+     */
+    public long toMillis(double beat) {
+        return beatZeroMillis + Math.round(beat * MILLIS_PER_MINUTE / beatsPerMinute);
+    }
+
+    /**
+     * @param beat a beat of the player, as passed to SequencePlayer.addEvent
+     * @return the time that beat is due on the System.nanoTime() clock, to measure how late
+     *         the player and everything after it are; precise to within a millisecond for a
+     *         timebase made with the public constructor, and to the nanosecond with startingNow()
+     */
+    public long toNanos(double beat) {
+        return beatZeroNanos + Math.round(beat * NANOS_PER_MINUTE / beatsPerMinute);
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        return that instanceof Timebase
+                && ((Timebase) that).beatZeroMillis == beatZeroMillis
+                && ((Timebase) that).beatsPerMinute == beatsPerMinute;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(beatZeroMillis) + Double.hashCode(beatsPerMinute);
+    }
+
+    @Override
+    public String toString() {
+        return "beat 0 at " + beatZeroMillis + " ms, " + beatsPerMinute + " beats per minute";
+    }
+}
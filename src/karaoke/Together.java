@@ -1,6 +1,5 @@
 package karaoke;
 
-import java.util.List;
 import java.util.Map;
 import karaoke.sound.SequencePlayer;
 
@@ -46,10 +45,10 @@ public class Together implements Music {
     }
 
     @Override
-    public void play(SequencePlayer player, double atBeat, Map<String, List<String>> voiceToLyricsMap) {
+    public void play(SequencePlayer player, double atBeat, Map<String, LyricLog> voiceToLyricLog) {
         checkRep();
-        m1.play(player, atBeat, voiceToLyricsMap);
-        m2.play(player, atBeat, voiceToLyricsMap);
+        m1.play(player, atBeat, voiceToLyricLog);
+        m2.play(player, atBeat, voiceToLyricLog);
         checkRep();
     }
 
@@ -1,47 +1,162 @@
 package karaoke;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
+import karaoke.ServerMetrics.Client;
+import karaoke.ServerMetrics.StreamMetrics;
+
 /**
  * Represents a WebServer that streams each set of lyrics for a voice to
- * a different web-site. 
+ * a different web-site. Besides the voices of the piece given to start(), it can host any
+ * number of rooms, each playing its own piece, that are added and removed while it runs;
+ * all of them share one executor.
+ * 
+ * Every request goes to a single context, which looks up the handler of its exact path in a
+ * hash map, so routing costs the same however many rooms and voices are served, and
+ * addresses can be added and removed while the server runs.
+ * 
+ * Every write of lyric lines to a client is recorded as a StreamWriteEvent when a Flight
+ * Recorder recording enables it.
+ * 
+ * A streaming client that stops reading is evicted once a write to it has blocked for
+ * evictAfterMillis, 10 seconds by default, so it never holds an exchange thread for long;
+ * evictions are counted in the metrics of its stream.
  */
 public class WebServer {
     
+    /**
+     * Kind of threads that handle the exchanges of a WebServer, one thread per exchange.
+     */
+    public enum ExecutorMode {
+        /** a cached pool of platform threads */
+        PLATFORM_THREADS,
+        /** a new virtual thread per exchange; needs a Java runtime that has virtual threads */
+        VIRTUAL_THREADS;
+        
+        /**
+         * @return true iff the running Java runtime supports this mode
+         */
+        public boolean isAvailable() {
+            try {
+                newExecutor();
+                return true;
+            } catch (UnsupportedOperationException uoe) {
+                return false;
+            }
+        }
+        
+        /**
+         * @return a new executor that runs each task on a thread of this kind
+         * @throws UnsupportedOperationException if the running Java runtime does not support this mode
+         */
+        private ExecutorService newExecutor() {
+            switch (this) {
+            case VIRTUAL_THREADS:
+                // looked up reflectively, so the project still builds for runtimes without virtual threads
+                try {
+                    return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                } catch (ReflectiveOperationException roe) {
+                    throw new UnsupportedOperationException("virtual threads need Java 21 or later", roe);
+                }
+            default:
+                return Executors.newCachedThreadPool();
+            }
+        }
+    }
+    
+    /**
+     * Default time, in milliseconds, that a write to a streaming client may block, because the
+     * client stopped reading, before the client is evicted.
+     */
+    public static final long DEFAULT_EVICT_AFTER_MILLIS = 10_000;
+    
+    private static final long EVICTION_CHECK_MILLIS = 250;
+    private static final byte[] RETRY_FIELD = "retry: 1000\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END_OF_EVENT = "\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH_SEPARATOR = ",".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BATCH_END = "]}".getBytes(StandardCharsets.US_ASCII);
+    private static final long POLL_TIMEOUT_SECONDS = 25;
+    private static final byte[] END_OF_STREAM_EVENT = "event: end\ndata: \n\n".getBytes(StandardCharsets.US_ASCII);
+    
     private final HttpServer server;
     private final int port;
+    private final ExecutorMode mode;
+    private final Map<String, HttpHandler> routes = new ConcurrentHashMap<>();
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final Map<String, List<String>> roomPaths = new ConcurrentHashMap<>();
+    private final long evictAfterNanos;
+    private ExecutorService executor;
+    private ScheduledExecutorService watchdog;
     
     // Abstraction function:
-    //     AF(server, port) = an HttpServer server, serving requests at port, that streams 
-    //                        a set of lyrics for a voice to different web-sites once 
-    //                        start(map) is called on the ADT with a properly configured map
+    //     AF(server, port, mode, routes, metrics, roomPaths, evictAfterNanos, executor, watchdog) =
+    //                        an HttpServer server, serving 
+    //                        requests at port, that streams a set of lyrics for a voice to 
+    //                        different web-sites once start(map) is called on the ADT with a 
+    //                        properly configured map, and the voices of each room id in roomPaths
+    //                        at the paths roomPaths.get(id); each request for a path in routes
+    //                        is handled by routes.get(path), on a thread of kind mode from executor;
+    //                        metrics holds the metrics of every stream served and every exchange;
+    //                        once started, watchdog evicts every client that a write has blocked
+    //                        on for longer than evictAfterNanos
     // Representation invariant:
     //     - 1 <= port <= 65535
+    //     - mode is non-null
+    //     - evictAfterNanos > 0
+    //     - every path in roomPaths.get(id) starts with "/room/" + id + "/", and is a key of routes
     // Safety from rep exposure:
-    //     - all fields are private and final
+    //     - all fields are private, and all but executor and watchdog are final; executor,
+    //       watchdog, routes, metrics and roomPaths are never returned
     //     - all parameters passed into the constructor are immutable 
     //     - only immutable objects are returned to the client through observers
     // Thread safety argument:
     //     - not a thread safe data-type by itself
     //     - we only use one web server
     //     - however, its use of multiple threads is safe
-    //     - server acquires the lock for voiceToLyricsMap whenever checking for mutation
-    //     - thread safety by synchronization (through locking)
+    //     - each exchange only reads the LyricLog of its own voice, which is thread safe
+    //       and never blocks its writers, so clients of one voice never contend with those
+    //       of another
+    //     - exchanges wait with LockSupport.park rather than monitors, so in VIRTUAL_THREADS
+    //       mode a waiting exchange does not pin its carrier thread
+    //     - rooms may be added and removed from any thread: routes and roomPaths are thread
+    //       safe maps, read without locking by every request; the paths of one room are only
+    //       added and removed while holding the lock of its list in roomPaths
+    //     - metrics is thread safe, and records without a lock shared between clients; the
+    //       watchdog thread evicts a client by interrupting the exchange thread blocked writing
+    //       to it, under the lock of that client alone, as ServerMetrics.Client describes
     
     private void checkRep() {
         assert server!=null;
         final int maxPort = 65535;
         assert port>=1 && port<=maxPort;
+        assert mode!=null;
+        assert evictAfterNanos > 0;
+        for (Map.Entry<String, List<String>> room : roomPaths.entrySet()) {
+            synchronized (room.getValue()) {
+                for (String path : room.getValue()) {
+                    assert path.startsWith("/room/" + room.getKey() + "/");
+                    assert routes.containsKey(path);
+                }
+            }
+        }
     }
     
     /**
@@ -50,9 +165,45 @@ public class WebServer {
      * @throws IOException if an error occurs starting the server
      */
     public WebServer(int serverPort) throws IOException {
+        this(serverPort, ExecutorMode.PLATFORM_THREADS);
+    }
+    
+    /**
+     * Initialize an HttpServer at the given serverPort that handles each exchange 
+     * on a thread of the given kind
+     * @param serverPort port for the HttpServer 
+     * @param mode kind of threads to handle exchanges with
+     * @throws IOException if an error occurs starting the server
+     * @throws UnsupportedOperationException if the running Java runtime does not support mode
+     */
+    public WebServer(int serverPort, ExecutorMode mode) throws IOException {
+        this(serverPort, mode, DEFAULT_EVICT_AFTER_MILLIS);
+    }
+    
+    /**
+     * Initialize an HttpServer at the given serverPort that handles each exchange 
+     * on a thread of the given kind, and evicts a streaming client that stops reading
+     * @param serverPort port for the HttpServer 
+     * @param mode kind of threads to handle exchanges with
+     * @param evictAfterMillis time, in milliseconds, that a write to a client may block before
+     *        the client is disconnected and counted as evicted in the metrics, > 0
+     * @throws IOException if an error occurs starting the server
+     * @throws UnsupportedOperationException if the running Java runtime does not support mode
+     */
+    public WebServer(int serverPort, ExecutorMode mode, long evictAfterMillis) throws IOException {
+        if (evictAfterMillis <= 0) {
+            throw new IllegalArgumentException("eviction time must be > 0: " + evictAfterMillis);
+        }
+        if (!mode.isAvailable()) {
+            throw new UnsupportedOperationException(mode + " is not available in this Java runtime");
+        }
         // make a web server
         server = HttpServer.create(new InetSocketAddress(serverPort), 0);
+        // the only context: every request is routed by dispatch()
+        server.createContext("/", this::dispatch);
         port = serverPort;
+        this.mode = mode;
+        this.evictAfterNanos = TimeUnit.MILLISECONDS.toNanos(evictAfterMillis);
         checkRep();
     }
 
@@ -66,47 +217,258 @@ public class WebServer {
     
     /**
      * Starts running a server that handles multiple voices concurrently. 
-     * For the voice at index i in the sorted voiceToLyrics map, the address streaming
-     * the lyrics for that voice is http://localhost:serverPort/textStream/voice_i 
-     * @param voiceToLyricsMap a map that maps a voice to a list of lyrics, whenever 
-     *        a lyric is appended to the list of lyrics, the web server prints 
+     * For the voice at index i in the sorted voiceToLyricLog map, the address streaming
+     * the lyrics for that voice is http://localhost:serverPort/textStream/voice_i, and the
+     * address streaming them as resumable server-sent events is 
+     * http://localhost:serverPort/eventStream/voice_i, or, with the time each line is scheduled
+     * to be shown, http://localhost:serverPort/timedStream/voice_i 
+     * Clients that cannot keep a stream open long-poll for batches of lines at
+     * http://localhost:serverPort/poll/voice_i?since=S, as described by poll() 
+     * Clients estimate their clock offset from the server for those times at 
+     * http://localhost:serverPort/time, and the metrics of the server are at
+     * http://localhost:serverPort/metrics, as described by ServerMetrics.exposition() 
+     * Once the log of a voice is closed, each of its streams ends as soon as the client has
+     * been sent every line.
+     * A client that connects mid-song is first sent the newest line, or with the query 
+     * ?last=N, the newest N lines the log still retains, e.g. /textStream/voice_0?last=4 
+     * @param voiceToLyricLog a map that maps a voice to its log of lyrics, whenever 
+     *        a lyric is appended to the log, the web server prints 
      *        out the new line at the address for that voice 
      */
-    public void start(SortedMap<String, List<String>> voiceToLyricsMap) {
-        // handle concurrent requests with multiple threads
-        server.setExecutor(Executors.newCachedThreadPool());     
+    public void start(SortedMap<String, LyricLog> voiceToLyricLog) {
         int index = 0;
-        for(String voice : voiceToLyricsMap.keySet()) {
-            server.createContext("/textStream/voice_" + index, (exchange)->
-            {
-                try {
-                    textStream(exchange, voice, voiceToLyricsMap);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-                
-            });
+        for(LyricLog log : voiceToLyricLog.values()) {
+            final StreamMetrics stream = metrics.stream("voice_" + index, log);
+            createTextStreamContext("/textStream/voice_" + index, log, stream);
+            createEventStreamContext("/eventStream/voice_" + index, log, false, stream);
+            createEventStreamContext("/timedStream/voice_" + index, log, true, stream);
+            createPollContext("/poll/voice_" + index, log, stream);
             index++;
         }
+        start();
+    }
+    
+    /**
+     * Starts running a server that serves only rooms, added with addRoom(), the clock 
+     * synchronization address http://localhost:serverPort/time and the metrics address
+     * http://localhost:serverPort/metrics 
+     */
+    public void start() {
+        // handle concurrent requests with multiple threads, shared by every voice of every room
+        executor = mode.newExecutor();
+        server.setExecutor(executor);     
+        routes.put("/time", WebServer::time);
+        routes.put("/metrics", this::metrics);
+        // a client that stops reading would otherwise block the thread writing to it forever
+        watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stream-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleWithFixedDelay(() -> metrics.evictStalledClients(evictAfterNanos),
+                EVICTION_CHECK_MILLIS, EVICTION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
         server.start();
     }
     
     /**
-     * Stop this server. Once stopped, this server cannot be restarted.
+     * Serves the streams of a room, before or after start(). For the voice at index i in 
+     * room.voiceToLyricLog(), the address streaming its lyrics as plain text is 
+     * http://localhost:serverPort/room/id/voice/i, where id is room.id(), and under that address 
+     * are /events streaming them as server-sent events, /timed streaming them with their
+     * scheduled times, /poll long-polling for them in batches, and /timeline serving the lyric timeline of the voice; the playback 
+     * clock of the room streams at http://localhost:serverPort/room/id/clock 
+     * @param room room to serve; its id must not be served already
+     * @throws IllegalArgumentException if a room with the same id is already served
+     */
+    public void addRoom(Room room) {
+        final String prefix = "/room/" + room.id();
+        final List<String> paths = new ArrayList<>();
+        if (roomPaths.putIfAbsent(room.id(), paths) != null) {
+            throw new IllegalArgumentException("room " + room.id() + " is already served");
+        }
+        synchronized (paths) {
+            int index = 0;
+            for (Map.Entry<String, LyricLog> voice : room.voiceToLyricLog().entrySet()) {
+                final String voicePath = prefix + "/voice/" + index;
+                final StreamMetrics stream = metrics.stream(voicePath.substring(1), voice.getValue());
+                createTextStreamContext(voicePath, voice.getValue(), stream);
+                createEventStreamContext(voicePath + "/events", voice.getValue(), false, stream);
+                createEventStreamContext(voicePath + "/timed", voice.getValue(), true, stream);
+                createPollContext(voicePath + "/poll", voice.getValue(), stream);
+                createTimelineContext(voicePath + "/timeline", room.timeline().toJsonBytes(voice.getKey()));
+                paths.add(voicePath);
+                paths.add(voicePath + "/events");
+                paths.add(voicePath + "/timed");
+                paths.add(voicePath + "/poll");
+                paths.add(voicePath + "/timeline");
+                index++;
+            }
+            createEventStreamContext(prefix + "/clock", room.clock().events(), false,
+                    metrics.stream(prefix.substring(1) + "/clock", room.clock().events()));
+            paths.add(prefix + "/clock");
+        }
+        checkRep();
+    }
+    
+    /**
+     * Stop serving the streams of a room to new clients. Clients already streaming it keep
+     * streaming until its logs are closed. Does nothing if no room with that id is served.
+     * @param id id of the room
+     */
+    public void removeRoom(String id) {
+        final List<String> paths = roomPaths.remove(id);
+        if (paths == null) {
+            return;
+        }
+        synchronized (paths) {
+            for (String path : paths) {
+                routes.remove(path);
+                // the metrics of a stream are named after its path
+                metrics.removeStream(path.substring(1));
+            }
+        }
+        checkRep();
+    }
+    
+    /**
+     * Serves the lyric timeline of a piece, so clients can highlight lyrics on their own clock
+     * instead of being sent every line as it is sung. For the voice at index i in 
+     * timeline.voices(), the address of its timeline, as returned by timeline.toJson(), is 
+     * http://localhost:serverPort/timeline/voice_i; the address streaming every start, pause and
+     * seek of clock as server-sent events is http://localhost:serverPort/clock 
+     * May be called before or after start().
+     * @param timeline the compiled lyric timeline of the piece being played
+     * @param clock the playback clock of that piece
+     */
+    public void startTimeline(LyricTimeline timeline, PlaybackClock clock) {
+        int index = 0;
+        for (String voice : timeline.voices()) {
+            createTimelineContext("/timeline/voice_" + index, timeline.toJsonBytes(voice));
+            index++;
+        }
+        createEventStreamContext("/clock", clock.events(), false, metrics.stream("clock", clock.events()));
+    }
+    
+    /**
+     * Route a request to the handler of its path, or answer 404 Not Found if there is none.
+     * @param exchange request/reply object
+     */
+    private void dispatch(HttpExchange exchange) throws IOException {
+        final HttpHandler handler = routes.get(exchange.getRequestURI().getPath());
+        if (handler != null) {
+            metrics.exchangeStarted();
+            try {
+                handler.handle(exchange);
+            } finally {
+                metrics.exchangeEnded();
+            }
+            return;
+        }
+        try {
+            final int notFoundCode = 404;
+            final int noBody = -1;
+            exchange.sendResponseHeaders(notFoundCode, noBody);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Serves the JSON of a lyric timeline at path, encoded once and sent as is to every client
+     */
+    private void createTimelineContext(String path, byte[] json) {
+        routes.put(path, (exchange)->
+        {
+            try {
+                exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+                final int successCode = 200;
+                exchange.sendResponseHeaders(successCode, json.length);
+                exchange.getResponseBody().write(json);
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+    
+    /**
+     * Serves a log at path as a plain text stream, as described by textStream()
+     */
+    private void createTextStreamContext(String path, LyricLog log, StreamMetrics stream) {
+        routes.put(path, (exchange)->
+        {
+            try {
+                textStream(exchange, log, stream);
+            } catch (InterruptedException e) {
+                // the server is stopping; the exchange was closed by textStream
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+    
+    /**
+     * Serves a log at path as batches of lines for long-polling clients, as described by poll()
+     */
+    private void createPollContext(String path, LyricLog log, StreamMetrics stream) {
+        routes.put(path, (exchange)->
+        {
+            try {
+                poll(exchange, log, stream);
+            } catch (InterruptedException e) {
+                // the server is stopping; the exchange was closed by poll
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+    
+    /**
+     * Serves a log at path as a stream of server-sent events, as described by eventStream()
+     */
+    private void createEventStreamContext(String path, LyricLog log, boolean timed, StreamMetrics stream) {
+        routes.put(path, (exchange)->
+        {
+            try {
+                eventStream(exchange, log, timed, stream);
+            } catch (InterruptedException e) {
+                // the server is stopping; the exchange was closed by eventStream
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+    
+    /**
+     * Stop this server at once. Once stopped, this server cannot be restarted.
      */
     public void stop() {
-        server.stop(0);        
+        stop(0);
+    }
+    
+    /**
+     * Stop this server. Once stopped, this server cannot be restarted.
+     * @param delaySeconds maximum number of seconds to let exchanges in progress finish, 
+     *        e.g. streams of closed logs still sending their last lines, >= 0
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);        
+        if (executor != null) {
+            // interrupt exchanges still waiting for lyrics, so their threads end
+            executor.shutdownNow();
+        }
+        if (watchdog != null) {
+            watchdog.shutdownNow();
+        }
     }
     
     /**
      * Handles the text stream for a specific exchange and voice 
      * @param exchange request/reply object
-     * @param voice the voice to be handles by this exchange 
-     * @param voiceToLyricsMap a map that maps a voice to a list of lyrics, whenever 
-     *        a lyric is appended to the list of lyrics, the web server prints 
-     *        out the new line at the address for the specified voice 
+     * @param log the log of lyrics of the voice handled by this exchange, whenever 
+     *        a lyric is appended to the log, the web server prints 
+     *        out the new line at the address for the voice; the response ends once
+     *        the log is closed and its newest line has been printed. On connect, the 
+     *        client is first sent a snapshot of the lines already published, as 
+     *        described by linesOnConnect()
      */
-    private static void textStream(HttpExchange exchange, String voice, Map<String, List<String>> voiceToLyricsMap) throws IOException, InterruptedException {
+    private static void textStream(HttpExchange exchange, LyricLog log, StreamMetrics stream) throws IOException, InterruptedException {
         // plain text response
         exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
 
@@ -115,39 +477,431 @@ public class WebServer {
         final int lengthNotKnownYet = 0;
         exchange.sendResponseHeaders(successCode, lengthNotKnownYet);
 
-        // get output stream to write to web browser
-        final boolean autoflushOnPrintln = true;
-        PrintWriter out = new PrintWriter(
-                              new OutputStreamWriter(
-                                  exchange.getResponseBody(), 
-                                  StandardCharsets.UTF_8), 
-                              autoflushOnPrintln);
+        // get output stream to write to web browser; every line is written as the same 
+        // pre-encoded bytes sent to every other client, so nothing is encoded per client
+        OutputStream body = exchange.getResponseBody();
+        WritableByteChannel out = Channels.newChannel(body);
         
+        Client client = stream.connect();
         try {
             // IMPORTANT: some web browsers don't start displaying a page until at least 2K bytes
             // have been received.  So we'll send a line containing 2K spaces first.
-            final int enoughBytesToStartStreaming = 2048;
-            for (int i = 0; i < enoughBytesToStartStreaming; ++i) {
-                out.print(' ');
+            write(LyricBytes.paddingLine(), out, client);
+            
+            // a client joining mid-song sees the current line, and maybe a few before it, at 
+            // once; each is a pre-encoded line the log retains, so this takes no lock and
+            // encodes nothing
+            final long published = log.size();
+            long counter = Math.max(log.oldestRetained(), 
+                    published - linesOnConnect(exchange.getRequestURI().getRawQuery()));
+            final StreamWriteEvent snapshot = new StreamWriteEvent();
+            snapshot.begin();
+            final long first = counter;
+            final List<ByteBuffer> snapshotLines = new ArrayList<>();
+            long snapshotBytes = 0;
+            for (; counter < published; counter++) {
+                ByteBuffer line = log.encoded(counter);
+                if (line != null) {
+                    final int bytes = line.remaining();
+                    snapshotLines.add(line);
+                    stream.replayed(bytes);
+                    snapshotBytes += bytes;
+                }
+            }
+            write(gather(snapshotLines), out, client);
+            client.sent(counter);
+            flush(body, client);
+            commit(snapshot, stream, first, (int) (counter - first), snapshotBytes);
+            
+            // counter keeps track of the number of lines published when we last printed 
+            while(true) {
+                // parks only until the next line of this voice, without holding any lock 
+                final long size = log.awaitMoreThan(counter);
+                if (size <= counter) {
+                    // the song is over: closing the exchange ends the chunked response
+                    break;
+                }
+                counter = size;
+                // print the newest line whenever the log of the given voice has grown 
+                ByteBuffer line = log.encoded(counter-1);
+                if (line != null) {
+                    final StreamWriteEvent event = new StreamWriteEvent();
+                    event.begin();
+                    final int bytes = line.remaining();
+                    write(line, out, client);
+                    flush(body, client);
+                    stream.written(counter-1, bytes);
+                    commit(event, stream, counter-1, 1, bytes);
+                }
+                client.sent(counter);
             }
-            out.println(); // also flushes
             
-            // counter keeps track of the number of lines we have printed out 
-            int counter = 0;
+        } finally {
+            client.close();
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Handles the server-sent event stream for a specific exchange and voice. Each line is 
+     * sent as an event whose id is its sequence number in the log, so a client that reconnects 
+     * with a Last-Event-ID header is sent every line it missed that the log still retains, 
+     * instead of starting over from the newest line. A client without a Last-Event-ID is
+     * first sent a snapshot of the lines already published, as described by linesOnConnect(). 
+     * @param exchange request/reply object
+     * @param log the log of lyrics of the voice handled by this exchange, whenever 
+     *        lines are appended to the log, the web server sends them as events 
+     *        to the address for the voice 
+     * @param timed if false, the data of each event is its line; if true, it is the JSON array
+     *        [scheduledMillis,line], where scheduledMillis is the server wall-clock time at which
+     *        the line is to be shown, for clients that correct for their delay using time()
+     * Once the log is closed and every line has been sent, an event named end is sent and the
+     * response ends; a client that reconnects after that is answered 204 No Content, which tells
+     * browsers not to reconnect again.
+     */
+    private static void eventStream(HttpExchange exchange, LyricLog log, boolean timed, StreamMetrics stream) throws IOException, InterruptedException {
+        long next = firstEventToSend(exchange, log);
+        if (log.isClosed() && next >= log.size()) {
+            try {
+                final int noContentCode = 204;
+                final int noBody = -1;
+                exchange.sendResponseHeaders(noContentCode, noBody);
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+        
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        final int successCode = 200;
+        final int lengthNotKnownYet = 0;
+        exchange.sendResponseHeaders(successCode, lengthNotKnownYet);
+        
+        OutputStream body = exchange.getResponseBody();
+        WritableByteChannel out = Channels.newChannel(body);
+        Client client = stream.connect();
+        client.sent(next);
+        // lines published before the client connected are replayed, not traced
+        final long connectedAt = log.size();
+        try {
+            // ask clients to reconnect quickly, which also starts the stream
+            write(ByteBuffer.wrap(RETRY_FIELD), out, client);
+            flush(body, client);
+            
             while(true) {
-                synchronized(voiceToLyricsMap) {
-                    while(voiceToLyricsMap.get(voice).size()==counter) {
-                        voiceToLyricsMap.wait();
+                final long size = log.awaitMoreThan(next);
+                if (size <= next) {
+                    // closed, and every line has been sent
+                    write(ByteBuffer.wrap(END_OF_STREAM_EVENT), out, client);
+                    flush(body, client);
+                    break;
+                }
+                // send every line published since the last one sent in one write, then flush
+                final StreamWriteEvent event = new StreamWriteEvent();
+                event.begin();
+                final long first = next;
+                final List<ByteBuffer> batch = new ArrayList<>();
+                int batchLines = 0;
+                long batchBytes = 0;
+                while (next < size) {
+                    ByteBuffer line = timed ? log.encodedTimed(next) : log.encoded(next);
+                    if (line == null) {
+                        // overwritten before it could be sent: skip to the oldest line retained
+                        next = Math.max(next + 1, log.oldestRetained());
+                        continue;
                     }
-                    // print the next line whenever the map with the given voice has been mutated 
-                    counter = voiceToLyricsMap.get(voice).size();
-                    out.println(voiceToLyricsMap.get(voice).get(counter-1));
+                    final int bytes = line.remaining();
+                    batch.add(ByteBuffer.wrap(("id: " + next + "\ndata: ").getBytes(StandardCharsets.US_ASCII)));
+                    batch.add(line);
+                    batch.add(ByteBuffer.wrap(END_OF_EVENT));
+                    if (next < connectedAt) {
+                        stream.replayed(bytes);
+                    } else {
+                        stream.written(next, bytes);
+                    }
+                    batchLines++;
+                    batchBytes += bytes;
+                    next++;
                 }
+                write(gather(batch), out, client);
+                flush(body, client);
+                commit(event, stream, first, batchLines, batchBytes);
+                client.sent(next);
             }
+        } finally {
+            client.close();
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Answers a long-poll request for the lines of a voice, for clients that cannot keep a 
+     * stream open. The query parameter since=S is the sequence number of the first line the 
+     * client has not seen yet, as returned by its previous poll. The reply waits until the log
+     * has such a line, then sends every line from S on that the log still retains in one
+     * batch, with a Content-Length, as the JSON object 
+     * 
+     * {"next":N,"ended":E,"lines":[[scheduledMillis,line],...]} 
+     * 
+     * where N is the since of the client's next poll, each line is as in a timed stream, and 
+     * E is true iff the log is closed and N is its size, so polling again is pointless. 
+     * The reply is sent with no lines after POLL_TIMEOUT_SECONDS, or at once if E is true. 
+     * Without a valid since, or with one the log has not published yet, the client is sent 
+     * at once a snapshot as described by linesOnConnect(). 
+     * A parked request takes a single wakeup however many lines are published meanwhile, and 
+     * every line is sent as the bytes encoded once when it was published.
+     * @param exchange request/reply object
+     * @param log the log of lyrics of the voice handled by this exchange
+     */
+    private static void poll(HttpExchange exchange, LyricLog log, StreamMetrics stream) throws IOException, InterruptedException {
+        Client client = stream.connect();
+        try {
+            final String rawQuery = exchange.getRequestURI().getRawQuery();
+            final String since = queryParameter(rawQuery, "since");
+            long next;
+            if (since != null && since.matches("[0-9]{1,18}") && Long.parseLong(since) <= log.size()) {
+                next = Math.max(Long.parseLong(since), log.oldestRetained());
+            } else {
+                next = Math.max(log.oldestRetained(), log.size() - linesOnConnect(rawQuery));
+            }
+            client.sent(next);
             
+            // parks once, until any line from next on is published, the log is closed or time is up
+            final long size = log.awaitMoreThan(next, POLL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            final List<ByteBuffer> lines = new ArrayList<>();
+            final List<Long> sequences = new ArrayList<>();
+            for (; next < size; next++) {
+                ByteBuffer line = log.encodedTimed(next);
+                if (line == null) {
+                    // overwritten since: skip to the oldest line retained
+                    next = Math.max(next, log.oldestRetained() - 1);
+                    continue;
+                }
+                // without its newline
+                line.limit(line.limit() - 1);
+                lines.add(line);
+                sequences.add(next);
+            }
+            final boolean ended = log.isClosed() && next >= log.size();
+            
+            final List<ByteBuffer> reply = new ArrayList<>();
+            reply.add(ByteBuffer.wrap(("{\"next\":" + next + ",\"ended\":" + ended + ",\"lines\":[")
+                    .getBytes(StandardCharsets.US_ASCII)));
+            for (ByteBuffer line : lines) {
+                if (reply.size() > 1) {
+                    reply.add(ByteBuffer.wrap(BATCH_SEPARATOR));
+                }
+                reply.add(line);
+            }
+            reply.add(ByteBuffer.wrap(BATCH_END));
+            long length = 0;
+            for (ByteBuffer bytes : reply) {
+                length += bytes.remaining();
+            }
+            
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            final int successCode = 200;
+            final StreamWriteEvent event = new StreamWriteEvent();
+            event.begin();
+            exchange.sendResponseHeaders(successCode, length);
+            write(gather(reply), Channels.newChannel(exchange.getResponseBody()), client);
+            long lineBytes = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                final int bytes = lines.get(i).limit() - lines.get(i).position();
+                stream.written(sequences.get(i), bytes);
+                lineBytes += bytes;
+            }
+            commit(event, stream, sequences.isEmpty() ? next : sequences.get(0), lines.size(), lineBytes);
+        } finally {
+            client.close();
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Answers a request for the metrics of this server, in the Prometheus text format.
+     * @param exchange request/reply object
+     */
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            final byte[] reply = metrics.exposition(executor).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            final int successCode = 200;
+            exchange.sendResponseHeaders(successCode, reply.length);
+            exchange.getResponseBody().write(reply);
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    /**
+     * Answers a clock synchronization request, NTP style. A client sends its wall-clock time t0 as
+     * the query parameter t0 and notes its time t3 when the reply arrives; the reply is the JSON
+     * object {"t0":t0,"t1":t1,"t2":t2}, where t1 is the server's wall-clock time when the request
+     * was received and t2 when the reply was sent, all in milliseconds since the epoch. Then the 
+     * server clock is ahead of the client by about ((t1 - t0) + (t2 - t3)) / 2, and the round trip
+     * took (t3 - t0) - (t2 - t1). t0 is null in the reply if the request has none.
+     * @param exchange request/reply object
+     */
+    private static void time(HttpExchange exchange) throws IOException {
+        final long received = System.currentTimeMillis();
+        try {
+            String t0 = queryParameter(exchange.getRequestURI().getRawQuery(), "t0");
+            if (t0 == null || !t0.matches("-?[0-9]{1,18}")) {
+                t0 = "null";
+            }
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            // stamp t2 as late as possible, just before the reply is written
+            byte[] reply = ("{\"t0\":" + t0 + ",\"t1\":" + received
+                    + ",\"t2\":" + System.currentTimeMillis() + "}").getBytes(StandardCharsets.US_ASCII);
+            final int successCode = 200;
+            exchange.sendResponseHeaders(successCode, reply.length);
+            exchange.getResponseBody().write(reply);
         } finally {
             exchange.close();
         }
     }
     
+    /**
+     * @param exchange request for an event stream
+     * @param log the log of lyrics streamed to the client
+     * @return sequence number of the first line to send to the client: the line after its 
+     *         Last-Event-ID if the log still retains it, the oldest line retained if the client 
+     *         missed more lines than that, or else the first line of the snapshot sent on
+     *         connect, as in textStream
+     */
+    private static long firstEventToSend(HttpExchange exchange, LyricLog log) {
+        final long size = log.size();
+        final long newest = Math.max(log.oldestRetained(), 
+                size - linesOnConnect(exchange.getRequestURI().getRawQuery()));
+        String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+        if (lastEventId == null) {
+            return newest;
+        }
+        final long lastSeen;
+        try {
+            lastSeen = Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException nfe) {
+            return newest;
+        }
+        if (lastSeen < 0 || lastSeen >= size) {
+            // not an id this log has published, e.g. from before a restart
+            return newest;
+        }
+        return Math.max(lastSeen + 1, log.oldestRetained());
+    }
+    
+    /**
+     * @param rawQuery the raw query of a request URI, or null if it has none
+     * @return number of lines already published that a stream sends a client when it connects,
+     *         before any new line: N if rawQuery has the parameter last=N, where N is a 
+     *         non-negative number of at most 9 digits, or else 1, the newest line. Streams send
+     *         fewer lines if the log retains fewer.
+     */
+    static int linesOnConnect(String rawQuery) {
+        final String last = queryParameter(rawQuery, "last");
+        return last != null && last.matches("[0-9]{1,9}") ? Integer.parseInt(last) : 1;
+    }
+    
+    /**
+     * @param rawQuery the raw query of a request URI, or null if it has none
+     * @param name name of a query parameter
+     * @return the raw value of the last parameter with that name in rawQuery, or null if none
+     */
+    static String queryParameter(String rawQuery, String name) {
+        String value = null;
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    value = parameter.substring(name.length() + 1);
+                }
+            }
+        }
+        return value;
+    }
+    
+    /**
+     * @param buffers buffers to send together, in order; their positions are left unchanged
+     * @return a buffer of the remaining bytes of buffers, so they can be sent with one write:
+     *         the response body of an exchange is an OutputStream with no gathering write, and
+     *         each write to it goes through its own pass of the body's stack of streams
+     */
+    private static ByteBuffer gather(List<ByteBuffer> buffers) {
+        int length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        final ByteBuffer gathered = ByteBuffer.allocate(length);
+        for (ByteBuffer buffer : buffers) {
+            gathered.put(buffer.duplicate());
+        }
+        gathered.flip();
+        return gathered;
+    }
+    
+    /**
+     * Write all remaining bytes of a buffer to a client, without flushing. The client is evicted
+     * if the write blocks for longer than the server allows, as described by evictAfterMillis.
+     * @param bytes bytes to write; its position is advanced to its limit
+     * @param out channel writing to the response body of the client
+     * @param client the client written to
+     * @throws IOException if the client can no longer be written to, or has been evicted
+     */
+    private static void write(ByteBuffer bytes, WritableByteChannel out, Client client) throws IOException {
+        client.writing();
+        final boolean evicted;
+        try {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+        } finally {
+            evicted = client.wrote();
+        }
+        if (evicted) {
+            throw new IOException("client evicted: a write to it blocked for too long");
+        }
+    }
+    
+    /**
+     * Flush the writes to a client, evicting it as write() does if the flush blocks too long.
+     * @param body the response body of the client
+     * @param client the client written to
+     * @throws IOException if the client can no longer be written to, or has been evicted
+     */
+    private static void flush(OutputStream body, Client client) throws IOException {
+        client.writing();
+        final boolean evicted;
+        try {
+            body.flush();
+        } finally {
+            evicted = client.wrote();
+        }
+        if (evicted) {
+            throw new IOException("client evicted: a write to it blocked for too long");
+        }
+    }
+    
+    /**
+     * End a write to a client, and record it as a Flight Recorder event if a recording enables it.
+     * @param event event begun just before the write
+     * @param stream metrics of the stream written to
+     * @param firstSequence sequence number of the first line written
+     * @param lines number of lines written
+     * @param bytes number of bytes of lines written
+     */
+    private static void commit(StreamWriteEvent event, StreamMetrics stream, long firstSequence, int lines, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.stream = stream.name();
+            event.firstSequence = firstSequence;
+            event.lines = lines;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+    
 }
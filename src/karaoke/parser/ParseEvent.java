@@ -0,0 +1,48 @@
+package karaoke.parser;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one call of PieceParser.parse(), with the time spent in each of
+ * its phases: matching the grammar, building the abstract syntax tree from the parse tree,
+ * and compressing each voice's measures, sections and repeats, which is part of building.
+ * Costs next to nothing unless a recording that enables it is running.
+ */
+@Name("karaoke.PieceParse")
+@Label("Piece Parse")
+@Category({ "Karaoke", "Parser" })
+@Description("Parsing of an abc piece, with the time spent in each phase")
+final class ParseEvent extends jdk.jfr.Event {
+
+    @Label("Characters")
+    @Description("Length of the abc text parsed")
+    @DataAmount(DataAmount.BYTES)
+    int characters;
+
+    @Label("Voices")
+    int voices;
+
+    @Label("Beats")
+    @Description("Duration of the music of the piece")
+    double beats;
+
+    @Label("Grammar Parse")
+    @Description("Time to match the abc text to the grammar")
+    @Timespan(Timespan.NANOSECONDS)
+    long grammarNanos;
+
+    @Label("AST Build")
+    @Description("Time to build the piece from the parse tree, not counting compression")
+    @Timespan(Timespan.NANOSECONDS)
+    long buildNanos;
+
+    @Label("Compress")
+    @Description("Time to compress the measures, sections and repeats of every voice")
+    @Timespan(Timespan.NANOSECONDS)
+    long compressNanos;
+}
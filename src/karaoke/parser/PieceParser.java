@@ -49,8 +49,8 @@ public class PieceParser {
         PieceParser.parse(header + body);
     }
     
-    // the nonterminals of the grammar
-    private static enum PieceGrammar {
+    // the nonterminals of the grammar; package-private, like the phases of parse(), for benchmarks
+    static enum PieceGrammar {
         ABC_TUNE,
         ABC_HEADER,
         FIELD_NUMBER,
@@ -170,25 +170,54 @@ public class PieceParser {
      * following order: voices with larger durations are joined together before voices with smaller 
      * durations, and if two voices have the same duration they are joined together in alphabetical order. 
      * 
+     * Each parse is recorded as a ParseEvent, with the time spent in each phase, when a
+     * Flight Recorder recording enables it.
+     * 
      * @param string string to parse
      * @return Piece parsed from the string
      * @throws UnableToParseException if the string doesn't match the Abc grammar
      */
     public static Piece parse(final String string) throws UnableToParseException {
+        final ParseEvent event = new ParseEvent();
+        event.begin();
+        final long startNanos = System.nanoTime();
         // parse the example into a parse tree
-        final ParseTree<PieceGrammar> parseTree = parser.parse(string);
+        final ParseTree<PieceGrammar> parseTree = parseGrammar(string);
+        final long parsedNanos = System.nanoTime();
         // make an AST from the parse tree
-        final Piece piece = makeAbstractSyntaxTree(parseTree);
+        final Piece piece = makeAbstractSyntaxTree(parseTree, event);
+        final long builtNanos = System.nanoTime();
+        event.end();
+        if (event.shouldCommit()) {
+            event.characters = string.length();
+            event.voices = piece.getVoices().size();
+            event.beats = piece.getMusic().duration();
+            event.grammarNanos = parsedNanos - startNanos;
+            event.buildNanos = builtNanos - parsedNanos - event.compressNanos;
+            event.commit();
+        }
         return piece;
     }
     
     /**
-     * Convert a parse tree into an abstract syntax tree.
+     * First phase of parse(): match a string to the grammar.
+     * @param string string to parse
+     * @return parse tree of string
+     * @throws UnableToParseException if the string doesn't match the Abc grammar
+     */
+    static ParseTree<PieceGrammar> parseGrammar(final String string) throws UnableToParseException {
+        return parser.parse(string);
+    }
+    
+    /**
+     * Convert a parse tree into an abstract syntax tree; second phase of parse(), which 
+     * includes compressing the music of each voice.
      * 
      * @param parseTree constructed according to the grammar in Abc.g
+     * @param event event of this parse, to add the time spent compressing to
      * @return abstract syntax tree corresponding to parseTree
      */
-    private static Piece makeAbstractSyntaxTree(final ParseTree<PieceGrammar> parseTree) {
+    static Piece makeAbstractSyntaxTree(final ParseTree<PieceGrammar> parseTree, final ParseEvent event) {
         if(parseTree.name().equals(PieceGrammar.ABC_TUNE)) {
             // Split into header and body 
             final ParseTree<PieceGrammar> headerTree = parseTree.children().get(0);
@@ -289,7 +318,7 @@ public class PieceParser {
             }
 
             // Parse the body to get the Music object 
-            Music music = parseBody(bodyTree, voices, defaultNoteDuration, key);
+            Music music = parseBody(bodyTree, voices, defaultNoteDuration, key, event);
 
             return new Piece(composer, index, defaultNoteDuration, meter, beatsPerMinute, title, voices, key, music);
         } 
@@ -317,15 +346,16 @@ public class PieceParser {
      * @param voices the set of voices in the body
      * @param defaultNoteLength the default length for a note 
      * @param key the key signature for the piece of music
+     * @param event event of this parse, to add the time spent compressing to
      * @return the Music object corresponding to the bodyTree
      */
     private static Music parseBody(final ParseTree<PieceGrammar> bodyTree, 
-            Set<String>voices, double defaultNoteLength, String key) {
+            Set<String>voices, double defaultNoteLength, String key, ParseEvent event) {
         // Put the Music for each voice into a list a pairs of form (voice, Music)
         List<SimpleImmutableEntry<String, Music>> voicesMusic = new ArrayList<>();
         for (String voice : voices) {
             List<ParseTree<PieceGrammar>> voiceBody = extractVoiceBody(bodyTree, voice, voices);
-            Music voiceMusic = getMusicForVoice(voiceBody, voice, defaultNoteLength, key);
+            Music voiceMusic = getMusicForVoice(voiceBody, voice, defaultNoteLength, key, event);
             voicesMusic.add(new SimpleImmutableEntry<>(voice, voiceMusic));
         }
         
@@ -410,10 +440,11 @@ public class PieceParser {
      * @param voice the name of the voice whose lines are in voiceBody
      * @param defaultNoteLength the default note length of the piece 
      * @param key the key signature of the piece 
+     * @param event event of this parse, to add the time spent compressing to
      * @return the Music object for the given voice 
      */
     private static Music getMusicForVoice(List<ParseTree<PieceGrammar>> voiceBody, String voice, double defaultNoteLength,
-            String key) {
+            String key, ParseEvent event) {
         List<SimpleImmutableEntry<String,Music>> fullVoiceBody = new ArrayList<>();
         
         // Fill in fullVoiceBody line by line, keep accidentals outside the scope of the for loop
@@ -424,7 +455,9 @@ public class PieceParser {
         }
         
         // Compress the voiceMusic (takes care of measures, major sections, and repeats)
+        final long compressStart = System.nanoTime();
         Music voiceMusic = compress(fullVoiceBody);
+        event.compressNanos += System.nanoTime() - compressStart;
         return voiceMusic;
     }
     
@@ -0,0 +1,34 @@
+package karaoke.sound;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one event callback run by the dispatcher thread of a
+ * DispatchingSequencePlayer; its duration is the time the callback ran.
+ * Costs next to nothing unless a recording that enables it is running.
+ */
+@Name("karaoke.CallbackDispatch")
+@Label("Callback Dispatch")
+@Category({ "Karaoke", "Player" })
+@Description("An event callback run by the dispatcher thread of a sequence player")
+@StackTrace(false)
+final class DispatchEvent extends jdk.jfr.Event {
+
+    @Label("Beat")
+    @Description("Beat the event fired at")
+    double beat;
+
+    @Label("Queued")
+    @Description("Time from the event firing on the player's thread until the callback started")
+    @Timespan(Timespan.NANOSECONDS)
+    long queuedNanos;
+
+    @Label("Failed")
+    @Description("Whether the callback threw an exception")
+    boolean failed;
+}
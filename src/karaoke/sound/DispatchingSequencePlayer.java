@@ -0,0 +1,236 @@
+package karaoke.sound;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Wraps a sequence player so that its event callbacks run on a dedicated dispatcher thread
+ * instead of the thread that plays the music. When an event is due, the wrapped player's
+ * thread only puts the callback on a lock-free single-producer, single-consumer queue and,
+ * if needed, wakes the dispatcher; whatever the callback does, and however long it waits for
+ * locks, can then never delay the MIDI events that follow it. Callbacks still run one at a
+ * time, in the order their events fire. Each callback run is recorded as a Flight Recorder
+ * DispatchEvent when a recording enables it.
+ *
+ * The wrapped player must fire its callbacks from one thread at a time, as every player in this
+ * package does. Call close() once the last callback has been dispatched to end the dispatcher.
+ */
+public class DispatchingSequencePlayer implements SequencePlayer, AutoCloseable {
+
+    /**
+     * Number of callbacks the queue holds by default before the player's thread has to wait.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final SequencePlayer player;
+    private final AtomicReferenceArray<Consumer<Double>> callbacks;
+    private final double[] beats;
+    private final long[] dueNanos;
+    private final int mask;
+    // next slot the dispatcher takes; written only by the dispatcher
+    private final AtomicLong head = new AtomicLong();
+    // next slot the player's thread fills; written only by the player's thread
+    private final AtomicLong tail = new AtomicLong();
+    private final LatencyHistogram handoffLatency = new LatencyHistogram();
+    private final Thread dispatcher;
+    private volatile boolean dispatcherParked = false;
+    private volatile boolean closed = false;
+    private boolean started = false;
+    // System.nanoTime() the running callback's event fired at; used only by the dispatcher
+    private long runningFiredNanos = 0;
+
+    /*
+     * Abstraction function:
+     *   AF(player, callbacks, beats, dueNanos, mask, head, tail, handoffLatency, dispatcher, ...) =
+     *     player, with each of its event callbacks forwarded to the dispatcher thread; slots
+     *     head.get() to tail.get() - 1 (mod callbacks.length()) hold callbacks that are due,
+     *     with the beat they were fired at and the System.nanoTime() they were queued at, not
+     *     yet run; handoffLatency holds the time each dispatched callback spent queued
+     * Rep invariant:
+     *   callbacks.length() == beats.length == dueNanos.length is a power of two == mask + 1,
+     *   0 <= tail.get() - head.get() <= callbacks.length()
+     * Safety from rep exposure:
+     *   all fields are private and never returned, except handoffLatency, which is thread safe
+     *   and documented as a live view
+     * Thread safety argument:
+     *   exactly one thread (the wrapped player's) produces and exactly one thread (the dispatcher)
+     *   consumes. The producer writes a slot's beat and time, then its callback with a volatile
+     *   write, then advances tail; the consumer reads tail, then the callback, then the beat and
+     *   time, then clears the callback and advances head, so each slot is read only after it is
+     *   fully written and written only after it is fully read.
+     *   The producer advances tail and then reads dispatcherParked, and the dispatcher sets
+     *   dispatcherParked and then re-reads tail, all volatile, so at least one of them sees the
+     *   other's write and a wakeup is never lost.
+     *   started is only used by the thread that calls play(); runningFiredNanos is only written
+     *   by the dispatcher, and only read through firedNanos() by callbacks, which it runs.
+     */
+
+    private void checkRep() {
+        assert callbacks.length() == beats.length && beats.length == dueNanos.length;
+        assert Integer.bitCount(callbacks.length()) == 1 && mask == callbacks.length() - 1;
+        assert tail.get() - head.get() >= 0 && tail.get() - head.get() <= callbacks.length();
+    }
+
+    /**
+     * Make a player that dispatches the callbacks of player, with a queue of DEFAULT_CAPACITY.
+     * @param player player to wrap; must not be played except through this player
+     */
+    public DispatchingSequencePlayer(SequencePlayer player) {
+        this(player, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Make a player that dispatches the callbacks of player.
+     * @param player player to wrap; must not be played except through this player
+     * @param capacity minimum number of due callbacks the queue holds before the player's thread
+     *                 waits for the dispatcher, >= 1
+     */
+    public DispatchingSequencePlayer(SequencePlayer player, int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.player = player;
+        this.callbacks = new AtomicReferenceArray<>(size);
+        this.beats = new double[size];
+        this.dueNanos = new long[size];
+        this.mask = size - 1;
+        this.dispatcher = new Thread(this::dispatch, "lyric-dispatcher");
+        this.dispatcher.setDaemon(true);
+        checkRep();
+    }
+
+    @Override
+    public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        player.addNote(instr, pitch, startBeat, numBeats);
+    }
+
+    @Override
+    public void addEvent(double atBeat, Consumer<Double> callback) {
+        player.addEvent(atBeat, (Double beat) -> enqueue(callback, beat));
+    }
+
+    /**
+     * Start the dispatcher, then play the wrapped player.
+     */
+    @Override
+    public void play() {
+        if (!started) {
+            started = true;
+            dispatcher.start();
+        }
+        player.play();
+    }
+
+    /**
+     * Call only from an event callback, which runs on the dispatcher thread.
+     * @return System.nanoTime() at which the running callback's event fired on the wrapped
+     *         player's thread, before it was handed to the dispatcher
+     */
+    @Override
+    public long firedNanos() {
+        return runningFiredNanos;
+    }
+
+    /**
+     * @return live histogram of the time from when each event fired on the player's thread until
+     *         the dispatcher started running its callback
+     */
+    public LatencyHistogram handoffLatency() {
+        return handoffLatency;
+    }
+
+    /**
+     * Stop the dispatcher once it has run every callback already due. Callbacks that fire
+     * afterwards are dropped at once, so the wrapped player can play on to its end without
+     * waiting for a dispatcher that has stopped. Closes the wrapped player too, which releases
+     * its devices if it was never played.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(dispatcher);
+        player.close();
+    }
+
+    /**
+     * Queue a callback that is due now, or drop it if this player is closed. Runs on the wrapped
+     * player's thread, and waits only if the queue is full and this player is open.
+     */
+    private void enqueue(Consumer<Double> callback, double beat) {
+        final long slot = tail.get();
+        while (slot - head.get() > mask) {
+            if (closed) {
+                // the dispatcher may already have stopped, and would never make room
+                return;
+            }
+            // full: the dispatcher is far behind, so let it run
+            Thread.yield();
+        }
+        if (closed) {
+            return;
+        }
+        final int index = (int) slot & mask;
+        beats[index] = beat;
+        dueNanos[index] = System.nanoTime();
+        callbacks.set(index, callback);
+        tail.set(slot + 1);
+        if (dispatcherParked) {
+            LockSupport.unpark(dispatcher);
+        }
+    }
+
+    /**
+     * Dispatcher loop: run due callbacks in order, parking while there are none.
+     */
+    private void dispatch() {
+        long slot = head.get();
+        while (true) {
+            if (slot == tail.get()) {
+                if (closed) {
+                    return;
+                }
+                dispatcherParked = true;
+                // re-check after announcing, so a callback queued in between still wakes us
+                if (slot == tail.get() && !closed) {
+                    LockSupport.park(this);
+                }
+                dispatcherParked = false;
+                continue;
+            }
+            final int index = (int) slot & mask;
+            final Consumer<Double> callback = callbacks.get(index);
+            final double beat = beats[index];
+            runningFiredNanos = dueNanos[index];
+            final long queuedNanos = System.nanoTime() - runningFiredNanos;
+            handoffLatency.record(queuedNanos);
+            callbacks.set(index, null);
+            head.set(++slot);
+            final DispatchEvent event = new DispatchEvent();
+            event.begin();
+            try {
+                callback.accept(beat);
+            } catch (RuntimeException re) {
+                // one failing callback must not stop the ones after it
+                re.printStackTrace();
+                event.failed = true;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.beat = beat;
+                event.queuedNanos = queuedNanos;
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "dispatching " + player;
+    }
+}
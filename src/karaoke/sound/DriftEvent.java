@@ -0,0 +1,34 @@
+package karaoke.sound;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for an excursion of a playing sequencer beyond the drift bound of its
+ * DriftMonitor; it begins at the first sample beyond the bound and ends at the first sample
+ * back within it, so it lines up with the garbage collections and load in the same recording.
+ */
+@Name("karaoke.PlaybackDrift")
+@Label("Playback Drift")
+@Category({ "Karaoke", "Player" })
+@Description("A sequencer drifting from its tempo by more than the bound of its monitor")
+@StackTrace(false)
+final class DriftEvent extends jdk.jfr.Event {
+
+    @Label("Peak Drift")
+    @Description("Largest drift of the excursion; negative if the sequencer was behind its tempo")
+    @Timespan(Timespan.NANOSECONDS)
+    long peakDriftNanos;
+
+    @Label("Bound")
+    @Timespan(Timespan.NANOSECONDS)
+    long boundNanos;
+
+    @Label("Samples")
+    @Description("Samples taken beyond the bound")
+    int samples;
+}
@@ -0,0 +1,217 @@
+package karaoke.sound;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Watches a playing sequencer for drift from its tempo. Every sampling period, it compares the
+ * sequencer's tick position with the tick its tempo says it should have reached by now on the
+ * System.nanoTime() clock, counting from the first sample, so a slow start is not counted as
+ * drift. It records how far the sequencer has drifted, and how much the drift changed from
+ * one sample to the next (jitter), in histograms. While the drift is beyond a bound, which
+ * can be changed at any time, a Flight Recorder DriftEvent spans the excursion.
+ * Drift is only measured to within one tick, the resolution of the position.
+ * Thread safe.
+ */
+public class DriftMonitor {
+
+    /**
+     * Time between samples.
+     */
+    public static final long PERIOD_MILLIS = 50;
+    /**
+     * Drift bound of a new monitor, in milliseconds.
+     */
+    public static final long DEFAULT_BOUND_MILLIS = 20;
+
+    private static final double NANOS_PER_MINUTE = 60e9;
+
+    // one shared daemon thread samples every monitor
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "drift-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongSupplier tickPosition;
+    private final double nanosPerTick;
+    private final LatencyHistogram drift = new LatencyHistogram();
+    private final LatencyHistogram jitter = new LatencyHistogram();
+    private volatile long boundNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BOUND_MILLIS);
+    private volatile long lastDriftNanos = 0;
+    private long excursions = 0;
+    private long baseTick = 0;
+    private long baseNanos = 0;
+    private boolean sampled = false;
+    private DriftEvent excursion = null;
+    private ScheduledFuture<?> sampling = null;
+    private boolean stopped = false;
+
+    /*
+     * Abstraction function:
+     *   AF(tickPosition, nanosPerTick, drift, jitter, boundNanos, lastDriftNanos, excursions, baseTick,
+     *      baseNanos, sampled, excursion, sampling, stopped) =
+     *     a monitor of the sequencer whose position is tickPosition, advancing one tick every
+     *     nanosPerTick ns, that was at tick baseTick at System.nanoTime() baseNanos if sampled;
+     *     drift and jitter hold the size of the drift at every later sample and of its change
+     *     between samples, the latest drift being lastDriftNanos; the drift went beyond
+     *     boundNanos excursions times, and is beyond it now iff excursion is non-null;
+     *     sampling is the task sampling it if it has been started; no more samples are taken
+     *     once stopped
+     * Rep invariant:
+     *   nanosPerTick > 0, boundNanos >= 0, excursions >= 0,
+     *   excursion is null unless sampled, and null if stopped
+     * Safety from rep exposure:
+     *   all fields are private; drift and jitter are returned, but they are thread safe and
+     *   documented as live views
+     * Thread safety argument:
+     *   every field but the final ones, the histograms and the volatile ones is only used
+     *   while holding the lock of this monitor; the histograms are thread safe
+     */
+
+    private synchronized void checkRep() {
+        assert nanosPerTick > 0;
+        assert boundNanos >= 0;
+        assert excursions >= 0;
+        assert excursion == null || (sampled && !stopped);
+    }
+
+    /**
+     * Make a monitor of a sequencer, not sampling yet, with a bound of DEFAULT_BOUND_MILLIS.
+     * @param tickPosition function returning the sequencer's tick position now, as
+     *                     Sequencer.getTickPosition()
+     * @param beatsPerMinute the tempo of the sequencer, > 0
+     * @param ticksPerBeat ticks in a beat, > 0
+     */
+    public DriftMonitor(LongSupplier tickPosition, double beatsPerMinute, int ticksPerBeat) {
+        if (!(beatsPerMinute > 0) || ticksPerBeat <= 0) {
+            throw new IllegalArgumentException("tempo must be > 0: " + beatsPerMinute + " bpm, "
+                    + ticksPerBeat + " ticks per beat");
+        }
+        this.tickPosition = tickPosition;
+        this.nanosPerTick = NANOS_PER_MINUTE / (beatsPerMinute * ticksPerBeat);
+        checkRep();
+    }
+
+    /**
+     * Start sampling every PERIOD_MILLIS, from now; call it just after starting the sequencer.
+     * @throws IllegalStateException if this monitor has already been started or stopped
+     */
+    public synchronized void start() {
+        if (sampling != null || stopped) {
+            throw new IllegalStateException("drift monitor already started");
+        }
+        sampling = SAMPLER.scheduleAtFixedRate(() -> sample(System.nanoTime()),
+                0, PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        checkRep();
+    }
+
+    /**
+     * Stop sampling for good, ending the excursion beyond the bound in progress, if any; call it
+     * when the sequencer stops. Stopping a stopped monitor does nothing.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (sampling != null) {
+            sampling.cancel(false);
+        }
+        endExcursion();
+        checkRep();
+    }
+
+    /**
+     * Compare the sequencer's position with its tempo now. The first sample only sets the
+     * position and time that later ones count from. Does nothing once stopped.
+     * @param nowNanos System.nanoTime() now
+     */
+    synchronized void sample(long nowNanos) {
+        if (stopped) {
+            return;
+        }
+        final long tick = tickPosition.getAsLong();
+        if (!sampled) {
+            baseTick = tick;
+            baseNanos = nowNanos;
+            sampled = true;
+            return;
+        }
+        final double expectedTicks = (nowNanos - baseNanos) / nanosPerTick;
+        final long driftNanos = Math.round((tick - baseTick - expectedTicks) * nanosPerTick);
+        drift.record(Math.abs(driftNanos));
+        jitter.record(Math.abs(driftNanos - lastDriftNanos));
+        lastDriftNanos = driftNanos;
+
+        if (Math.abs(driftNanos) > boundNanos) {
+            if (excursion == null) {
+                excursions++;
+                excursion = new DriftEvent();
+                excursion.begin();
+                excursion.boundNanos = boundNanos;
+                excursion.peakDriftNanos = driftNanos;
+            } else if (Math.abs(driftNanos) > Math.abs(excursion.peakDriftNanos)) {
+                excursion.peakDriftNanos = driftNanos;
+            }
+            excursion.samples++;
+        } else {
+            endExcursion();
+        }
+        checkRep();
+    }
+
+    private void endExcursion() {
+        if (excursion != null) {
+            excursion.commit();
+            excursion = null;
+        }
+    }
+
+    /**
+     * @param boundMillis how far, in milliseconds, the sequencer may drift from its tempo
+     *                    before an excursion begins, >= 0
+     */
+    public void setBoundMillis(long boundMillis) {
+        if (boundMillis < 0) {
+            throw new IllegalArgumentException("bound must be >= 0: " + boundMillis);
+        }
+        boundNanos = TimeUnit.MILLISECONDS.toNanos(boundMillis);
+    }
+
+    /**
+     * @return live histogram of how far the sequencer had drifted from its tempo, ahead or
+     *         behind, at each sample after the first
+     */
+    public LatencyHistogram drift() {
+        return drift;
+    }
+
+    /**
+     * @return live histogram of how much the drift changed from each sample to the next
+     */
+    public LatencyHistogram jitter() {
+        return jitter;
+    }
+
+    /**
+     * @return the drift at the latest sample, in nanoseconds: positive if the sequencer was
+     *         ahead of its tempo, negative if it was behind; 0 before the second sample
+     */
+    public long lastDriftNanos() {
+        return lastDriftNanos;
+    }
+
+    /**
+     * @return number of times the drift has gone beyond the bound
+     */
+    public synchronized long excursions() {
+        return excursions;
+    }
+
+    @Override
+    public String toString() {
+        return "drift " + TimeUnit.NANOSECONDS.toMicros(lastDriftNanos) + " us, "
+                + excursions() + " excursions beyond " + TimeUnit.NANOSECONDS.toMillis(boundNanos) + " ms";
+    }
+}
@@ -0,0 +1,109 @@
+package karaoke.sound;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sound.midi.Patch;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * Loads the patches for instruments into a synthesizer in the background, one instrument
+ * at a time as they are first used, instead of loading the whole soundbank up front.
+ * A patch that fails to load, because loading it throws or the synthesizer refuses it, is
+ * reported and skipped; the instrument then plays with whatever patch the synthesizer already
+ * has for its program, and the patches requested after it still load. Requesting a failed
+ * instrument again, as the next piece played on the same synthesizer that uses it does,
+ * tries to load its patch again.
+ */
+class InstrumentLoader {
+
+    // one shared daemon thread loads patches for every synthesizer, in request order
+    private static final ExecutorService LOADER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "instrument-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Synthesizer synthesizer;
+    private final Set<Instrument> requested = EnumSet.noneOf(Instrument.class);
+    private final Set<Instrument> failed = Collections.synchronizedSet(EnumSet.noneOf(Instrument.class));
+    private CompletableFuture<Void> loading = CompletableFuture.completedFuture(null);
+
+    /*
+     * Abstraction function:
+     *   AF(synthesizer, requested, failed, loading) = a loader that has been asked to load the
+     *     patches for requested into synthesizer, and finishes trying to when loading completes;
+     *     the patches for failed could not be loaded the last time they were tried
+     * Rep invariant:
+     *   synthesizer, requested, failed and loading are non-null, failed is a subset of requested,
+     *   and loading never completes exceptionally
+     * Safety from rep exposure:
+     *   all fields are private and never returned; failed() returns a copy
+     * Thread safety argument:
+     *   not thread safe; load(), awaitLoaded() and failed() must be called from one thread at
+     *   a time; the loader thread only touches the synthesizer, which is thread safe, and
+     *   failed, which is synchronized
+     */
+
+    /**
+     * Make a loader for an open synthesizer.
+     * @param synthesizer synthesizer to load patches into, must be open
+     */
+    InstrumentLoader(Synthesizer synthesizer) {
+        this.synthesizer = synthesizer;
+    }
+
+    /**
+     * Start loading the patch for instr in the background, unless it was already requested
+     * and has not failed to load.
+     * @param instr instrument that is about to be used
+     */
+    void load(Instrument instr) {
+        // failed is only added to once an attempt is over, so a retry never overlaps one
+        if (requested.add(instr) || failed.remove(instr)) {
+            // each patch recovers on its own, so a failure never skips the patches after it
+            loading = loading.thenRunAsync(() -> loadPatch(instr), LOADER).exceptionally(failure -> {
+                failed.add(instr);
+                (failure instanceof CompletionException ? failure.getCause() : failure).printStackTrace();
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Wait until every requested patch has been loaded, or has failed to load.
+     */
+    void awaitLoaded() {
+        loading.join();
+    }
+
+    /**
+     * @return the requested instruments whose patches failed to load, and have not been
+     *         requested again since
+     */
+    Set<Instrument> failed() {
+        Set<Instrument> copy = EnumSet.noneOf(Instrument.class);
+        synchronized (failed) {
+            copy.addAll(failed);
+        }
+        return copy;
+    }
+
+    private void loadPatch(Instrument instr) {
+        Soundbank soundbank = synthesizer.getDefaultSoundbank();
+        if (soundbank == null) {
+            // the synthesizer has its instruments built in
+            return;
+        }
+        javax.sound.midi.Instrument patch = soundbank.getInstrument(new Patch(0, instr.ordinal()));
+        if (patch != null && !synthesizer.loadInstrument(patch)) {
+            throw new IllegalStateException("synthesizer refused the patch for " + instr);
+        }
+    }
+}
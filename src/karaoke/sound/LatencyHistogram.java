@@ -0,0 +1,178 @@
+package karaoke.sound;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds, with fixed buckets whose upper bounds are powers
+ * of two: bucket 0 holds latencies of 0 ns (or less), and bucket i > 0 holds latencies from
+ * 2^(i-1) to 2^i - 1 ns. Recording is lock-free and cheap enough for the thread that plays
+ * the music, so percentiles are only as precise as the bucket they fall in, within a factor of 2.
+ * Thread safe.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of buckets, enough for any non-negative long.
+     */
+    public static final int BUCKET_COUNT = Long.SIZE;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /*
+     * Abstraction function:
+     *   AF(buckets, total, max) = a histogram that has recorded buckets[i].sum() latencies in
+     *     bucket i, adding up to total.sum() ns, the largest of which was max ns
+     * Rep invariant:
+     *   buckets.length == BUCKET_COUNT and no bucket is null; all counts and max are >= 0
+     * Safety from rep exposure:
+     *   all fields are private and final, and never returned
+     * Thread safety argument:
+     *   buckets and total are thread safe adders and max is only raised atomically, so concurrent
+     *   records are never lost; a reader running concurrently with records may see some of them
+     *   in some observers and not yet in others
+     */
+
+    private void checkRep() {
+        assert buckets.length == BUCKET_COUNT;
+        assert max.get() >= 0;
+    }
+
+    /**
+     * Make an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+        checkRep();
+    }
+
+    /**
+     * Record one latency.
+     * @param nanos the latency in nanoseconds; negative latencies are recorded as 0
+     */
+    public void record(long nanos) {
+        final long latency = Math.max(0, nanos);
+        buckets[bucketOf(latency)].increment();
+        total.add(latency);
+        max.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * @param nanos a latency in nanoseconds, >= 0
+     * @return index of the bucket that latency is recorded in
+     */
+    public static int bucketOf(long nanos) {
+        return Math.min(BUCKET_COUNT - 1, Long.SIZE - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * @param bucket index of a bucket, 0 <= bucket < BUCKET_COUNT
+     * @return the largest latency, in nanoseconds, recorded in that bucket
+     */
+    public static long bucketUpperBoundNanos(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /**
+     * @param bucket index of a bucket, 0 <= bucket < BUCKET_COUNT
+     * @return number of latencies recorded in that bucket
+     */
+    public long bucketCount(int bucket) {
+        return buckets[bucket].sum();
+    }
+
+    /**
+     * @return number of latencies recorded
+     */
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * @return the largest latency recorded, in nanoseconds, or 0 if none
+     */
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * @return the sum of the latencies recorded, in nanoseconds
+     */
+    public long sumNanos() {
+        return total.sum();
+    }
+
+    /**
+     * @return the mean latency recorded, in nanoseconds, or 0 if none
+     */
+    public double meanNanos() {
+        final long count = count();
+        return count == 0 ? 0 : total.sum() / (double) count;
+    }
+
+    /**
+     * @param percentile percentage of latencies, 0 < percentile <= 100
+     * @return the upper bound, in nanoseconds, of the bucket holding the latency below which
+     *         that percentage of recorded latencies fall, but never more than maxNanos(); 0 if none
+     */
+    public long percentileNanos(double percentile) {
+        if (!(percentile > 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile out of range: " + percentile);
+        }
+        long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        final long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(bucketUpperBoundNanos(i), maxNanos());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Forget every latency recorded so far. Latencies recorded concurrently may or may not be kept.
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        total.reset();
+        max.set(0);
+    }
+
+    /**
+     * @return a summary of count, mean, 50th, 99th and 100th percentiles in microseconds,
+     *         followed by one line "<= upperBound us: count" per non-empty bucket
+     */
+    @Override
+    public String toString() {
+        final double nanosPerMicro = 1000;
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("count %d, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us",
+                count(), meanNanos() / nanosPerMicro, percentileNanos(50) / nanosPerMicro,
+                percentileNanos(99) / nanosPerMicro, maxNanos() / nanosPerMicro));
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = buckets[i].sum();
+            if (bucketCount > 0) {
+                summary.append(String.format("%n<= %.3f us: %d", bucketUpperBoundNanos(i) / nanosPerMicro,
+                        bucketCount));
+            }
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,212 @@
+package karaoke.sound;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiChannel;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * A pool of warm MIDI engines, each an open synthesizer wired to an open sequencer,
+ * shared by MidiSequencePlayers that play songs one after another. A pooled player
+ * returns its engine to the pool as soon as its track ends, instead of closing it, so
+ * the next song can start without reopening any MIDI device.
+ * Thread safe.
+ */
+public class MidiPlayerPool implements AutoCloseable {
+
+    private final int capacity;
+    private final EngineSource source;
+    private final BlockingQueue<Engine> idle;
+    private volatile boolean closed = false;
+
+    // Abstraction function:
+    //     AF(capacity, source, idle, closed) = a pool keeping at most capacity warm engines, 
+    //                          opened by source, of which the engines in idle are not in use
+    //                          by any player; once closed, it keeps none, and closes every 
+    //                          engine returned to it
+    // Representation invariant:
+    //     - capacity >= 1
+    //     - idle.size() <= capacity
+    // Safety from rep exposure:
+    //     - all fields are private, and all but closed are final; engines are only handed to 
+    //       players in this package
+    // Thread safety argument:
+    //     - idle is a thread safe queue, and each engine is in idle or owned by exactly one player
+    //     - closed is volatile and only ever set; close() sets it before draining idle, and 
+    //       release() re-checks it after adding to idle, so at least one of them sees the 
+    //       other's write and closes an engine released while the pool is being closed
+
+    private void checkRep() {
+        assert capacity >= 1;
+        assert idle.size() <= capacity;
+    }
+
+    /**
+     * Make a pool and warm up its engines.
+     * @param capacity number of engines to open now and keep warm, >= 1
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    public MidiPlayerPool(int capacity) throws MidiUnavailableException {
+        this(capacity, Engine::warm);
+    }
+
+    /**
+     * Make a pool and warm up its engines.
+     * @param capacity number of engines to open now and keep warm, >= 1
+     * @param source opens the engines of this pool
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    MidiPlayerPool(int capacity, EngineSource source) throws MidiUnavailableException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("pool must hold at least one engine");
+        }
+        this.capacity = capacity;
+        this.source = source;
+        this.idle = new LinkedBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            idle.add(source.open());
+        }
+        checkRep();
+    }
+
+    /**
+     * Make a new empty MIDI sequence player that plays on an engine from this pool, opening a
+     * new engine if every pooled one is in use. The engine goes back to the pool when the
+     * player reaches the end of its track.
+     * @param beatsPerMinute the number of beats per minute
+     * @param ticksPerBeat the number of ticks per beat; every note plays for an integer number of ticks
+     * @return a player that has not been played yet
+     * @throws MidiUnavailableException if MIDI device unavailable
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    public MidiSequencePlayer createPlayer(int beatsPerMinute, int ticksPerBeat)
+            throws MidiUnavailableException, InvalidMidiDataException {
+        return new MidiSequencePlayer(beatsPerMinute, ticksPerBeat, acquire(), this);
+    }
+
+    /**
+     * @return number of warm engines idle in this pool now, not used by any player
+     */
+    public int idleEngines() {
+        return idle.size();
+    }
+
+    /**
+     * Take an idle engine from this pool, or open a new one if every pooled one is in use.
+     * @return a warm engine not used by any player; it must be released once its player finishes
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    Engine acquire() throws MidiUnavailableException {
+        Engine engine = idle.poll();
+        return engine != null ? engine : source.open();
+    }
+
+    /**
+     * Return an engine whose player has finished, silencing it first. Closes the engine
+     * instead if the pool is already full or closed.
+     * @param engine a warm engine no longer used by any player
+     */
+    void release(Engine engine) {
+        engine.silence();
+        if (closed || !idle.offer(engine)) {
+            engine.close();
+        } else if (closed) {
+            // closed while engine was being added: close() may have drained idle before it got there
+            closeIdle();
+        }
+        checkRep();
+    }
+
+    /**
+     * Close every idle engine in this pool now, and every engine still in use as soon as its
+     * player finishes. Closing a closed pool does nothing.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeIdle();
+    }
+
+    private void closeIdle() {
+        for (Engine engine = idle.poll(); engine != null; engine = idle.poll()) {
+            engine.close();
+        }
+    }
+
+    /**
+     * Opens the engines of a pool.
+     */
+    @FunctionalInterface
+    interface EngineSource {
+        /**
+         * @return a warm engine, not used by any player
+         * @throws MidiUnavailableException if MIDI device unavailable
+         */
+        Engine open() throws MidiUnavailableException;
+    }
+
+    /**
+     * A synthesizer and the sequencer that drives it, plus the loader that tracks which
+     * instrument patches have already been loaded into the synthesizer.
+     */
+    static final class Engine {
+        final Synthesizer synthesizer;
+        final Sequencer sequencer;
+        final InstrumentLoader instrumentLoader;
+
+        /**
+         * @param synthesizer an open synthesizer
+         * @param sequencer a sequencer that drives synthesizer
+         */
+        Engine(Synthesizer synthesizer, Sequencer sequencer) {
+            this.synthesizer = synthesizer;
+            this.sequencer = sequencer;
+            this.instrumentLoader = new InstrumentLoader(synthesizer);
+        }
+
+        /**
+         * @return an open synthesizer with an unopened sequencer connected to the default device,
+         *         as used by a MidiSequencePlayer that is not pooled
+         * @throws MidiUnavailableException if MIDI device unavailable
+         */
+        static Engine unpooled() throws MidiUnavailableException {
+            Synthesizer synthesizer = MidiSystem.getSynthesizer();
+            synthesizer.open();
+            return new Engine(synthesizer, MidiSystem.getSequencer());
+        }
+
+        /**
+         * @return an open synthesizer with an open sequencer wired straight into it
+         * @throws MidiUnavailableException if MIDI device unavailable
+         */
+        static Engine warm() throws MidiUnavailableException {
+            Synthesizer synthesizer = MidiSystem.getSynthesizer();
+            synthesizer.open();
+            Sequencer sequencer = MidiSystem.getSequencer(false);
+            sequencer.getTransmitter().setReceiver(synthesizer.getReceiver());
+            sequencer.open();
+            return new Engine(synthesizer, sequencer);
+        }
+
+        /**
+         * Stop the sequencer, and silence and reset every channel of the synthesizer.
+         */
+        void silence() {
+            sequencer.stop();
+            for (MidiChannel channel : synthesizer.getChannels()) {
+                channel.allNotesOff();
+                channel.resetAllControllers();
+            }
+        }
+
+        void close() {
+            sequencer.close();
+            synthesizer.close();
+        }
+    }
+}
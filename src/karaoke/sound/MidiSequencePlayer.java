@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import javax.sound.midi.*;
@@ -36,8 +37,14 @@ public class MidiSequencePlayer implements SequencePlayer {
     // MIDI note number representing middle C
     private static final int MIDI_NOTE_MIDDLE_C = 60;
     
+    private final MidiPlayerPool.Engine engine;
+    // pool that engine came from, or null if this player owns it
+    private final MidiPlayerPool pool;
     private final Synthesizer synthesizer;
 
+    // loads patches for the instruments actually used, in the background
+    private final InstrumentLoader instrumentLoader;
+
     // active MIDI channels, assigned to instruments
     private final Map<Instrument, Integer> channelForInstrument = new HashMap<>();
 
@@ -49,21 +56,31 @@ public class MidiSequencePlayer implements SequencePlayer {
     private final int beatsPerMinute;
     private final int ticksPerBeat;
 
+    // watches the sequencer for drift from its tempo while playing
+    private final DriftMonitor driftMonitor;
+
     // event callback functions
     private final SortedMap<Integer, Consumer<Double>> callbacks = new TreeMap<>();
     private final MetaMessage keepalive = new MetaMessage(META_MARKER, new byte[] { 0 }, 1);
 
+    // set by whichever of play() and close() is called first, which then owns engine's release
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
     /*
      * Rep invariant:
-     *   sequencer and track are non-null,
+     *   engine, sequencer, track, instrumentLoader and driftMonitor are non-null,
+     *   synthesizer, sequencer and instrumentLoader are those of engine,
      *   beatsPerMinute and ticksPerBeat are positive,
      *   channels and callbacks are non-null,
      *   channels does not contain value nextChannel
      */
 
     private void checkRep() {
-        assert sequencer != null : "sequencer should be non-null";
+        assert engine != null : "engine should be non-null";
+        assert sequencer == engine.sequencer && synthesizer == engine.synthesizer : "should play on engine";
         assert track != null : "track should be non-null";
+        assert instrumentLoader != null : "instrumentLoader should be non-null";
+        assert driftMonitor != null : "driftMonitor should be non-null";
         assert beatsPerMinute >= 0 : "should be positive number of beats per minute";
         assert ticksPerBeat >= 0 : "should be positive number of ticks per beat";
         assert callbacks != null : "callbacks should be non-null";
@@ -89,11 +106,27 @@ public class MidiSequencePlayer implements SequencePlayer {
      */
     public MidiSequencePlayer(int beatsPerMinute, int ticksPerBeat)
             throws MidiUnavailableException, InvalidMidiDataException {
-        synthesizer = MidiSystem.getSynthesizer();
-        synthesizer.open();
-        synthesizer.loadAllInstruments(synthesizer.getDefaultSoundbank());
+        this(beatsPerMinute, ticksPerBeat, MidiPlayerPool.Engine.unpooled(), null);
+    }
+
+    /**
+     * Make a new MIDI sequence player on an existing engine.
+     * @param beatsPerMinute the number of beats per minute
+     * @param ticksPerBeat the number of ticks per beat; every note plays for an integer number of ticks
+     * @param engine synthesizer and sequencer to play on, not used by any other player
+     * @param pool pool to return the engine to at the end of the track,
+     *             or null to close the engine instead
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    MidiSequencePlayer(int beatsPerMinute, int ticksPerBeat, MidiPlayerPool.Engine engine, MidiPlayerPool pool)
+            throws InvalidMidiDataException {
+        this.engine = engine;
+        this.pool = pool;
+        this.synthesizer = engine.synthesizer;
+        // patches are loaded only for the instruments the piece uses, see getChannel
+        this.instrumentLoader = engine.instrumentLoader;
 
-        this.sequencer = MidiSystem.getSequencer();
+        this.sequencer = engine.sequencer;
 
         // create a sequence object with with tempo-based timing, where
         // the resolution of the time step is based on ticks per quarter note
@@ -105,6 +138,10 @@ public class MidiSequencePlayer implements SequencePlayer {
         this.track = sequence.createTrack();
 
         sequencer.setSequence(sequence);
+        // a pooled sequencer may still be positioned at the end of the previous song
+        sequencer.setTickPosition(0);
+
+        this.driftMonitor = new DriftMonitor(sequencer::getTickPosition, beatsPerMinute, ticksPerBeat);
 
         checkRep();
     }
@@ -168,33 +205,88 @@ public class MidiSequencePlayer implements SequencePlayer {
         this.track.add(new MidiEvent(keepalive, tick+1));
     }
 
+    /**
+     * Play the scheduled music. The engine is released at the end of the track.
+     * @throws IllegalStateException if this player has already been played or closed
+     */
     @Override
     public void play() {
-        try {
-            sequencer.open();
-        } catch (MidiUnavailableException mue) {
-            throw new RuntimeException("Unable to open MIDI sequencer", mue);
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException("player has already been played or closed");
+        }
+        instrumentLoader.awaitLoaded();
+        if (!sequencer.isOpen()) {
+            try {
+                sequencer.open();
+            } catch (MidiUnavailableException mue) {
+                throw new RuntimeException("Unable to open MIDI sequencer", mue);
+            }
         }
         sequencer.setTempoInBPM(this.beatsPerMinute);
 
-        sequencer.addMetaEventListener(meta -> {
-            if (meta.getType() == META_MARKER) {
-                // trigger event callback
-                int callbackNumber = new BigInteger(meta.getData()).intValue();
-                if (callbackNumber > 0) {
-                    callbacks.remove(callbackNumber).accept(sequencer.getTickPosition() / (double)ticksPerBeat);
-                }
-            } else if (meta.getType() == META_END_OF_TRACK) {
-                // allow the sequencer to finish
-                try { Thread.sleep(Duration.ofSeconds(1).toMillis()); } catch (InterruptedException ie) { }
-                // stop & close the sequencer
-                sequencer.stop();
-                sequencer.close();
+        sequencer.addMetaEventListener(new MetaEventListener() {
+            @Override
+            public void meta(MetaMessage meta) {
+                onMetaEvent(meta, this);
             }
         });
 
         // start playing!
         sequencer.start();
+        driftMonitor.start();
+    }
+
+    /**
+     * Give up this player without playing it: return its engine to its pool, or close the
+     * engine if it is not pooled. Does nothing once this player has been played, since its
+     * engine is then released at the end of the track, or if it has already been closed.
+     */
+    @Override
+    public void close() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        if (pool != null) {
+            pool.release(engine);
+        } else {
+            engine.close();
+        }
+    }
+
+    /**
+     * @return the monitor of the drift of the sequencer from the tempo of this player, which
+     *         samples it from play() until the end of the track; its bound may be set at any time
+     */
+    public DriftMonitor driftMonitor() {
+        return driftMonitor;
+    }
+
+    /**
+     * Handle a meta event from the sequencer while this player is playing.
+     * @param meta the event
+     * @param listener the listener that received it, to remove at the end of the track
+     */
+    private void onMetaEvent(MetaMessage meta, MetaEventListener listener) {
+        if (meta.getType() == META_MARKER) {
+            // trigger event callback
+            int callbackNumber = new BigInteger(meta.getData()).intValue();
+            if (callbackNumber > 0) {
+                callbacks.remove(callbackNumber).accept(sequencer.getTickPosition() / (double)ticksPerBeat);
+            }
+        } else if (meta.getType() == META_END_OF_TRACK) {
+            driftMonitor.stop();
+            sequencer.removeMetaEventListener(listener);
+            if (pool != null) {
+                // the synthesizer stays open, so release tails keep sounding after the handover
+                pool.release(engine);
+                return;
+            }
+            // allow the sequencer to finish
+            try { Thread.sleep(Duration.ofSeconds(1).toMillis()); } catch (InterruptedException ie) { }
+            // stop & close the sequencer
+            sequencer.stop();
+            sequencer.close();
+        }
     }
 
     /**
@@ -209,6 +301,7 @@ public class MidiSequencePlayer implements SequencePlayer {
         }
         
         int channel = allocateChannel();
+        instrumentLoader.load(instr);
         patchInstrumentIntoChannel(channel, instr);
         channelForInstrument.put(instr, channel);
         checkRep();
@@ -239,7 +332,7 @@ public class MidiSequencePlayer implements SequencePlayer {
      *         semitones above C 5 octaves below middle C; for example,
      *         middle C is note 60
      */
-    private static int getMidiNote(Pitch pitch) {
+    static int getMidiNote(Pitch pitch) {
         return MIDI_NOTE_MIDDLE_C + pitch.difference(Pitch.MIDDLE_C);
     }
 
@@ -251,7 +344,7 @@ public class MidiSequencePlayer implements SequencePlayer {
      */
     @Override
     public String toString() {
-        String trackInfo = "";
+        StringBuilder trackInfo = new StringBuilder();
 
         for (int i = 0; i < track.size(); i++) {
             final MidiEvent e = track.get(i);
@@ -292,9 +385,9 @@ public class MidiSequencePlayer implements SequencePlayer {
                 msgString = "Unknown event";
             }
 
-            trackInfo += msgString + " Tick: " + e.getTick() + "\n";
+            trackInfo.append(msgString).append(" Tick: ").append(e.getTick()).append('\n');
         }
 
-        return trackInfo;
+        return trackInfo.toString();
     }
 }
@@ -0,0 +1,365 @@
+package karaoke.sound;
+
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import javax.sound.midi.*;
+
+/**
+ * Schedules and plays a sequence of notes by sending MIDI messages straight to the
+ * synthesizer's Receiver from a dedicated scheduling thread, instead of going through
+ * the javax Sequencer. The thread parks until shortly before each message is due and
+ * then spins, and it records how late each note onset actually was in a histogram, so its
+ * timing, both the typical lateness and its spread, can be compared with MidiSequencePlayer's.
+ * 
+ * Event callbacks run on the scheduling thread too, so a slow callback delays the notes
+ * after it. Wrap this player in a DispatchingSequencePlayer, as Room does, so that each
+ * callback only costs a hand-off; onset lateness leaves out any delay caused by callbacks,
+ * since it measures the scheduler, not them.
+ */
+public class ReceiverSequencePlayer implements SequencePlayer {
+
+    // the volume
+    private static final int DEFAULT_VELOCITY = 100;
+
+    // wake up from parking this long before a message is due, and spin for the rest
+    private static final long SPIN_NANOS = 50_000;
+
+    private static final long NANOS_PER_MINUTE = 60_000_000_000L;
+
+    // kinds of timeline entries
+    private static final int KIND_MESSAGE = 0, KIND_ONSET = 1, KIND_CALLBACK = 2;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Synthesizer synthesizer;
+
+    // loads patches for the instruments actually used, in the background
+    private final InstrumentLoader instrumentLoader;
+
+    private final int beatsPerMinute;
+    private final int ticksPerBeat;
+
+    // active MIDI channels, assigned to instruments
+    private final Map<Instrument, Integer> channelForInstrument = new HashMap<>();
+
+    // timeline entries, one per index below entryCount: entryTicks[i] is when entry i is due;
+    // for messages and onsets, entryData[i] packs command | channel, data1 and data2 one byte each;
+    // for callbacks, entryData[i] is an index into callbacks
+    private int[] entryTicks = new int[INITIAL_CAPACITY];
+    private int[] entryKinds = new int[INITIAL_CAPACITY];
+    private int[] entryData = new int[INITIAL_CAPACITY];
+    private int entryCount = 0;
+    private Consumer<?>[] callbacks = new Consumer<?>[INITIAL_CAPACITY];
+    private int callbackCount = 0;
+
+    // set by whichever of play() and close() is called first, which then owns closing synthesizer
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    // how late each note onset was, recorded only by the scheduling thread
+    private final LatencyHistogram onsetLateness = new LatencyHistogram();
+
+    /*
+     * Abstraction function:
+     *   AF(synthesizer, beatsPerMinute, ticksPerBeat, entries, callbacks, started, onsetLateness) =
+     *     a timeline of MIDI messages and callbacks to be played on synthesizer at beatsPerMinute,
+     *     where entry i is due at tick entryTicks[i], with ticksPerBeat ticks per beat, that has
+     *     been played or closed iff started; onsetLateness holds how late each note played so
+     *     far started, leaving out delays caused by callbacks
+     * Rep invariant:
+     *   synthesizer is non-null, beatsPerMinute and ticksPerBeat are positive,
+     *   entry arrays have the same length >= entryCount,
+     *   every callback entry refers to an index below callbackCount,
+     *   no two instruments are assigned the same channel
+     * Safety from rep exposure:
+     *   all fields are private; arrays and the synthesizer are never returned; onsetLateness
+     *   is returned, but it is thread safe and documented as a live view
+     * Thread safety argument:
+     *   the timeline is only mutated before play(), which fails afterwards; the scheduling
+     *   thread is handed the timeline through Thread.start(), which happens-before its run;
+     *   started is atomic, so the synthesizer is closed exactly once, by the scheduling thread
+     *   or by close(); onsetLateness is thread safe, and recorded only by the scheduling thread
+     */
+
+    private void checkRep() {
+        assert synthesizer != null : "synthesizer should be non-null";
+        assert beatsPerMinute > 0 : "should be positive number of beats per minute";
+        assert ticksPerBeat > 0 : "should be positive number of ticks per beat";
+        assert entryTicks.length == entryKinds.length && entryKinds.length == entryData.length;
+        assert entryCount <= entryTicks.length;
+        assert callbackCount <= callbacks.length;
+        assert channelForInstrument.values().stream().distinct().count() == channelForInstrument.size()
+                : "channels should be assigned to one instrument each";
+    }
+
+    /**
+     * Make a new direct-to-receiver sequence player.
+     * @param beatsPerMinute the number of beats per minute, > 0
+     * @param ticksPerBeat the number of ticks per beat, > 0; every note plays for an integer number of ticks
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    public ReceiverSequencePlayer(int beatsPerMinute, int ticksPerBeat) throws MidiUnavailableException {
+        this(openSynthesizer(), beatsPerMinute, ticksPerBeat);
+    }
+
+    private static Synthesizer openSynthesizer() throws MidiUnavailableException {
+        Synthesizer synthesizer = MidiSystem.getSynthesizer();
+        synthesizer.open();
+        return synthesizer;
+    }
+
+    /**
+     * Make a new direct-to-receiver sequence player on a synthesizer.
+     * @param synthesizer an open synthesizer, which this player closes once it has played,
+     *        or when it is closed without playing
+     * @param beatsPerMinute the number of beats per minute, > 0
+     * @param ticksPerBeat the number of ticks per beat, > 0; every note plays for an integer number of ticks
+     */
+    ReceiverSequencePlayer(Synthesizer synthesizer, int beatsPerMinute, int ticksPerBeat) {
+        if (beatsPerMinute <= 0 || ticksPerBeat <= 0) {
+            throw new IllegalArgumentException("tempo and resolution must be positive");
+        }
+        this.synthesizer = synthesizer;
+        // patches are loaded only for the instruments the piece uses, see getChannel
+        instrumentLoader = new InstrumentLoader(synthesizer);
+        this.beatsPerMinute = beatsPerMinute;
+        this.ticksPerBeat = ticksPerBeat;
+        checkRep();
+    }
+
+    @Override
+    public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        checkNotPlayed();
+        int channel = getChannel(instr);
+        int note = MidiSequencePlayer.getMidiNote(pitch);
+        if (note < 0 || note > Byte.MAX_VALUE) {
+            String msg = MessageFormat.format("Cannot add note with the pitch {0} at beat {1} " +
+                                              "for duration {2}", note, startBeat, numBeats);
+            throw new RuntimeException(msg);
+        }
+        addEntry(KIND_ONSET, (int) (startBeat * ticksPerBeat),
+                 pack(ShortMessage.NOTE_ON | channel, note, DEFAULT_VELOCITY));
+        addEntry(KIND_MESSAGE, (int) ((startBeat + numBeats) * ticksPerBeat),
+                 pack(ShortMessage.NOTE_OFF | channel, note, DEFAULT_VELOCITY));
+    }
+
+    @Override
+    public void addEvent(double atBeat, Consumer<Double> callback) {
+        checkNotPlayed();
+        if (callbackCount == callbacks.length) {
+            callbacks = Arrays.copyOf(callbacks, callbackCount * 2);
+        }
+        callbacks[callbackCount] = callback;
+        addEntry(KIND_CALLBACK, (int) (atBeat * ticksPerBeat), callbackCount);
+        callbackCount++;
+        checkRep();
+    }
+
+    private void checkNotPlayed() {
+        if (started.get()) {
+            throw new IllegalStateException("cannot schedule after play() or close() has been called");
+        }
+    }
+
+    private static int pack(int status, int data1, int data2) {
+        return (status << 16) | (data1 << 8) | data2;
+    }
+
+    private void addEntry(int kind, int tick, int data) {
+        if (entryCount == entryTicks.length) {
+            int capacity = entryCount * 2;
+            entryTicks = Arrays.copyOf(entryTicks, capacity);
+            entryKinds = Arrays.copyOf(entryKinds, capacity);
+            entryData = Arrays.copyOf(entryData, capacity);
+        }
+        entryTicks[entryCount] = tick;
+        entryKinds[entryCount] = kind;
+        entryData[entryCount] = data;
+        entryCount++;
+    }
+
+    /**
+     * Get a MIDI channel for the given instrument, allocating one and scheduling its
+     * program change at tick 0 if necessary.
+     * @param instr instrument
+     * @return channel for the instrument
+     */
+    private int getChannel(Instrument instr) {
+        if (channelForInstrument.containsKey(instr)) {
+            return channelForInstrument.get(instr);
+        }
+        int channel = channelForInstrument.size();
+        if (channel >= synthesizer.getChannels().length) {
+            throw new RuntimeException("Tried to use too many instruments: limited to " + synthesizer.getChannels().length);
+        }
+        instrumentLoader.load(instr);
+        addEntry(KIND_MESSAGE, 0, pack(ShortMessage.PROGRAM_CHANGE | channel, instr.ordinal(), 0));
+        channelForInstrument.put(instr, channel);
+        checkRep();
+        return channel;
+    }
+
+    /**
+     * Start playing the scheduled music on a new scheduling thread and return immediately.
+     * Entries due at the same tick are played in the order they were added. The synthesizer
+     * is closed once every entry has been played, or as soon as a callback fails.
+     * @throws IllegalStateException if this player has already been played or closed
+     */
+    @Override
+    public void play() {
+        if (!started.compareAndSet(false, true)) {
+            throw new IllegalStateException("player has already been played or closed");
+        }
+        instrumentLoader.awaitLoaded();
+
+        final Receiver receiver;
+        try {
+            receiver = synthesizer.getReceiver();
+        } catch (MidiUnavailableException mue) {
+            synthesizer.close();
+            throw new RuntimeException("Unable to get MIDI receiver", mue);
+        }
+
+        // sort entries by tick, breaking ties by insertion order
+        final long[] order = new long[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            order[i] = ((long) entryTicks[i] << Integer.SIZE) | i;
+        }
+        Arrays.sort(order);
+
+        final double nanosPerTick = NANOS_PER_MINUTE / (beatsPerMinute * (double) ticksPerBeat);
+        Thread scheduler = new Thread(() -> runTimeline(receiver, order, nanosPerTick), "receiver-sequencer");
+        scheduler.setPriority(Thread.MAX_PRIORITY);
+        scheduler.start();
+    }
+
+    /**
+     * Play entries in the given order, waiting for each to come due.
+     * @param receiver where to send MIDI messages
+     * @param order entry indices sorted by tick, as built by play()
+     * @param nanosPerTick length of one tick in nanoseconds, > 0
+     */
+    @SuppressWarnings("unchecked")
+    private void runTimeline(Receiver receiver, long[] order, double nanosPerTick) {
+        final ShortMessage message = new ShortMessage();
+        final long start = System.nanoTime();
+        // when the scheduler last got the thread back from a callback
+        long resumed = start;
+        try {
+            for (long key : order) {
+                int index = (int) key;
+                int tick = entryTicks[index];
+                long due = start + (long) (tick * nanosPerTick);
+                awaitNanoTime(due);
+
+                int data = entryData[index];
+                switch (entryKinds[index]) {
+                case KIND_CALLBACK:
+                    Consumer<Double> callback = (Consumer<Double>) callbacks[data];
+                    callbacks[data] = null;
+                    callback.accept(tick / (double) ticksPerBeat);
+                    resumed = System.nanoTime();
+                    break;
+                case KIND_ONSET:
+                    // an onset that came due while a callback ran is late from when it returned
+                    onsetLateness.record(System.nanoTime() - (due - resumed < 0 ? resumed : due));
+                    send(receiver, message, data, tick);
+                    break;
+                default:
+                    send(receiver, message, data, tick);
+                }
+            }
+        } finally {
+            // allow the synthesizer to finish, then close it, even if a callback failed
+            try { Thread.sleep(Duration.ofSeconds(1).toMillis()); } catch (InterruptedException ie) { }
+            receiver.close();
+            synthesizer.close();
+        }
+    }
+
+    /**
+     * Give up this player without playing it, closing its synthesizer. Does nothing once this
+     * player has been played, since its synthesizer is then closed at the end of the timeline,
+     * or if it has already been closed.
+     */
+    @Override
+    public void close() {
+        if (started.compareAndSet(false, true)) {
+            synthesizer.close();
+        }
+    }
+
+    /**
+     * Send a timeline entry's MIDI message.
+     * @param receiver where to send it
+     * @param message message to reuse for it
+     * @param data the entry's packed command | channel, data1 and data2
+     * @param tick when the entry was due, for errors
+     */
+    private static void send(Receiver receiver, ShortMessage message, int data, int tick) {
+        try {
+            message.setMessage(data >>> 16, (data >>> 8) & 0xFF, data & 0xFF);
+        } catch (InvalidMidiDataException imde) {
+            throw new RuntimeException("Cannot send MIDI message at tick " + tick, imde);
+        }
+        receiver.send(message, -1);
+    }
+
+    /**
+     * Wait until System.nanoTime() reaches due: park while it is far away, then spin.
+     * @param due target System.nanoTime()
+     */
+    private static void awaitNanoTime(long due) {
+        for (long wait = due - System.nanoTime(); wait > SPIN_NANOS; wait = due - System.nanoTime()) {
+            LockSupport.parkNanos(wait - SPIN_NANOS);
+        }
+        while (System.nanoTime() - due < 0) {
+            // spin for the last few microseconds
+        }
+    }
+
+    /**
+     * @return number of note onsets played so far
+     */
+    public long onsetCount() {
+        return onsetLateness.count();
+    }
+
+    /**
+     * @return mean time by which note onsets played so far were late, in nanoseconds, not
+     *         counting any delay caused by callbacks,
+     *         or 0 if none have been played
+     */
+    public long meanOnsetJitterNanos() {
+        return Math.round(onsetLateness.meanNanos());
+    }
+
+    /**
+     * @return time by which 99% of the note onsets played so far were at most late, in
+     *         nanoseconds, to within a factor of 2 as LatencyHistogram.percentileNanos(); 0 if none
+     */
+    public long p99OnsetJitterNanos() {
+        return onsetLateness.percentileNanos(99);
+    }
+
+    /**
+     * @return largest time by which any note onset played so far was late, in nanoseconds
+     */
+    public long maxOnsetJitterNanos() {
+        return onsetLateness.maxNanos();
+    }
+
+    /**
+     * @return live histogram of how late each note onset played so far was, for the whole
+     *         spread of lateness
+     */
+    public LatencyHistogram onsetLateness() {
+        return onsetLateness;
+    }
+}
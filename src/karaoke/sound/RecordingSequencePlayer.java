@@ -0,0 +1,250 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Records the notes and events scheduled on it, without playing any sound.
+ * Two recordings are equal iff the same notes and events were scheduled, at the same
+ * ticks, in the same order; this makes recordings cheap to compare against expected
+ * output in tests, to diff, and to dump one record per line.
+ */
+public class RecordingSequencePlayer implements SequencePlayer {
+
+    private static final int INITIAL_CAPACITY = 64;
+    // number of int fields in each recorded note
+    private static final int NOTE_FIELDS = 4;
+    private static final int INSTRUMENT = 0, PITCH = 1, START_TICK = 2, END_TICK = 3;
+
+    private final int ticksPerBeat;
+
+    // recorded notes, NOTE_FIELDS consecutive ints per note
+    private int[] notes = new int[INITIAL_CAPACITY * NOTE_FIELDS];
+    private int noteCount = 0;
+
+    // recorded events, in the order they were added
+    private int[] eventTicks = new int[INITIAL_CAPACITY];
+    private final List<Consumer<Double>> callbacks = new ArrayList<>();
+
+    /*
+     * Abstraction function:
+     *   AF(ticksPerBeat, notes, noteCount, eventTicks, callbacks) =
+     *     the recording of noteCount notes, where note i is instrument notes[4i] at MIDI note
+     *     number notes[4i+1] from tick notes[4i+2] to tick notes[4i+3], and callbacks.size()
+     *     events, where event j calls callbacks.get(j) at tick eventTicks[j],
+     *     with ticksPerBeat ticks per beat
+     * Rep invariant:
+     *   ticksPerBeat > 0,
+     *   noteCount * NOTE_FIELDS <= notes.length,
+     *   callbacks.size() <= eventTicks.length
+     * Safety from rep exposure:
+     *   arrays and the callback list are private and never returned
+     */
+
+    private void checkRep() {
+        assert ticksPerBeat > 0 : "should be positive number of ticks per beat";
+        assert noteCount * NOTE_FIELDS <= notes.length;
+        assert callbacks.size() <= eventTicks.length;
+    }
+
+    /**
+     * Make a new empty recording with the default resolution.
+     */
+    public RecordingSequencePlayer() {
+        this(MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT);
+    }
+
+    /**
+     * Make a new empty recording.
+     * @param ticksPerBeat the number of ticks per beat, > 0; every note and event is rounded
+     *                     down to an integer number of ticks, as in MidiSequencePlayer
+     */
+    public RecordingSequencePlayer(int ticksPerBeat) {
+        if (ticksPerBeat <= 0) {
+            throw new IllegalArgumentException("ticks per beat must be positive");
+        }
+        this.ticksPerBeat = ticksPerBeat;
+        checkRep();
+    }
+
+    @Override
+    public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        if ((noteCount + 1) * NOTE_FIELDS > notes.length) {
+            notes = Arrays.copyOf(notes, notes.length * 2);
+        }
+        int base = noteCount * NOTE_FIELDS;
+        notes[base + INSTRUMENT] = instr.ordinal();
+        notes[base + PITCH] = MidiSequencePlayer.getMidiNote(pitch);
+        notes[base + START_TICK] = (int) (startBeat * ticksPerBeat);
+        notes[base + END_TICK] = (int) ((startBeat + numBeats) * ticksPerBeat);
+        noteCount++;
+        checkRep();
+    }
+
+    @Override
+    public void addEvent(double atBeat, Consumer<Double> callback) {
+        int eventCount = callbacks.size();
+        if (eventCount == eventTicks.length) {
+            eventTicks = Arrays.copyOf(eventTicks, eventCount * 2);
+        }
+        eventTicks[eventCount] = (int) (atBeat * ticksPerBeat);
+        callbacks.add(callback);
+        checkRep();
+    }
+
+    /**
+     * Call every recorded event callback immediately on the calling thread, in order of
+     * tick and then of recording, each with the beat of its tick. Unlike the other players,
+     * this returns only after every callback has returned, and may be called more than once.
+     */
+    @Override
+    public void play() {
+        int eventCount = callbacks.size();
+        long[] order = new long[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            order[i] = ((long) eventTicks[i] << Integer.SIZE) | i;
+        }
+        Arrays.sort(order);
+        for (long key : order) {
+            int index = (int) key;
+            callbacks.get(index).accept(eventTicks[index] / (double) ticksPerBeat);
+        }
+    }
+
+    /**
+     * @return number of notes recorded
+     */
+    public int noteCount() {
+        return noteCount;
+    }
+
+    /**
+     * @return number of events recorded
+     */
+    public int eventCount() {
+        return callbacks.size();
+    }
+
+    /**
+     * Write this recording to out, one record per line, in the format of noteToString
+     * and eventToString: first every note, then every event, in the order they were added.
+     * @param out where to write
+     * @throws IOException if out fails
+     */
+    public void dump(Appendable out) throws IOException {
+        for (int i = 0; i < noteCount; i++) {
+            out.append(noteToString(i)).append('\n');
+        }
+        for (int j = 0; j < callbacks.size(); j++) {
+            out.append(eventToString(j)).append('\n');
+        }
+    }
+
+    /**
+     * @param i index of a recorded note, 0 <= i < noteCount()
+     * @return "NOTE instrument midiNote startTick endTick" describing note i
+     */
+    public String noteToString(int i) {
+        int base = i * NOTE_FIELDS;
+        return "NOTE " + notes[base + INSTRUMENT] + " " + notes[base + PITCH]
+                + " " + notes[base + START_TICK] + " " + notes[base + END_TICK];
+    }
+
+    /**
+     * @param j index of a recorded event, 0 <= j < eventCount()
+     * @return "EVENT tick" describing event j
+     */
+    public String eventToString(int j) {
+        return "EVENT " + eventTicks[j];
+    }
+
+    /**
+     * Compare this recording with an expected one, record by record.
+     * @param expected the recording this one should equal
+     * @param limit maximum number of differences to report, > 0
+     * @return descriptions of at most limit records where this and expected differ, in record
+     *         order; empty iff this.equals(expected)
+     */
+    public List<String> diff(RecordingSequencePlayer expected, int limit) {
+        List<String> differences = new ArrayList<>();
+        if (this.ticksPerBeat != expected.ticksPerBeat) {
+            differences.add("ticks per beat: expected " + expected.ticksPerBeat + ", was " + this.ticksPerBeat);
+        }
+        for (int i = 0; i < Math.max(this.noteCount, expected.noteCount) && differences.size() < limit; i++) {
+            String was = i < this.noteCount ? this.noteToString(i) : "nothing";
+            String want = i < expected.noteCount ? expected.noteToString(i) : "nothing";
+            if (!was.equals(want)) {
+                differences.add("note " + i + ": expected " + want + ", was " + was);
+            }
+        }
+        int eventCount = Math.max(this.eventCount(), expected.eventCount());
+        for (int j = 0; j < eventCount && differences.size() < limit; j++) {
+            String was = j < this.eventCount() ? this.eventToString(j) : "nothing";
+            String want = j < expected.eventCount() ? expected.eventToString(j) : "nothing";
+            if (!was.equals(want)) {
+                differences.add("event " + j + ": expected " + want + ", was " + was);
+            }
+        }
+        return differences;
+    }
+
+    /**
+     * @param that the other object
+     * @return true iff that is a RecordingSequencePlayer with the same resolution that recorded
+     *         the same notes, and events at the same ticks, in the same order; callbacks themselves
+     *         are not compared
+     */
+    @Override
+    public boolean equals(Object that) {
+        return that instanceof RecordingSequencePlayer && this.sameValue((RecordingSequencePlayer) that);
+    }
+
+    private boolean sameValue(RecordingSequencePlayer that) {
+        if (this.ticksPerBeat != that.ticksPerBeat
+                || this.noteCount != that.noteCount
+                || this.eventCount() != that.eventCount()) {
+            return false;
+        }
+        for (int k = 0; k < noteCount * NOTE_FIELDS; k++) {
+            if (this.notes[k] != that.notes[k]) {
+                return false;
+            }
+        }
+        for (int j = 0; j < eventCount(); j++) {
+            if (this.eventTicks[j] != that.eventTicks[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = ticksPerBeat;
+        for (int k = 0; k < noteCount * NOTE_FIELDS; k++) {
+            hash = 31 * hash + notes[k];
+        }
+        for (int j = 0; j < eventCount(); j++) {
+            hash = 31 * hash + eventTicks[j];
+        }
+        return hash;
+    }
+
+    /**
+     * @return the whole recording, in the format written by dump
+     */
+    @Override
+    public String toString() {
+        StringBuilder recording = new StringBuilder();
+        try {
+            dump(recording);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("StringBuilder never fails", ioe);
+        }
+        return recording.toString();
+    }
+}
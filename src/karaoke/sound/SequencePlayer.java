@@ -34,6 +34,23 @@ public interface SequencePlayer {
      * Play the scheduled music.
      */
     public void play();
-    
+
+    /**
+     * Call only from an event callback, to trace how late the callback runs.
+     * By default, returns the time now, which is right for players that run each callback
+     * on their own thread as soon as its event fires.
+     * @return System.nanoTime() at which the event whose callback is running fired
+     */
+    public default long firedNanos() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Give up a player that will never be played, releasing any device it holds. Once play()
+     * has been called, the player releases its devices itself when the music ends, and close()
+     * does nothing. By default, does nothing, which is right for players that hold no device.
+     */
+    public default void close() {
+    }
 
 }
@@ -0,0 +1,228 @@
+package karaoke.sound;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Schedules a sequence of notes and plays it against a virtual clock, without
+ * opening any MIDI device. Notes are only scheduled, never sounded; event callbacks
+ * are fired on a scheduler thread either in real time or sped up by a constant factor.
+ * Useful on headless servers, in containers and for load-testing at accelerated time.
+ */
+public class VirtualClockSequencePlayer implements SequencePlayer {
+
+    /**
+     * Speed-up factor that fires every event as soon as possible, ignoring the tempo.
+     */
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long NANOS_PER_MINUTE = 60_000_000_000L;
+
+    private final int beatsPerMinute;
+    private final int ticksPerBeat;
+    private final double speedUp;
+
+    // scheduled notes, one per index below noteCount
+    private int[] noteInstruments = new int[INITIAL_CAPACITY];
+    private int[] notePitches = new int[INITIAL_CAPACITY];
+    private int[] noteStartTicks = new int[INITIAL_CAPACITY];
+    private int[] noteEndTicks = new int[INITIAL_CAPACITY];
+    private int noteCount = 0;
+
+    // scheduled events, one per index below eventCount
+    private int[] eventTicks = new int[INITIAL_CAPACITY];
+    private Consumer<?>[] eventCallbacks = new Consumer<?>[INITIAL_CAPACITY];
+    private int eventCount = 0;
+
+    private boolean played = false;
+
+    /*
+     * Abstraction function:
+     *   AF(beatsPerMinute, ticksPerBeat, speedUp, notes, events, played) =
+     *     a sequence of notes noteInstruments[i] at pitch notePitches[i] (semitones above middle C)
+     *     sounding from tick noteStartTicks[i] to noteEndTicks[i] for 0 <= i < noteCount, and callbacks
+     *     eventCallbacks[j] due at tick eventTicks[j] for 0 <= j < eventCount, played at beatsPerMinute
+     *     (ticksPerBeat ticks per beat) sped up by speedUp; play() has been called iff played
+     * Rep invariant:
+     *   beatsPerMinute, ticksPerBeat and speedUp are positive,
+     *   note arrays all have the same length >= noteCount,
+     *   event arrays have the same length >= eventCount,
+     *   all ticks are >= 0 and every note ends no earlier than it starts
+     * Safety from rep exposure:
+     *   arrays are private and never returned
+     * Thread safety argument:
+     *   notes and events are only added before play(); the scheduler thread started by play()
+     *   is handed the event arrays through Thread.start(), which happens-before its run,
+     *   and addNote/addEvent fail once play() has been called
+     */
+
+    private void checkRep() {
+        assert beatsPerMinute > 0 : "should be positive number of beats per minute";
+        assert ticksPerBeat > 0 : "should be positive number of ticks per beat";
+        assert speedUp > 0 : "speed-up should be positive";
+        assert noteInstruments.length == notePitches.length
+                && notePitches.length == noteStartTicks.length
+                && noteStartTicks.length == noteEndTicks.length : "note arrays should have same length";
+        assert noteCount <= noteInstruments.length;
+        assert eventTicks.length == eventCallbacks.length : "event arrays should have same length";
+        assert eventCount <= eventTicks.length;
+    }
+
+    /**
+     * Make a new virtual-clock sequence player that plays in real time.
+     * @param beatsPerMinute the number of beats per minute, > 0
+     * @param ticksPerBeat the number of ticks per beat, > 0; every note and event is rounded
+     *                     down to an integer number of ticks, as in MidiSequencePlayer
+     */
+    public VirtualClockSequencePlayer(int beatsPerMinute, int ticksPerBeat) {
+        this(beatsPerMinute, ticksPerBeat, 1);
+    }
+
+    /**
+     * Make a new virtual-clock sequence player.
+     * @param beatsPerMinute the number of beats per minute, > 0
+     * @param ticksPerBeat the number of ticks per beat, > 0; every note and event is rounded
+     *                     down to an integer number of ticks, as in MidiSequencePlayer
+     * @param speedUp how many times faster than real time to play, > 0;
+     *                AS_FAST_AS_POSSIBLE fires events back to back
+     */
+    public VirtualClockSequencePlayer(int beatsPerMinute, int ticksPerBeat, double speedUp) {
+        if (beatsPerMinute <= 0 || ticksPerBeat <= 0 || !(speedUp > 0)) {
+            throw new IllegalArgumentException("tempo, resolution and speed-up must be positive");
+        }
+        this.beatsPerMinute = beatsPerMinute;
+        this.ticksPerBeat = ticksPerBeat;
+        this.speedUp = speedUp;
+        checkRep();
+    }
+
+    @Override
+    public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        checkNotPlayed();
+        if (noteCount == noteInstruments.length) {
+            int capacity = noteCount * 2;
+            noteInstruments = Arrays.copyOf(noteInstruments, capacity);
+            notePitches = Arrays.copyOf(notePitches, capacity);
+            noteStartTicks = Arrays.copyOf(noteStartTicks, capacity);
+            noteEndTicks = Arrays.copyOf(noteEndTicks, capacity);
+        }
+        noteInstruments[noteCount] = instr.ordinal();
+        notePitches[noteCount] = pitch.difference(Pitch.MIDDLE_C);
+        noteStartTicks[noteCount] = (int) (startBeat * ticksPerBeat);
+        noteEndTicks[noteCount] = (int) ((startBeat + numBeats) * ticksPerBeat);
+        noteCount++;
+        checkRep();
+    }
+
+    @Override
+    public void addEvent(double atBeat, Consumer<Double> callback) {
+        checkNotPlayed();
+        if (eventCount == eventTicks.length) {
+            int capacity = eventCount * 2;
+            eventTicks = Arrays.copyOf(eventTicks, capacity);
+            eventCallbacks = Arrays.copyOf(eventCallbacks, capacity);
+        }
+        eventTicks[eventCount] = (int) (atBeat * ticksPerBeat);
+        eventCallbacks[eventCount] = callback;
+        eventCount++;
+        checkRep();
+    }
+
+    private void checkNotPlayed() {
+        if (played) {
+            throw new IllegalStateException("cannot schedule after play() has been called");
+        }
+    }
+
+    /**
+     * Start playing the scheduled events on a new scheduler thread and return immediately.
+     * Each callback is called at its tick on the virtual clock, with the beat of that tick;
+     * events at the same tick are called in the order they were added.
+     * @throws IllegalStateException if this player has already been played
+     */
+    @Override
+    public void play() {
+        checkNotPlayed();
+        played = true;
+
+        // sort events by tick, breaking ties by insertion order, without boxing:
+        // each key holds the tick in its high half and the event index in its low half
+        final long[] order = new long[eventCount];
+        for (int i = 0; i < eventCount; i++) {
+            order[i] = ((long) eventTicks[i] << Integer.SIZE) | i;
+        }
+        Arrays.sort(order);
+
+        final double nanosPerTick = NANOS_PER_MINUTE / (beatsPerMinute * (double) ticksPerBeat * speedUp);
+        Thread scheduler = new Thread(() -> runEvents(order, nanosPerTick), "virtual-clock-sequencer");
+        scheduler.start();
+    }
+
+    /**
+     * Fire events in the given order, waiting for each to come due on the virtual clock.
+     * @param order event indices sorted by tick, as built by play()
+     * @param nanosPerTick length of one tick in wall-clock nanoseconds, >= 0
+     */
+    @SuppressWarnings("unchecked")
+    private void runEvents(long[] order, double nanosPerTick) {
+        final long start = System.nanoTime();
+        for (long key : order) {
+            int index = (int) key;
+            int tick = eventTicks[index];
+            long due = start + (long) (tick * nanosPerTick);
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            Consumer<Double> callback = (Consumer<Double>) eventCallbacks[index];
+            eventCallbacks[index] = null;
+            callback.accept(tick / (double) ticksPerBeat);
+        }
+    }
+
+    /**
+     * @return number of notes scheduled so far
+     */
+    public int noteCount() {
+        return noteCount;
+    }
+
+    /**
+     * @return number of events scheduled so far
+     */
+    public int eventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @return the tick at which the last scheduled note or event ends, or 0 if none are scheduled
+     */
+    public int lastTick() {
+        int last = 0;
+        for (int i = 0; i < noteCount; i++) {
+            last = Math.max(last, noteEndTicks[i]);
+        }
+        for (int i = 0; i < eventCount; i++) {
+            last = Math.max(last, eventTicks[i]);
+        }
+        return last;
+    }
+
+    /**
+     * @return a string that displays the scheduled notes, one per line, as
+     *         instrument, pitch and start and end ticks
+     */
+    @Override
+    public String toString() {
+        StringBuilder notes = new StringBuilder();
+        Instrument[] instruments = Instrument.values();
+        for (int i = 0; i < noteCount; i++) {
+            notes.append("Note: ").append(instruments[noteInstruments[i]])
+                 .append(" Pitch: ").append(Pitch.MIDDLE_C.transpose(notePitches[i]))
+                 .append(" Ticks: ").append(noteStartTicks[i]).append('-').append(noteEndTicks[i])
+                 .append('\n');
+        }
+        return notes.toString();
+    }
+}
@@ -0,0 +1,144 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Test cases for the Flight Recorder events of parsing, scheduling, dispatching and streaming:
+ * ParseEvent, ScheduleEvent, DispatchEvent and StreamWriteEvent
+ */
+public class FlightRecorderEventsTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for the Flight Recorder events
+    //
+    // karaoke.PieceParse:
+    //      piece of 1 voice with lyrics
+    // karaoke.MusicSchedule:
+    //      room played on a virtual clock
+    // karaoke.CallbackDispatch:
+    //      every lyric callback of the room
+    // karaoke.StreamWrite:
+    //      snapshot on connect with no lines, every line sung while connected
+    //
+    // Cover each part at least once
+
+    // speed-up of the virtual clock, so the song takes a fraction of a second
+    private static final double SPEED_UP = 40;
+
+    // Covers the following:
+    //
+    // karaoke.PieceParse:
+    //      piece of 1 voice with lyrics
+    // karaoke.MusicSchedule:
+    //      room played on a virtual clock
+    // karaoke.CallbackDispatch:
+    //      every lyric callback of the room
+    // karaoke.StreamWrite:
+    //      snapshot on connect with no lines, every line sung while connected
+    @Test
+    public void testEventsOfARoom() throws IOException, UnableToParseException, InterruptedException {
+        final String filename = "sample-abc/piece3.abc";
+        List<RecordedEvent> events = new ArrayList<>();
+        int linesRead = 0;
+        Piece piece;
+        Path file = Files.createTempFile("karaoke", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[] { "karaoke.PieceParse", "karaoke.MusicSchedule",
+                    "karaoke.CallbackDispatch", "karaoke.StreamWrite" }) {
+                recording.enable(name);
+            }
+            recording.start();
+
+            piece = Piece.parseFromFile(filename);
+            final int serverPort = 5015;
+            WebServer server = new WebServer(serverPort);
+            server.start();
+            Room room = new Room("stage", piece, piece.createVirtualClockPlayer(SPEED_UP), SPEED_UP);
+            server.addRoom(room);
+            final URL voice = new URL("http://localhost:" + server.port() + "/room/stage/voice/0");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(voice.openStream(), UTF_8));
+            reader.readLine(); // Get rid of the first 2k spaces.
+            room.play();
+            room.awaitEnd();
+            while (reader.readLine() != null) {
+                linesRead++;
+            }
+            server.stop();
+
+            recording.stop();
+            recording.dump(file);
+            events.addAll(RecordingFile.readAllEvents(file));
+        } finally {
+            Files.delete(file);
+        }
+        assertTrue("Expected lines sung", linesRead > 0);
+
+        List<RecordedEvent> parses = named(events, "karaoke.PieceParse");
+        assertEquals("Expected one parse", 1, parses.size());
+        RecordedEvent parse = parses.get(0);
+        int characters = 0;
+        for (String line : Files.readAllLines(Paths.get(filename), UTF_8)) {
+            characters += line.length() + 1; // as read by Piece.parseFromFile, with a newline after each line
+        }
+        assertEquals("Expected length of the piece", characters, parse.getInt("characters"));
+        assertEquals("Expected voices", piece.getVoices().size(), parse.getInt("voices"));
+        assertEquals("Expected beats", piece.getMusic().duration(), parse.getDouble("beats"), 0.001);
+        assertTrue("Expected grammar phase timed", parse.getLong("grammarNanos") > 0);
+        assertTrue("Expected compress phase timed", parse.getLong("compressNanos") > 0);
+        assertTrue("Expected phases within the parse", parse.getLong("grammarNanos") + parse.getLong("buildNanos")
+                + parse.getLong("compressNanos") <= parse.getDuration().toNanos());
+
+        List<RecordedEvent> schedules = named(events, "karaoke.MusicSchedule");
+        assertEquals("Expected one schedule", 1, schedules.size());
+        RecordedEvent schedule = schedules.get(0);
+        assertEquals("Expected room", "stage", schedule.getString("room"));
+        assertTrue("Expected notes scheduled", schedule.getInt("notes") > 0);
+        // a text stream that falls behind skips to the newest line, so fewer lines may be read
+        assertTrue("Expected an event per line sung", schedule.getInt("events") >= linesRead);
+        assertEquals("Expected beats", piece.getMusic().duration(), schedule.getDouble("beats"), 0.001);
+
+        assertTrue("Expected every lyric callback dispatched",
+                named(events, "karaoke.CallbackDispatch").size() >= linesRead);
+
+        int linesWritten = 0;
+        for (RecordedEvent write : named(events, "karaoke.StreamWrite")) {
+            assertEquals("Expected stream of the room", "room/stage/voice/0", write.getString("stream"));
+            linesWritten += write.getInt("lines");
+        }
+        assertEquals("Expected every line written", linesRead, linesWritten);
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> named = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                named.add(event);
+            }
+        }
+        return named;
+    }
+}
@@ -0,0 +1,78 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import karaoke.LyricLatency.Stage;
+
+/**
+ * Test cases for LyricLatency
+ */
+public class LyricLatencyTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for LyricLatency
+    //
+    // published():
+    //      due and fired known, due unknown, fired unknown; fired before due, after due
+    // written():
+    //      due known, unknown
+    // stage(), toString():
+    //      no latencies recorded, > 0 latencies recorded
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // published():
+    //      due and fired known, due unknown, fired unknown; fired before due, after due
+    // stage():
+    //      no latencies recorded, > 0 latencies recorded
+    @Test
+    public void testPublished() {
+        LyricLatency latency = new LyricLatency();
+        for (Stage stage : Stage.values()) {
+            assertEquals("Expected empty stage " + stage, 0, latency.stage(stage).count());
+        }
+        latency.published(1_000, 1_500, 4_000);
+        latency.published(1_000, 900, 1_000);
+        latency.published(-1, 2_000, 3_000);
+        latency.published(-1, -1, 3_000);
+
+        assertEquals("Expected lines with a due time", 2, latency.stage(Stage.SEQUENCER).count());
+        assertEquals("Expected latest firing", 500, latency.stage(Stage.SEQUENCER).maxNanos());
+        assertEquals("Expected early firing counted as on time",
+                1, latency.stage(Stage.SEQUENCER).bucketCount(0));
+        assertEquals("Expected lines with a firing time", 3, latency.stage(Stage.CALLBACK).count());
+        assertEquals("Expected slowest callback", 2_500, latency.stage(Stage.CALLBACK).maxNanos());
+        assertEquals("Expected nothing written", 0, latency.stage(Stage.WRITE).count());
+    }
+
+    // Covers the following:
+    //
+    // written():
+    //      due known, unknown
+    // toString():
+    //      no latencies recorded, > 0 latencies recorded
+    @Test
+    public void testWritten() {
+        LyricLatency latency = new LyricLatency();
+        assertTrue("Expected every stage shown", latency.toString().contains("beat_to_write: count 0"));
+        latency.written(1_000, 2_000, 5_000);
+        latency.written(-1, 2_000, 2_500);
+
+        assertEquals("Expected every write", 2, latency.stage(Stage.WRITE).count());
+        assertEquals("Expected slowest write", 3_000, latency.stage(Stage.WRITE).maxNanos());
+        assertEquals("Expected only lines with a due time", 1, latency.stage(Stage.BEAT_TO_WRITE).count());
+        assertEquals("Expected whole trip", 4_000, latency.stage(Stage.BEAT_TO_WRITE).maxNanos());
+        String summary = latency.toString();
+        assertTrue("Expected writes shown", summary.contains("write: count 2"));
+        assertTrue("Expected one line per stage", summary.split("\n").length == Stage.values().length);
+    }
+}
@@ -0,0 +1,332 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import karaoke.sound.LatencyHistogram;
+
+/**
+ * Test cases for LyricLog
+ */
+public class LyricLogTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for LyricLog
+    //
+    // append(), size(), get(), latest(), lines():
+    //      0, 1, > 1 lines; fewer lines than capacity, more lines than capacity
+    //      capacity is a power of two, not a power of two
+    //      get() a retained line, an overwritten line, an unpublished line
+    // encoded():
+    //      ASCII line, non-ASCII line; retained line, overwritten line; same line read twice
+    // append() at a beat, scheduledMillis(), encodedTimed():
+    //      log has no timebase, has a timebase; beat 0, > 0; line with characters that need escaping
+    // awaitMoreThan():
+    //      lines already available, published while waiting, timeout elapses
+    //      1, > 1 waiting readers; concurrent writers; reader waits many times, interrupted
+    //      log closed before waiting, while waiting; reader behind, caught up when closed
+    // close(), isClosed():
+    //      open log, closed log; close twice; append after close; listener run on close
+    // append() traced from its scheduled beat, latency(), written():
+    //      log has no timebase, has a timebase; line written 0, > 1 times; untraced line written
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // append(), size(), get(), latest(), lines():
+    //      0, 1, > 1 lines; fewer lines than capacity
+    //      get() a retained line
+    @Test
+    public void testAppendWithinCapacity() {
+        LyricLog log = new LyricLog();
+        assertEquals("Expected empty log", 0, log.size());
+        assertNull("Expected no latest line", log.latest());
+        assertEquals("Expected no lines", Collections.emptyList(), log.lines());
+
+        assertEquals("Expected first sequence number", 0, log.append("*A*-maz-ing"));
+        assertEquals("Expected latest line", "*A*-maz-ing", log.latest());
+        assertEquals("Expected second sequence number", 1, log.append("A-*maz*-ing"));
+        assertEquals("Expected two lines", 2, log.size());
+        assertEquals("Expected first line", "*A*-maz-ing", log.get(0));
+        assertEquals("Expected all lines", Arrays.asList("*A*-maz-ing", "A-*maz*-ing"), log.lines());
+        assertEquals("Expected oldest retained", 0, log.oldestRetained());
+    }
+
+    // Covers the following:
+    //
+    // append(), size(), get(), latest(), lines():
+    //      more lines than capacity; capacity is not a power of two
+    //      get() an overwritten line
+    @Test
+    public void testAppendBeyondCapacity() {
+        LyricLog log = new LyricLog(3); // rounded up to 4
+        for (int i = 0; i < 10; i++) {
+            log.append("line " + i);
+        }
+        assertEquals("Expected all lines counted", 10, log.size());
+        assertEquals("Expected oldest retained", 6, log.oldestRetained());
+        assertNull("Expected overwritten line", log.get(5));
+        assertEquals("Expected retained line", "line 6", log.get(6));
+        assertEquals("Expected retained lines",
+                Arrays.asList("line 6", "line 7", "line 8", "line 9"), log.lines());
+    }
+
+    // Covers the following:
+    //
+    // encoded():
+    //      ASCII line, non-ASCII line; retained line, overwritten line; same line read twice
+    @Test
+    public void testEncoded() {
+        LyricLog log = new LyricLog(2);
+        log.append("*zero*");
+        log.append("*one*");
+        log.append("*two*");
+        assertNull("Expected overwritten line", log.encoded(0));
+
+        ByteBuffer first = log.encoded(1);
+        byte[] bytes = new byte[first.remaining()];
+        first.get(bytes);
+        assertEquals("Expected line and newline", "*one*\n", new String(bytes, StandardCharsets.UTF_8));
+        assertEquals("Expected a fresh view each time", bytes.length, log.encoded(1).remaining());
+        assertTrue("Expected read-only bytes", log.encoded(1).isReadOnly());
+
+        LyricLog accented = new LyricLog();
+        accented.append("*caf\u00e9*");
+        assertEquals("Expected UTF-8 encoding", "*caf\u00e9*\n".getBytes(StandardCharsets.UTF_8).length,
+                accented.encoded(0).remaining());
+    }
+
+    // Covers the following:
+    //
+    // get():
+    //      an unpublished line
+    @Test(expected=IndexOutOfBoundsException.class)
+    public void testGetUnpublished() {
+        LyricLog log = new LyricLog();
+        log.append("*one*");
+        log.get(1);
+    }
+
+    // Covers the following:
+    //
+    // awaitMoreThan():
+    //      lines already available, timeout elapses
+    @Test
+    public void testAwaitWithoutWaiting() throws InterruptedException {
+        LyricLog log = new LyricLog();
+        assertEquals("Expected timeout", 0, log.awaitMoreThan(0, 10, TimeUnit.MILLISECONDS));
+        log.append("*one*");
+        assertEquals("Expected line already available", 1, log.awaitMoreThan(0));
+    }
+
+    // Covers the following:
+    //
+    // awaitMoreThan():
+    //      timeout elapses; reader waits many times, interrupted
+    @Test
+    public void testWaitersDoNotLinger() throws InterruptedException {
+        LyricLog log = new LyricLog();
+        for (int i = 0; i < 100; i++) {
+            assertEquals("Expected timeout", 0, log.awaitMoreThan(0, 1, TimeUnit.MICROSECONDS));
+        }
+        assertEquals("Expected no reader left waiting after timeouts", 0, log.waiting());
+
+        Thread.currentThread().interrupt();
+        try {
+            log.awaitMoreThan(0, 1, TimeUnit.SECONDS);
+            fail("Expected interrupted wait");
+        } catch (InterruptedException ie) {
+            // expected
+        }
+        assertEquals("Expected no reader left waiting after an interrupt", 0, log.waiting());
+    }
+
+    // Covers the following:
+    //
+    // awaitMoreThan():
+    //      published while waiting; > 1 waiting readers; concurrent writers
+    // append():
+    //      capacity is a power of two
+    @Test
+    public void testReadersWokenByWriters() throws InterruptedException {
+        final int writers = 4;
+        final int linesPerWriter = 1000;
+        final int total = writers * linesPerWriter;
+        LyricLog log = new LyricLog(total);
+
+        final int readers = 3;
+        List<Thread> threads = new ArrayList<>();
+        List<Long> seen = Collections.synchronizedList(new ArrayList<>());
+        for (int r = 0; r < readers; r++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    long count = 0;
+                    while (count < total) {
+                        count = log.awaitMoreThan(count);
+                    }
+                    seen.add(count);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            });
+            reader.start();
+            threads.add(reader);
+        }
+        for (int w = 0; w < writers; w++) {
+            final String prefix = "writer " + w + " line ";
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < linesPerWriter; i++) {
+                    log.append(prefix + i);
+                }
+            });
+            writer.start();
+            threads.add(writer);
+        }
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        assertEquals("Expected every line published", total, log.size());
+        assertEquals("Expected every line retained", total, log.lines().size());
+        assertEquals("Expected every reader to see every line",
+                Collections.nCopies(readers, (long) total), seen);
+    }
+
+    // Covers the following:
+    //
+    // append() at a beat, scheduledMillis(), encodedTimed():
+    //      log has no timebase, has a timebase; beat 0, > 0; line with characters that need escaping
+    @Test
+    public void testScheduledAtBeat() {
+        LyricLog log = new LyricLog();
+        long before = System.currentTimeMillis();
+        log.append("*now*", 4);
+        long after = System.currentTimeMillis();
+        assertTrue("Expected line without timebase scheduled now",
+                before <= log.scheduledMillis(0) && log.scheduledMillis(0) <= after);
+
+        final long beatZero = 1_000_000;
+        final int beatsPerMinute = 120; // 500 ms per beat
+        log.setTimebase(new Timebase(beatZero, beatsPerMinute));
+        log.append("*first*", 0);
+        log.append("\"*second*\"", 2.5);
+        assertEquals("Expected beat 0 at the start", beatZero, log.scheduledMillis(1));
+        assertEquals("Expected later beat", beatZero + 1250, log.scheduledMillis(2));
+        assertEquals("Expected line itself unchanged", "\"*second*\"", log.get(2));
+
+        ByteBuffer timed = log.encodedTimed(2);
+        byte[] bytes = new byte[timed.remaining()];
+        timed.get(bytes);
+        assertEquals("Expected time and escaped line as JSON", "[1001250,\"\\\"*second*\\\"\"]\n",
+                new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    // Covers the following:
+    //
+    // awaitMoreThan():
+    //      log closed before waiting, while waiting; reader behind, caught up when closed
+    // close(), isClosed():
+    //      open log, closed log; close twice; listener run on close
+    @Test
+    public void testCloseWakesReaders() throws InterruptedException {
+        LyricLog log = new LyricLog();
+        List<Long> seen = Collections.synchronizedList(new ArrayList<>());
+        List<Boolean> closedWhenRun = Collections.synchronizedList(new ArrayList<>());
+        log.addListener(() -> closedWhenRun.add(log.isClosed()));
+        log.append("*last*");
+        assertFalse("Expected open log", log.isClosed());
+
+        Thread reader = new Thread(() -> {
+            try {
+                seen.add(log.awaitMoreThan(1));
+            } catch (InterruptedException ie) {
+                return;
+            }
+        });
+        reader.start();
+        // give the reader a bounded time to start waiting; if it has not by then, it finds the
+        // log closed before waiting, and the assertions below hold just the same
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (reader.isAlive() && System.nanoTime() < deadline
+                && reader.getState() != Thread.State.WAITING && reader.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+        log.close();
+        log.close();
+        reader.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertTrue("Expected closed log", log.isClosed());
+        assertFalse("Expected reader woken", reader.isAlive());
+        assertEquals("Expected listener run once per line and once on close",
+                Arrays.asList(false, true), closedWhenRun);
+        assertEquals("Expected reader woken without a new line", Arrays.asList(1L), seen);
+        assertEquals("Expected a reader behind to still get every line", 1, log.awaitMoreThan(0));
+        assertEquals("Expected a caught up reader not to wait", 1, log.awaitMoreThan(1));
+    }
+
+    // Covers the following:
+    //
+    // close(), isClosed():
+    //      append after close
+    @Test(expected=IllegalStateException.class)
+    public void testAppendAfterClose() {
+        LyricLog log = new LyricLog();
+        log.close();
+        log.append("*too late*");
+    }
+
+    // Covers the following:
+    //
+    // append() traced from its scheduled beat, latency(), written():
+    //      log has no timebase, has a timebase; line written 0, > 1 times; untraced line written
+    @Test
+    public void testTracedAppend() {
+        LyricLog log = new LyricLog();
+        LyricLatency latency = log.latency();
+        log.append("*no*-time-base", 1, 1, System.nanoTime());
+        assertEquals("Expected no sequencer latency without a timebase", 
+                0, latency.stage(LyricLatency.Stage.SEQUENCER).count());
+        assertEquals("Expected callback latency", 1, latency.stage(LyricLatency.Stage.CALLBACK).count());
+
+        final int beatsPerMinute = 60; // 1 s per beat
+        // beat 0 was 2 s ago, so beat 0.5 was due 1.5 s ago
+        Timebase timebase = new Timebase(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(2), beatsPerMinute);
+        log.setTimebase(timebase);
+        // fired 1 s after its beat was due, as if the sequencer had stalled
+        final long dueNanos = timebase.toNanos(0.5);
+        final long firedNanos = dueNanos + TimeUnit.SECONDS.toNanos(1);
+        log.append("*late*", 0.5, 0.5, firedNanos);
+        LatencyHistogram sequencer = latency.stage(LyricLatency.Stage.SEQUENCER);
+        assertEquals("Expected sequencer latency", 1, sequencer.count());
+        assertEquals("Expected the lateness of the event", TimeUnit.SECONDS.toNanos(1), sequencer.maxNanos());
+        assertEquals("Expected nothing written yet", 0, latency.stage(LyricLatency.Stage.WRITE).count());
+
+        log.written(1);
+        log.written(1);
+        log.append("*un*-traced");
+        log.written(2);
+        assertEquals("Expected every write", 3, latency.stage(LyricLatency.Stage.WRITE).count());
+        LatencyHistogram beatToWrite = latency.stage(LyricLatency.Stage.BEAT_TO_WRITE);
+        assertEquals("Expected only traced lines from their beat", 2, beatToWrite.count());
+        assertTrue("Expected at least the lateness of the event", 
+                beatToWrite.maxNanos() >= TimeUnit.SECONDS.toNanos(1));
+    }
+}
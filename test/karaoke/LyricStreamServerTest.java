@@ -0,0 +1,241 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Test cases for LyricStreamServer
+ */
+public class LyricStreamServerTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Helper method that gets a reader from a request
+    private static BufferedReader getURLReader(LyricStreamServer server, String path) throws IOException {
+        final URL valid = new URL("http://localhost:" + server.port() + path);
+        final InputStream input = valid.openStream();
+        return new BufferedReader(new InputStreamReader(input, UTF_8));
+    }
+
+    // Testing Strategy for LyricStreamServer
+    //
+    // start():
+    //      voiceToLyricLog contains 1 voice, > 1 voice
+    //      log is empty, non-empty when a client connects
+    //      1, > 1 clients reading the same URL; many clients
+    // requests:
+    //      known voice, unknown path
+    //      no query, query with last > 1
+    // slow clients:
+    //      client that never reads: lines skipped, client evicted, appends not delayed
+    // end of song:
+    //      log closed while a client is connected, before a client connects
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // start():
+    //      voiceToLyricLog contains > 1 voice
+    //      log is empty when a client connects
+    //      > 1 clients reading the same URL
+    @Test
+    public void testMultipleVoices() throws IOException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        voiceToLyricLog.put("voice1", new LyricLog());
+        voiceToLyricLog.put("voice2", new LyricLog());
+        LyricStreamServer server = new LyricStreamServer(0);
+        server.start(voiceToLyricLog);
+
+        BufferedReader firstVoiceReader1 = getURLReader(server, "/textStream/voice_0");
+        BufferedReader firstVoiceReader2 = getURLReader(server, "/textStream/voice_0");
+        BufferedReader secondVoiceReader = getURLReader(server, "/textStream/voice_1");
+        firstVoiceReader1.readLine(); // Get rid of the first 2k spaces.
+        firstVoiceReader2.readLine(); // Get rid of the first 2k spaces.
+        secondVoiceReader.readLine(); // Get rid of the first 2k spaces.
+
+        String firstLine = "*A*-maz-ing grace";
+        voiceToLyricLog.get("voice1").append(firstLine);
+        assertEquals("Expected correct response", firstLine, firstVoiceReader1.readLine());
+        assertEquals("Expected correct response", firstLine, firstVoiceReader2.readLine());
+
+        String secondLine = "*t\u00e9st*-ing";
+        voiceToLyricLog.get("voice2").append(secondLine);
+        assertEquals("Expected correct response", secondLine, secondVoiceReader.readLine());
+
+        String thirdLine = "A-*maz*-ing grace";
+        voiceToLyricLog.get("voice1").append(thirdLine);
+        assertEquals("Expected correct response", thirdLine, firstVoiceReader1.readLine());
+        assertEquals("Expected correct response", thirdLine, firstVoiceReader2.readLine());
+
+        server.stop();
+    }
+
+    // Covers the following:
+    //
+    // start():
+    //      voiceToLyricLog contains 1 voice
+    //      log is non-empty when a client connects
+    //      many clients
+    @Test
+    public void testManyClients() throws IOException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put("voice1", log);
+        log.append("*first*");
+        LyricStreamServer server = new LyricStreamServer(0);
+        server.start(voiceToLyricLog);
+
+        final int clients = 200;
+        List<BufferedReader> readers = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            BufferedReader reader = getURLReader(server, "/textStream/voice_0");
+            assertTrue("Expected padding", reader.readLine().trim().isEmpty());
+            assertEquals("Expected newest line on connect", "*first*", reader.readLine());
+            readers.add(reader);
+        }
+        log.append("*second*");
+        for (BufferedReader reader : readers) {
+            assertEquals("Expected correct response", "*second*", reader.readLine());
+        }
+
+        server.stop();
+    }
+
+    // Covers the following:
+    //
+    // requests:
+    //      unknown path
+    @Test(expected=FileNotFoundException.class)
+    public void testUnknownPath() throws IOException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        voiceToLyricLog.put("voice1", new LyricLog());
+        LyricStreamServer server = new LyricStreamServer(0);
+        server.start(voiceToLyricLog);
+        try {
+            getURLReader(server, "/textStream/voice_7");
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Covers the following:
+    //
+    // slow clients:
+    //      client that never reads: lines skipped, client evicted, appends not delayed
+    @Test
+    public void testSlowClientEvicted() throws IOException, InterruptedException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put("voice1", log);
+        final int maxQueuedLines = 2;
+        final long evictAfterMillis = 200;
+        LyricStreamServer server = new LyricStreamServer(0, maxQueuedLines, evictAfterMillis);
+        server.start(voiceToLyricLog);
+
+        // a client that subscribes, then never reads again
+        SocketChannel slow = SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+        slow.write(ByteBuffer.wrap("GET /textStream/voice_0 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII)));
+
+        // publish far more than the socket buffers hold; every append returns without waiting
+        char[] filler = new char[1 << 16];
+        Arrays.fill(filler, 'a');
+        final String line = "*" + new String(filler) + "*";
+        final int lines = 500;
+        for (int i = 0; i < lines; i++) {
+            log.append(line);
+            Thread.sleep(1);
+        }
+        assertTrue("Expected lines skipped for the slow client", server.skippedLineCount() > 0);
+
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (server.evictedClientCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals("Expected slow client evicted", 1, server.evictedClientCount());
+
+        // the server still streams to clients that keep up
+        BufferedReader reader = getURLReader(server, "/textStream/voice_0");
+        reader.readLine(); // Get rid of the first 2k spaces.
+        assertEquals("Expected newest line on connect", line, reader.readLine());
+
+        slow.close();
+        server.stop();
+    }
+
+    // Covers the following:
+    //
+    // end of song:
+    //      log closed while a client is connected, before a client connects
+    @Test
+    public void testStreamsEndWhenLogCloses() throws IOException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put("voice1", log);
+        LyricStreamServer server = new LyricStreamServer(0);
+        server.start(voiceToLyricLog);
+
+        BufferedReader reader = getURLReader(server, "/textStream/voice_0");
+        reader.readLine(); // Get rid of the first 2k spaces.
+        log.append("*grace*");
+        assertEquals("Expected correct response", "*grace*", reader.readLine());
+        log.close();
+        assertEquals("Expected stream to end", null, reader.readLine());
+
+        BufferedReader late = getURLReader(server, "/textStream/voice_0");
+        late.readLine(); // Get rid of the first 2k spaces.
+        assertEquals("Expected newest line on connect", "*grace*", late.readLine());
+        assertEquals("Expected stream to end", null, late.readLine());
+
+        server.stop();
+    }
+
+    // Covers the following:
+    //
+    // requests:
+    //      query with last > 1
+    @Test
+    public void testSnapshotOnConnect() throws IOException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put("voice1", log);
+        for (int i = 0; i < 5; i++) {
+            log.append("line " + i);
+        }
+        LyricStreamServer server = new LyricStreamServer(0, 1, LyricStreamServer.DEFAULT_EVICT_AFTER_MILLIS);
+        server.start(voiceToLyricLog);
+
+        BufferedReader reader = getURLReader(server, "/textStream/voice_0?last=3");
+        reader.readLine(); // Get rid of the first 2k spaces.
+        assertEquals("Expected last 3 lines", "line 2", reader.readLine());
+        assertEquals("Expected last 3 lines", "line 3", reader.readLine());
+        assertEquals("Expected last 3 lines", "line 4", reader.readLine());
+        log.append("line 5");
+        assertEquals("Expected new line after the snapshot", "line 5", reader.readLine());
+
+        server.stop();
+    }
+}
@@ -0,0 +1,118 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import karaoke.sound.Instrument;
+import karaoke.sound.Pitch;
+
+/**
+ * Test cases for LyricTimeline
+ */
+public class LyricTimelineTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for LyricTimeline
+    //
+    // compile():
+    //      piece has 1 voice, > 1 voice
+    //      voice has 0, 1, > 1 lines
+    //      lines at beat 0, at a later beat, at a fractional beat
+    // toJson():
+    //      0, > 1 lines; line with characters that need escaping
+    // equals(), hashCode():
+    //      same piece compiled twice, different tempos
+    //
+    // Cover each part at least once
+
+    private static final String VOICE1 = "voice1";
+    private static final String VOICE2 = "voice2";
+
+    /*
+     * A piece at the given tempo in which voice1 sings three syllables, at beats 0, 1 and 2.5,
+     * while voice2 sings none
+     */
+    private static Piece twoVoicePiece(int beatsPerMinute) {
+        Music voice1 = Music.concat(
+                Music.concat(
+                        Music.together(Music.note(1, Pitch.MIDDLE_C, Instrument.PIANO),
+                                Music.lyrics("*A*-maz-ing", VOICE1)),
+                        Music.together(Music.note(1.5, Pitch.MIDDLE_C, Instrument.PIANO),
+                                Music.lyrics("A-*maz*-ing", VOICE1))),
+                Music.together(Music.note(0.5, Pitch.MIDDLE_C, Instrument.PIANO),
+                        Music.lyrics("A-maz-*\"ing\"*", VOICE1)));
+        Music voice2 = Music.note(3, Pitch.MIDDLE_C.transpose(-12), Instrument.PIANO);
+        return new Piece("Unknown", 1, 1.0 / 4, "4/4", beatsPerMinute, "two voices",
+                new HashSet<>(Arrays.asList(VOICE1, VOICE2)), "C", Music.together(voice1, voice2));
+    }
+
+    // Covers the following:
+    //
+    // compile():
+    //      piece has > 1 voice
+    //      voice has 0, > 1 lines
+    //      lines at beat 0, at a later beat, at a fractional beat
+    @Test
+    public void testCompileTwoVoices() {
+        final int beatsPerMinute = 120; // 500 ms per beat
+        LyricTimeline timeline = LyricTimeline.compile(twoVoicePiece(beatsPerMinute));
+
+        assertEquals("Expected all voices", new TreeSet<>(Arrays.asList(VOICE1, VOICE2)), timeline.voices());
+        assertEquals("Expected duration", 1500, timeline.durationMillis());
+        assertEquals("Expected three lines", 3, timeline.lineCount(VOICE1));
+        assertEquals("Expected no lines", 0, timeline.lineCount(VOICE2));
+
+        assertEquals("Expected first line", "*A*-maz-ing", timeline.line(VOICE1, 0));
+        assertEquals("Expected first line at the start", 0, timeline.offsetMillis(VOICE1, 0));
+        assertEquals("Expected second line", "A-*maz*-ing", timeline.line(VOICE1, 1));
+        assertEquals("Expected second line after one beat", 500, timeline.offsetMillis(VOICE1, 1));
+        assertEquals("Expected third line after 2.5 beats", 1250, timeline.offsetMillis(VOICE1, 2));
+    }
+
+    // Covers the following:
+    //
+    // compile():
+    //      piece has 1 voice; voice has 1 line
+    // toJson():
+    //      0, > 1 lines; line with characters that need escaping
+    @Test
+    public void testToJson() {
+        LyricTimeline timeline = LyricTimeline.compile(twoVoicePiece(60));
+        assertEquals("Expected compact JSON",
+                "{\"voice\":\"voice1\",\"durationMillis\":3000,\"lines\":["
+                + "[0,\"*A*-maz-ing\"],[1000,\"A-*maz*-ing\"],[2500,\"A-maz-*\\\"ing\\\"*\"]]}",
+                timeline.toJson(VOICE1));
+        assertEquals("Expected no lines",
+                "{\"voice\":\"voice2\",\"durationMillis\":3000,\"lines\":[]}", timeline.toJson(VOICE2));
+
+        Piece oneVoice = new Piece("Unknown", 1, 1.0 / 4, "4/4", 100, "one voice",
+                new HashSet<>(Arrays.asList(VOICE1)), "C",
+                Music.together(Music.note(1, Pitch.MIDDLE_C, Instrument.PIANO), Music.lyrics("*la*", VOICE1)));
+        assertEquals("Expected one line",
+                "{\"voice\":\"voice1\",\"durationMillis\":600,\"lines\":[[0,\"*la*\"]]}",
+                LyricTimeline.compile(oneVoice).toJson(VOICE1));
+    }
+
+    // Covers the following:
+    //
+    // equals(), hashCode():
+    //      same piece compiled twice, different tempos
+    @Test
+    public void testEquality() {
+        LyricTimeline timeline = LyricTimeline.compile(twoVoicePiece(120));
+        LyricTimeline same = LyricTimeline.compile(twoVoicePiece(120));
+        assertEquals("Expected equal timelines", timeline, same);
+        assertEquals("Expected equal hash codes", timeline.hashCode(), same.hashCode());
+        assertNotEquals("Expected different timelines", timeline, LyricTimeline.compile(twoVoicePiece(60)));
+    }
+}
@@ -0,0 +1,107 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+
+/**
+ * Test cases for PieceCache
+ */
+public class PieceCacheTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for PieceCache
+    //
+    // get():
+    //      file not cached, cached; same file by different names
+    //      1, > 1 threads requesting the same file at once
+    //      file missing
+    // size(), clear():
+    //      empty cache, non-empty cache
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // get():
+    //      file not cached, cached; same file by different names
+    // size(), clear():
+    //      empty cache, non-empty cache
+    @Test
+    public void testCached() throws IOException, UnableToParseException {
+        PieceCache cache = new PieceCache();
+        assertEquals("Expected empty cache", 0, cache.size());
+        Piece piece = cache.get("sample-abc/piece3.abc");
+        assertEquals("Expected parsed piece", Piece.parseFromFile("sample-abc/piece3.abc"), piece);
+        assertSame("Expected cached piece", piece, cache.get("sample-abc/piece3.abc"));
+        assertSame("Expected cached piece by another name", piece, cache.get("sample-abc/../sample-abc/piece3.abc"));
+        assertEquals("Expected one piece", 1, cache.size());
+
+        cache.clear();
+        assertEquals("Expected empty cache", 0, cache.size());
+    }
+
+    // Covers the following:
+    //
+    // get():
+    //      > 1 threads requesting the same file at once
+    @Test
+    public void testConcurrentRequests() throws InterruptedException {
+        PieceCache cache = new PieceCache();
+        final int threads = 8;
+        CountDownLatch ready = new CountDownLatch(threads);
+        List<Piece> pieces = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> requesters = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread requester = new Thread(() -> {
+                try {
+                    ready.countDown();
+                    ready.await();
+                    pieces.add(cache.get("sample-abc/abc_song.abc"));
+                } catch (IOException | UnableToParseException | InterruptedException e) {
+                    return;
+                }
+            });
+            requester.start();
+            requesters.add(requester);
+        }
+        for (Thread requester : requesters) {
+            requester.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        assertEquals("Expected every request answered", threads, pieces.size());
+        for (Piece piece : pieces) {
+            assertSame("Expected one parse shared by every request", pieces.get(0), piece);
+        }
+        assertEquals("Expected one piece", 1, cache.size());
+    }
+
+    // Covers the following:
+    //
+    // get():
+    //      file missing
+    @Test
+    public void testMissingFileNotCached() throws UnableToParseException {
+        PieceCache cache = new PieceCache();
+        try {
+            cache.get("sample-abc/no_such_song.abc");
+            fail("Expected IOException");
+        } catch (IOException ioe) {
+            assertEquals("Expected failure forgotten", 0, cache.size());
+        }
+    }
+}
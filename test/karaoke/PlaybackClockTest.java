@@ -0,0 +1,171 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test cases for PlaybackClock
+ */
+public class PlaybackClockTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for PlaybackClock
+    //
+    // PlaybackClock(), rate():
+    //      default rate, rate > 1, rate <= 0
+    // start(), pause():
+    //      clock paused, playing; start after close
+    // seek():
+    //      clock paused, playing; position 0, > 0, < 0
+    // positionMillis():
+    //      paused, playing for some time; at rate 1, > 1
+    // events():
+    //      new clock, after every kind of change, after a change that does nothing
+    // close():
+    //      clock playing; close twice
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // PlaybackClock(), rate():
+    //      default rate
+    // start(), pause():
+    //      clock paused, playing
+    // positionMillis():
+    //      paused, playing for some time; at rate 1
+    // events():
+    //      new clock, after start and pause, after a change that does nothing
+    @Test
+    public void testStartAndPause() throws InterruptedException {
+        PlaybackClock clock = new PlaybackClock();
+        assertEquals("Expected the piece's tempo", 1, clock.rate(), 0);
+        assertFalse("Expected paused", clock.isPlaying());
+        assertEquals("Expected start of piece", 0, clock.positionMillis());
+        assertEquals("Expected initial event", 1, clock.events().size());
+        assertTrue("Expected paused event", clock.events().latest().startsWith("{\"state\":\"paused\",\"positionMillis\":0,"));
+
+        clock.start();
+        clock.start();
+        assertTrue("Expected playing", clock.isPlaying());
+        assertEquals("Expected one event per change", 2, clock.events().size());
+        assertTrue("Expected playing event", clock.events().latest().startsWith("{\"state\":\"playing\",\"positionMillis\":0,"));
+
+        final long sleepMillis = 50;
+        Thread.sleep(sleepMillis);
+        assertTrue("Expected position to advance", clock.positionMillis() >= sleepMillis);
+
+        clock.pause();
+        long paused = clock.positionMillis();
+        assertTrue("Expected position kept", paused >= sleepMillis);
+        Thread.sleep(10);
+        assertEquals("Expected position to stay", paused, clock.positionMillis());
+        assertTrue("Expected paused event",
+                clock.events().latest().startsWith("{\"state\":\"paused\",\"positionMillis\":" + paused + ","));
+        assertTrue("Expected server time", clock.events().latest().matches(".*\"serverTimeMillis\":[0-9]+\\}"));
+    }
+
+    // Covers the following:
+    //
+    // seek():
+    //      clock paused, playing; position 0, > 0
+    // events():
+    //      after seek
+    @Test
+    public void testSeek() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.seek(12_000);
+        assertFalse("Expected still paused", clock.isPlaying());
+        assertEquals("Expected new position", 12_000, clock.positionMillis());
+        assertTrue("Expected seek event",
+                clock.events().latest().startsWith("{\"state\":\"paused\",\"positionMillis\":12000,"));
+
+        clock.start();
+        clock.seek(0);
+        assertTrue("Expected still playing", clock.isPlaying());
+        assertTrue("Expected position near the start", clock.positionMillis() < 12_000);
+        assertEquals("Expected one event per change", 4, clock.events().size());
+    }
+
+    // Covers the following:
+    //
+    // seek():
+    //      position < 0
+    @Test(expected=IllegalArgumentException.class)
+    public void testSeekNegative() {
+        new PlaybackClock().seek(-1);
+    }
+
+    // Covers the following:
+    //
+    // close():
+    //      clock playing; close twice
+    @Test
+    public void testClose() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.start();
+        clock.close();
+        clock.close();
+        assertFalse("Expected paused", clock.isPlaying());
+        assertTrue("Expected control channel closed", clock.events().isClosed());
+        assertTrue("Expected last event paused", clock.events().latest().startsWith("{\"state\":\"paused\""));
+        assertEquals("Expected one event per change", 3, clock.events().size());
+    }
+
+    // Covers the following:
+    //
+    // PlaybackClock(), rate():
+    //      rate > 1
+    // positionMillis():
+    //      at rate > 1
+    // events():
+    //      after start
+    @Test
+    public void testRate() throws InterruptedException {
+        final double rate = 4;
+        PlaybackClock clock = new PlaybackClock(rate);
+        assertEquals("Expected the rate given", rate, clock.rate(), 0);
+        assertTrue("Expected rate published",
+                clock.events().latest().startsWith("{\"state\":\"paused\",\"positionMillis\":0,\"rate\":4.0,"));
+
+        final long before = System.nanoTime();
+        clock.start();
+        final long sleepMillis = 50;
+        Thread.sleep(sleepMillis);
+        final long position = clock.positionMillis();
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - before);
+        assertTrue("Expected position to advance rate times as fast as time, got " + position,
+                position >= rate * sleepMillis && position <= rate * (elapsedMillis + 1));
+    }
+
+    // Covers the following:
+    //
+    // PlaybackClock(), rate():
+    //      rate <= 0
+    @Test(expected=IllegalArgumentException.class)
+    public void testRateNotPositive() {
+        new PlaybackClock(0);
+    }
+
+    // Covers the following:
+    //
+    // start(), pause():
+    //      start after close
+    @Test
+    public void testStartAfterClose() {
+        PlaybackClock clock = new PlaybackClock();
+        clock.close();
+        clock.start();
+        assertFalse("Expected still paused", clock.isPlaying());
+        assertEquals("Expected no event after close", 1, clock.events().size());
+    }
+}
@@ -0,0 +1,172 @@
+package karaoke;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import karaoke.ServerMetrics.Client;
+import karaoke.ServerMetrics.StreamMetrics;
+
+/**
+ * Test cases for ServerMetrics
+ */
+public class ServerMetricsTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for ServerMetrics
+    //
+    // stream(), removeStream():
+    //      new stream, stream already known; removed stream
+    // clients:
+    //      0, 1, > 1 clients; client behind, caught up; closed client
+    // written(), replayed():
+    //      0, > 0 lines written; traced line, untraced line; replayed line
+    // writing(), wrote(), evictStalledClients():
+    //      no client writing; write within the limit; write blocked past the limit, evicted once
+    // exchangeStarted(), exchangeEnded():
+    //      0, > 0 exchanges in progress
+    // exposition():
+    //      no executor, thread pool executor; stream name that needs escaping
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // stream(), removeStream():
+    //      new stream, stream already known; removed stream
+    // clients:
+    //      0, > 1 clients; client behind, caught up; closed client
+    // written(), replayed():
+    //      0, > 0 lines written; untraced line; replayed line
+    // exposition():
+    //      no executor
+    @Test
+    public void testStreams() {
+        ServerMetrics metrics = new ServerMetrics();
+        LyricLog log = new LyricLog();
+        StreamMetrics stream = metrics.stream("voice_0", log);
+        assertTrue("Expected same metrics for a known stream", stream == metrics.stream("voice_0", log));
+        String text = metrics.exposition(null);
+        assertTrue("Expected no subscribers", text.contains("\nlyric_subscribers{stream=\"voice_0\"} 0\n"));
+        assertTrue("Expected no lines written", text.contains("\nlyric_lines_written_total{stream=\"voice_0\"} 0\n"));
+        assertFalse("Expected no executor metrics", text.contains("lyric_executor"));
+
+        log.append("*A*-maz-ing");
+        log.append("A-*maz*-ing");
+        Client caughtUp = stream.connect();
+        Client behind = stream.connect();
+        Client gone = stream.connect();
+        gone.close();
+        caughtUp.sent(2);
+        behind.sent(1);
+        stream.written(1, 12);
+        stream.written(0, 12);
+        stream.replayed(12);
+
+        text = metrics.exposition(null);
+        assertTrue("Expected two subscribers", text.contains("\nlyric_subscribers{stream=\"voice_0\"} 2\n"));
+        assertTrue("Expected lines published", text.contains("\nlyric_lines_published_total{stream=\"voice_0\"} 2\n"));
+        assertTrue("Expected lines written", text.contains("\nlyric_lines_written_total{stream=\"voice_0\"} 3\n"));
+        assertTrue("Expected bytes written", text.contains("\nlyric_line_bytes_written_total{stream=\"voice_0\"} 36\n"));
+        assertTrue("Expected caught up client", text.contains("{stream=\"voice_0\",client=\"0\"} 0\n"));
+        assertTrue("Expected client 1 line behind", text.contains("{stream=\"voice_0\",client=\"1\"} 1\n"));
+        assertFalse("Expected closed client gone", text.contains("client=\"2\""));
+        assertTrue("Expected every latency counted",
+                text.contains("\nlyric_publish_to_write_seconds_bucket{stream=\"voice_0\",le=\"+Inf\"} 2\n"));
+        assertTrue("Expected histogram count",
+                text.contains("\nlyric_publish_to_write_seconds_count{stream=\"voice_0\"} 2\n"));
+        assertEquals("Expected latencies recorded, but not of replayed lines", 2, stream.publishToWrite().count());
+        assertTrue("Expected write stage",
+                text.contains("\nlyric_stage_latency_seconds_count{stream=\"voice_0\",stage=\"write\"} 2\n"));
+        assertTrue("Expected untraced lines not to count from their beat",
+                text.contains("\nlyric_stage_latency_seconds_count{stream=\"voice_0\",stage=\"beat_to_write\"} 0\n"));
+
+        metrics.removeStream("voice_0");
+        assertFalse("Expected removed stream gone", metrics.exposition(null).contains("voice_0"));
+    }
+
+    // Covers the following:
+    //
+    // clients:
+    //      1 client
+    // exchangeStarted(), exchangeEnded():
+    //      0, > 0 exchanges in progress
+    // exposition():
+    //      thread pool executor; stream name that needs escaping
+    @Test
+    public void testExchangesAndExecutor() {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.stream("say \"hi\"", new LyricLog()).connect();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        assertTrue("Expected no exchanges", metrics.exposition(executor).contains("\nlyric_active_exchanges 0\n"));
+        metrics.exchangeStarted();
+        metrics.exchangeStarted();
+        metrics.exchangeEnded();
+
+        String text = metrics.exposition(executor);
+        assertTrue("Expected one exchange", text.contains("\nlyric_active_exchanges 1\n"));
+        assertTrue("Expected queue depth", text.contains("\nlyric_executor_queue_depth 0\n"));
+        assertTrue("Expected active threads", text.contains("\nlyric_executor_active_threads 0\n"));
+        assertTrue("Expected escaped stream name", text.contains("\nlyric_subscribers{stream=\"say \\\"hi\\\"\"} 1\n"));
+        executor.shutdown();
+    }
+
+    // Covers the following:
+    //
+    // written():
+    //      traced line
+    @Test
+    public void testStageLatencies() {
+        ServerMetrics metrics = new ServerMetrics();
+        LyricLog log = new LyricLog();
+        StreamMetrics stream = metrics.stream("room/stage/voice/0", log);
+        final int beatsPerMinute = 600_000; // 0.1 ms per beat
+        log.setTimebase(Timebase.startingNow(beatsPerMinute));
+        log.append("*A*-maz-ing", 0, 0, System.nanoTime());
+        stream.written(0, 12);
+
+        String text = metrics.exposition(null);
+        for (String stage : new String[] { "sequencer", "callback", "write", "beat_to_write" }) {
+            assertTrue("Expected one line through stage " + stage, text.contains(
+                    "\nlyric_stage_latency_seconds_count{stream=\"room/stage/voice/0\",stage=\"" + stage + "\"} 1\n"));
+            assertTrue("Expected buckets of stage " + stage, text.contains(
+                    "\nlyric_stage_latency_seconds_bucket{stream=\"room/stage/voice/0\",stage=\"" + stage 
+                    + "\",le=\"+Inf\"} 1\n"));
+        }
+    }
+
+    // Covers the following:
+    //
+    // writing(), wrote(), evictStalledClients():
+    //      no client writing; write within the limit; write blocked past the limit, evicted once
+    @Test
+    public void testStalledClientEvicted() throws InterruptedException {
+        ServerMetrics metrics = new ServerMetrics();
+        StreamMetrics stream = metrics.stream("voice_0", new LyricLog());
+        Client client = stream.connect();
+        final long evictAfterNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        assertEquals("Expected nothing to evict without a write", 0, metrics.evictStalledClients(evictAfterNanos));
+
+        client.writing();
+        assertEquals("Expected a write within the limit left alone", 0, metrics.evictStalledClients(evictAfterNanos));
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(2 * evictAfterNanos));
+        assertEquals("Expected the stalled client evicted", 1, metrics.evictStalledClients(evictAfterNanos));
+        assertTrue("Expected the writing thread interrupted", Thread.currentThread().isInterrupted());
+        assertEquals("Expected a client evicted once", 0, metrics.evictStalledClients(evictAfterNanos));
+        assertTrue("Expected the write to report the eviction", client.wrote());
+        assertFalse("Expected the interrupt cleared", Thread.currentThread().isInterrupted());
+        assertTrue("Expected the eviction counted",
+                metrics.exposition(null).contains("\nlyric_clients_evicted_total{stream=\"voice_0\"} 1\n"));
+        client.close();
+    }
+}
@@ -0,0 +1,281 @@
+package karaoke;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.FakeEngineSource;
+import karaoke.sound.Instrument;
+import karaoke.sound.MidiPlayerPool;
+import karaoke.sound.Pitch;
+import karaoke.sound.SequencePlayer;
+
+/**
+ * Test cases for SessionManager and the Rooms it hosts
+ */
+public class SessionManagerTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for SessionManager
+    //
+    // open():
+    //      1, > 1 rooms open at once; same piece in > 1 rooms, different pieces
+    //      id already open, invalid id; same id opened by > 1 threads at once
+    // room(), roomIds():
+    //      no rooms, some rooms, after a room is removed
+    // close(), closeAll():
+    //      room not played yet; unknown id; room on a pooled engine
+    // rooms playing:
+    //      piece ends: streams end and room removed; streams of one room independent of another
+    //      player slow to start
+    //
+    // Cover each part at least once
+
+    // speed-up of the virtual clocks, so a test song takes a fraction of a second
+    private static final double SPEED_UP = 40;
+
+    private static BufferedReader getURLReader(WebServer server, String path) throws IOException {
+        final URL valid = new URL("http://localhost:" + server.port() + path);
+        return new BufferedReader(new InputStreamReader(valid.openStream(), UTF_8));
+    }
+
+    // Covers the following:
+    //
+    // open():
+    //      > 1 rooms open at once; same piece in > 1 rooms, different pieces
+    // room(), roomIds():
+    //      no rooms, some rooms, after a room is removed
+    // rooms playing:
+    //      piece ends: streams end and room removed; streams of one room independent of another
+    @Test
+    public void testRoomsPlayIndependently() throws IOException, UnableToParseException,
+            MidiUnavailableException, InvalidMidiDataException, InterruptedException {
+        final int serverPort = 5009;
+        WebServer server = new WebServer(serverPort);
+        server.start();
+        PieceCache pieces = new PieceCache();
+        SessionManager venue = new SessionManager(server, pieces, SPEED_UP);
+        assertEquals("Expected no rooms", Collections.emptySet(), venue.roomIds());
+
+        Room stage = venue.open("stage", "sample-abc/piece3.abc");
+        Room bar = venue.open("bar", "sample-abc/piece3.abc");
+        Room patio = venue.open("patio", "sample-abc/abc_song.abc");
+        assertEquals("Expected sorted room ids", Arrays.asList("bar", "patio", "stage"),
+                Arrays.asList(venue.roomIds().toArray()));
+        assertSame("Expected room by id", stage, venue.room("stage"));
+        assertSame("Expected one parse of a piece shared by rooms", stage.piece(), bar.piece());
+        assertEquals("Expected two pieces cached", 2, pieces.size());
+
+        BufferedReader stageReader = getURLReader(server, "/room/stage/voice/0");
+        BufferedReader barReader = getURLReader(server, "/room/bar/voice/0");
+        stageReader.readLine(); // Get rid of the first 2k spaces.
+        barReader.readLine(); // Get rid of the first 2k spaces.
+
+        stage.play();
+        stage.awaitEnd();
+        String line;
+        int lines = 0;
+        while ((line = stageReader.readLine()) != null) {
+            assertTrue("Expected a lyric line, got " + line, line.contains("*"));
+            lines++;
+        }
+        assertTrue("Expected lyrics until the stream ended", lines > 0);
+        assertNull("Expected room removed", venue.room("stage"));
+        assertEquals("Expected other rooms still open", Arrays.asList("bar", "patio"),
+                Arrays.asList(venue.roomIds().toArray()));
+        assertEquals("Expected nothing sung in another room", 0, bar.voiceToLyricLog().get(
+                bar.voiceToLyricLog().firstKey()).size());
+
+        bar.play();
+        assertTrue("Expected the same piece sung in another room", barReader.readLine().contains("*"));
+        bar.awaitEnd();
+
+        venue.closeAll();
+        assertEquals("Expected no rooms", Collections.emptySet(), venue.roomIds());
+        assertTrue("Expected room closed", patio.isClosed());
+        server.stop();
+    }
+
+    // Covers the following:
+    //
+    // open():
+    //      1 room open; id already open, invalid id
+    // close(), closeAll():
+    //      room not played yet; unknown id
+    @Test
+    public void testOpenAndClose() throws IOException, UnableToParseException,
+            MidiUnavailableException, InvalidMidiDataException {
+        final int serverPort = 5010;
+        WebServer server = new WebServer(serverPort);
+        server.start();
+        SessionManager venue = new SessionManager(server, new PieceCache(), SPEED_UP);
+
+        Room room = venue.open("stage", "sample-abc/piece3.abc");
+        try {
+            venue.open("stage", "sample-abc/abc_song.abc");
+            fail("Expected IllegalArgumentException for an open id");
+        } catch (IllegalArgumentException iae) {
+            assertSame("Expected first room kept", room, venue.room("stage"));
+        }
+        try {
+            venue.open("../stage", "sample-abc/abc_song.abc");
+            fail("Expected IllegalArgumentException for an invalid id");
+        } catch (IllegalArgumentException iae) {
+            assertEquals("Expected one room", 1, venue.roomIds().size());
+        }
+
+        BufferedReader reader = getURLReader(server, "/room/stage/voice/0");
+        reader.readLine(); // Get rid of the first 2k spaces.
+        venue.close("nowhere");
+        venue.close("stage");
+        assertNull("Expected stream of a closed room to end", reader.readLine());
+        assertNull("Expected room removed", venue.room("stage"));
+        try {
+            getURLReader(server, "/room/stage/voice/0");
+            fail("Expected FileNotFoundException for a removed room");
+        } catch (FileNotFoundException fnfe) {
+            // not served any more
+        }
+        server.stop();
+    }
+
+    // Covers the following:
+    //
+    // close(), closeAll():
+    //      room on a pooled engine
+    @Test
+    public void testClosedRoomReturnsEngine() throws IOException, UnableToParseException,
+            MidiUnavailableException, InvalidMidiDataException {
+        final int serverPort = 5017;
+        WebServer server = new WebServer(serverPort);
+        server.start();
+        FakeEngineSource engines = new FakeEngineSource();
+        MidiPlayerPool pool = engines.pool(1);
+        SessionManager venue = new SessionManager(server, new PieceCache(), pool);
+
+        venue.open("stage", "sample-abc/piece3.abc");
+        assertEquals("Expected the engine in use by the room", 0, pool.idleEngines());
+        try {
+            venue.open("stage", "sample-abc/piece3.abc");
+            fail("Expected IllegalArgumentException for an open id");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        venue.close("stage");
+        assertEquals("Expected the engine back in the pool", 1, pool.idleEngines());
+        assertEquals("Expected no engine opened beyond the warm one", 1, engines.openedCount());
+        assertEquals("Expected no engine closed", 0, engines.closedCount());
+        pool.close();
+        server.stop();
+    }
+
+    // Covers the following:
+    //
+    // open():
+    //      same id opened by > 1 threads at once
+    @Test
+    public void testConcurrentOpenClaimsIdOnce() throws IOException, InterruptedException {
+        final int serverPort = 5016;
+        WebServer server = new WebServer(serverPort);
+        server.start();
+        SessionManager venue = new SessionManager(server, new PieceCache(), SPEED_UP);
+        final int threads = 4;
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Room> opened = new CopyOnWriteArrayList<>();
+        final List<Exception> refused = new CopyOnWriteArrayList<>();
+        Thread[] openers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            openers[i] = new Thread(() -> {
+                try {
+                    go.await();
+                    opened.add(venue.open("stage", "sample-abc/piece3.abc"));
+                } catch (IllegalArgumentException iae) {
+                    refused.add(iae);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            openers[i].start();
+        }
+        go.countDown();
+        for (Thread opener : openers) {
+            opener.join();
+        }
+
+        assertEquals("Expected exactly one room opened", 1, opened.size());
+        assertEquals("Expected every other open refused", threads - 1, refused.size());
+        assertSame("Expected the room opened kept", opened.get(0), venue.room("stage"));
+        BufferedReader reader = getURLReader(server, "/room/stage/voice/0");
+        reader.readLine(); // Get rid of the first 2k spaces.
+        venue.closeAll();
+        assertNull("Expected the stream to end once closed", reader.readLine());
+        server.stop();
+    }
+
+    // Covers the following:
+    //
+    // rooms playing:
+    //      player slow to start
+    @Test
+    public void testSlowStartNotStampedEarly() throws IOException, UnableToParseException, InterruptedException {
+        Piece piece = Piece.parseFromFile("sample-abc/piece3.abc");
+        SequencePlayer virtual = piece.createVirtualClockPlayer(SPEED_UP);
+        final long startupMillis = 300;
+        // a player that takes a while to start, as a MIDI player loading instruments does
+        SequencePlayer slow = new SequencePlayer() {
+            @Override
+            public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+                virtual.addNote(instr, pitch, startBeat, numBeats);
+            }
+
+            @Override
+            public void addEvent(double atBeat, Consumer<Double> callback) {
+                virtual.addEvent(atBeat, callback);
+            }
+
+            @Override
+            public void play() {
+                try {
+                    Thread.sleep(startupMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                virtual.play();
+            }
+        };
+        Room room = new Room("stage", piece, slow, SPEED_UP);
+        final long before = System.currentTimeMillis();
+        room.play();
+        room.awaitEnd();
+
+        LyricLog log = room.voiceToLyricLog().get(room.voiceToLyricLog().firstKey());
+        assertTrue("Expected lines sung", log.size() > 0);
+        assertTrue("Expected the first line scheduled after the player started",
+                log.scheduledMillis(0) >= before + startupMillis);
+    }
+}
@@ -2,19 +2,36 @@ package karaoke;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.Test;
 
+import karaoke.sound.Instrument;
+import karaoke.sound.Pitch;
+
 /**
  * Test cases for WebServer 
  */
@@ -33,14 +50,59 @@ public class WebServerTest {
         return reader;
     }
     
+    // Helper method that opens an event stream, resuming after lastEventId unless it is null,
+    // and skips the retry field that starts the stream
+    public BufferedReader getEventReader(WebServer server, int voiceIndex, String lastEventId) throws IOException {
+        final URL valid = new URL("http://localhost:" + server.port() + "/eventStream/voice_" + voiceIndex);
+        final URLConnection connection = valid.openConnection();
+        if (lastEventId != null) {
+            connection.setRequestProperty("Last-Event-ID", lastEventId);
+        }
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), UTF_8));
+        assertEquals("Expected retry field", "retry: 1000", reader.readLine());
+        assertEquals("Expected end of retry field", "", reader.readLine());
+        return reader;
+    }
+    
+    // Helper method that reads one event and checks its id and data
+    public void assertEvent(BufferedReader reader, long id, String line) throws IOException {
+        assertEquals("Expected event id", "id: " + id, reader.readLine());
+        assertEquals("Expected event data", "data: " + line, reader.readLine());
+        assertEquals("Expected end of event", "", reader.readLine());
+    }
+    
     // Testing Strategy for WebServer 
     // 
     // port() and stop():
     //      tested together with tests for start
     // start():
-    //      voiceToLyricsMap contains 1 voice, > 1 voice
-    //      voiceToLyricsMap mutates once, mutates more than once 
+    //      voiceToLyricLog contains 1 voice, > 1 voice
+    //      voiceToLyricLog has lines appended once, more than once 
     //      there are 1, > 1 clients reading the same URL
+    // event streams:
+    //      no Last-Event-ID, log empty, non-empty when the client connects
+    //      Last-Event-ID of a retained line, the newest line, an overwritten line, 
+    //          a line not yet published, not a number
+    // timed streams and time():
+    //      timed stream with a timebase; time request with t0, without t0
+    // end of song:
+    //      log closed while a text stream, an event stream is open; 
+    //      event stream client reconnects after the end
+    // routing:
+    //      unknown path, path with a known prefix, path with a query; 
+    //      room added, removed while the server runs
+    // late joiners:
+    //      text stream with no last, last=0, last > 1; last more than the log retains;
+    //      event stream with last > 1
+    // long polls:
+    //      no since, since of a published line, since = size, since not published yet;
+    //      lines available at once, published while waiting; log closed
+    // metrics:
+    //      stream with a client connected, after lines are written; line traced from its beat
+    // slow clients:
+    //      text stream client that never reads: evicted, counted in metrics, others still served
+    // startTimeline():
+    //      timeline of 1 voice; clock started, paused after a client connects
     // printing lyrics real-time with music:
     //      tested in separate file with manual test cases 
     //
@@ -54,27 +116,24 @@ public class WebServerTest {
     // Example test - shows the flow for interacting with the web server
     @Test
     public void testWebServerExample() throws IOException {
-        // Initialize the web-server and the voiceToLyricsMap
+        // Initialize the web-server and the voiceToLyricLog
         final int serverPort = 5000;
         WebServer server = new WebServer(serverPort);
         
         String voice = "voice1";
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>();
-        voiceToLyricsMap.put(voice, new ArrayList<String>());
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        voiceToLyricLog.put(voice, new LyricLog());
         
         // Start the web-server 
-        server.start(voiceToLyricsMap);
+        server.start(voiceToLyricLog);
         
         // Get a reader for a URL 
         BufferedReader voiceReader = getURLReader(server, 0);
         voiceReader.readLine(); // Get rid of the first 2k spaces.
         
-        // Try to put a new lyric in the map, make sure to use a synchronized block
+        // Publish a new lyric to the log of the voice
         String lyricLine = "*A*-maz-ing grace";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(voice).add(lyricLine);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(voice).append(lyricLine);
         
         // Make sure the web-server printed out the lyric line
         String responseLine = voiceReader.readLine();
@@ -87,29 +146,26 @@ public class WebServerTest {
     // Covers the following:
     //
     // start():
-    //      voiceToLyricsMap contains 1 voice
-    //      voiceToLyricsMap mutates once
+    //      voiceToLyricLog contains 1 voice
+    //      voiceToLyricLog has lines appended once
     //      there are 1 clients reading the same URL
     @Test 
     public void testWebServerSingleVoiceOneLyric() throws IOException {
         // Create a map with one voice 
         String singleVoice = "voice1";
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>();
-        voiceToLyricsMap.put(singleVoice, new ArrayList<>());
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        voiceToLyricLog.put(singleVoice, new LyricLog());
         
         // Start the server and get a reader for responses 
         final int serverPort = 5001;
         WebServer server = new WebServer(serverPort);
-        server.start(voiceToLyricsMap);
+        server.start(voiceToLyricLog);
         BufferedReader singleVoiceReader = getURLReader(server, 0);
         singleVoiceReader.readLine(); // Get rid of the first 2k spaces.
         
         // Add one line of lyrics to the map
         String firstLine = "*test*-ing";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(singleVoice).add(firstLine);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(singleVoice).append(firstLine);
         assertEquals("Expected correct response", firstLine, singleVoiceReader.readLine());
         
         server.stop();
@@ -117,20 +173,20 @@ public class WebServerTest {
     
     // Covers the following:
     //
-    //      voiceToLyricsMap contains 1 voice
-    //      voiceToLyricsMap mutates more than once 
+    //      voiceToLyricLog contains 1 voice
+    //      voiceToLyricLog has lines appended more than once 
     //      there are > 1 clients reading the same URL
     @Test 
     public void testWebServerSingleVoiceMultipleLyrics() throws IOException {
         // Create a map with one voice 
         String singleVoice = "voice1";
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>();
-        voiceToLyricsMap.put(singleVoice, new ArrayList<>());
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        voiceToLyricLog.put(singleVoice, new LyricLog());
         
         // Start the server and get a reader for responses 
         final int serverPort = 5002;
         WebServer server = new WebServer(serverPort);
-        server.start(voiceToLyricsMap);
+        server.start(voiceToLyricLog);
         BufferedReader singleVoiceReader1 = getURLReader(server, 0);
         BufferedReader singleVoiceReader2 = getURLReader(server, 0);
         singleVoiceReader1.readLine(); // Get rid of the first 2k spaces.
@@ -138,37 +194,25 @@ public class WebServerTest {
         
         // Add first line of lyrics to the map
         String firstLine = "*A*-maz-ing grace how sweet";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(singleVoice).add(firstLine);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(singleVoice).append(firstLine);
         assertEquals("Expected correct response", firstLine, singleVoiceReader1.readLine());
         assertEquals("Expected correct response", firstLine, singleVoiceReader2.readLine());
         
         // Add second line of lyrics
         String secondLine = "A-*maz*-ing grace how sweet";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(singleVoice).add(secondLine);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(singleVoice).append(secondLine);
         assertEquals("Expected correct response", secondLine, singleVoiceReader1.readLine());
         assertEquals("Expected correct response", secondLine, singleVoiceReader2.readLine());
         
         // Add third line of lyrics
         String thirdLine = "A-maz-*ing* grace how sweet";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(singleVoice).add(thirdLine);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(singleVoice).append(thirdLine);
         assertEquals("Expected correct response", thirdLine, singleVoiceReader1.readLine());
         assertEquals("Expected correct response", thirdLine, singleVoiceReader2.readLine());
         
         // Add fourth line of lyrics
         String fourthLine = "A-maz-ing *grace* how sweet";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(singleVoice).add(fourthLine);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(singleVoice).append(fourthLine);
         assertEquals("Expected correct response", fourthLine, singleVoiceReader1.readLine());
         assertEquals("Expected correct response", fourthLine, singleVoiceReader2.readLine());
         
@@ -177,22 +221,22 @@ public class WebServerTest {
     
     // Covers the following:
     //
-    //      voiceToLyricsMap contains > 1 voice
-    //      voiceToLyricsMap mutates more than once 
+    //      voiceToLyricLog contains > 1 voice
+    //      voiceToLyricLog has lines appended more than once 
     //      there are > 1 clients reading the same URL
     @Test
     public void testWebServerMultipleVoices() throws IOException {
         // Create a map with two voice 
         String firstVoice = "voice1";
         String secondVoice = "voice2";
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>();
-        voiceToLyricsMap.put(firstVoice, new ArrayList<>());
-        voiceToLyricsMap.put(secondVoice, new ArrayList<>());
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        voiceToLyricLog.put(firstVoice, new LyricLog());
+        voiceToLyricLog.put(secondVoice, new LyricLog());
         
         // Start the server and get a reader for responses 
         final int serverPort = 5003;
         WebServer server = new WebServer(serverPort);
-        server.start(voiceToLyricsMap);
+        server.start(voiceToLyricLog);
         BufferedReader firstVoiceReader1 = getURLReader(server, 0);
         BufferedReader firstVoiceReader2 = getURLReader(server, 0);
         BufferedReader secondVoiceReader1 = getURLReader(server, 1);
@@ -204,41 +248,470 @@ public class WebServerTest {
         
         // Add first line for the first voice 
         String firstLineFirstVoice = "*A*-maz-ing grace how sweet";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(firstVoice).add(firstLineFirstVoice);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(firstVoice).append(firstLineFirstVoice);
         assertEquals("Expected correct response", firstLineFirstVoice, firstVoiceReader1.readLine());
         assertEquals("Expected correct response", firstLineFirstVoice, firstVoiceReader2.readLine());
         
         // Add first line for the second voice 
         String firstLineSecondVoice = "*test*-ing";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(secondVoice).add(firstLineSecondVoice);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(secondVoice).append(firstLineSecondVoice);
         assertEquals("Expected correct response", firstLineSecondVoice, secondVoiceReader1.readLine());
         assertEquals("Expected correct response", firstLineSecondVoice, secondVoiceReader2.readLine());
         
         // Add second line for the first voice
         String secondLineFirstVoice = "A-*maz*-ing grace how sweet";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(firstVoice).add(secondLineFirstVoice);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(firstVoice).append(secondLineFirstVoice);
         assertEquals("Expected correct response", secondLineFirstVoice, firstVoiceReader1.readLine());
         assertEquals("Expected correct response", secondLineFirstVoice, firstVoiceReader2.readLine());
         
         // Add second line for the second voice 
         String secondLineSecondVoice = "test-*ing*";
-        synchronized(voiceToLyricsMap) {
-            voiceToLyricsMap.get(secondVoice).add(secondLineSecondVoice);
-            voiceToLyricsMap.notifyAll();
-        }
+        voiceToLyricLog.get(secondVoice).append(secondLineSecondVoice);
         assertEquals("Expected correct response", secondLineSecondVoice, secondVoiceReader1.readLine());
         assertEquals("Expected correct response", secondLineSecondVoice, secondVoiceReader2.readLine());
         
         server.stop();
     }
     
+    // Covers the following:
+    //
+    // event streams:
+    //      no Last-Event-ID, log empty, non-empty when the client connects
+    //      Last-Event-ID of a retained line, the newest line
+    @Test
+    public void testEventStreamResumes() throws IOException {
+        String voice = "voice1";
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put(voice, log);
+        final int serverPort = 5004;
+        WebServer server = new WebServer(serverPort);
+        server.start(voiceToLyricLog);
+        
+        // a new client is sent lines as they are published
+        BufferedReader reader = getEventReader(server, 0, null);
+        log.append("*A*-maz-ing");
+        assertEvent(reader, 0, "*A*-maz-ing");
+        log.append("A-*maz*-ing");
+        assertEvent(reader, 1, "A-*maz*-ing");
+        reader.close();
+        
+        // while disconnected, two more lines are published
+        log.append("A-maz-*ing*");
+        log.append("*grace*");
+        
+        // reconnecting replays exactly the missed lines, then continues live
+        BufferedReader resumed = getEventReader(server, 0, "1");
+        assertEvent(resumed, 2, "A-maz-*ing*");
+        assertEvent(resumed, 3, "*grace*");
+        log.append("*how* sweet");
+        assertEvent(resumed, 4, "*how* sweet");
+        
+        // a client that is already up to date is sent only new lines
+        BufferedReader upToDate = getEventReader(server, 0, "4");
+        log.append("how *sweet*");
+        assertEvent(upToDate, 5, "how *sweet*");
+        
+        // a new client starts from the newest line
+        BufferedReader late = getEventReader(server, 0, null);
+        assertEvent(late, 5, "how *sweet*");
+        
+        server.stop();
+    }
+    
+    // Covers the following:
+    //
+    // event streams:
+    //      Last-Event-ID of an overwritten line, a line not yet published, not a number
+    @Test
+    public void testEventStreamResumesFromOldestRetained() throws IOException {
+        String voice = "voice1";
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog(2);
+        voiceToLyricLog.put(voice, log);
+        final int serverPort = 5005;
+        WebServer server = new WebServer(serverPort);
+        server.start(voiceToLyricLog);
+        for (int i = 0; i < 5; i++) {
+            log.append("line " + i);
+        }
+        
+        // lines 1 and 2 have been overwritten, so only the retained ones are replayed
+        BufferedReader resumed = getEventReader(server, 0, "0");
+        assertEvent(resumed, 3, "line 3");
+        assertEvent(resumed, 4, "line 4");
+        
+        // ids this log never published start from the newest line
+        assertEvent(getEventReader(server, 0, "99"), 4, "line 4");
+        assertEvent(getEventReader(server, 0, "not a number"), 4, "line 4");
+        
+        server.stop();
+    }
+    
+    // Covers the following:
+    //
+    // timed streams and time():
+    //      timed stream with a timebase; time request with t0, without t0
+    // startTimeline():
+    //      timeline of 1 voice; clock started, paused after a client connects
+    @Test
+    public void testTimelineAndClock() throws IOException {
+        String voice = "voice1";
+        Piece piece = new Piece("Unknown", 1, 1.0 / 4, "4/4", 60, "one voice",
+                Collections.singleton(voice), "C",
+                Music.together(Music.note(1, Pitch.MIDDLE_C, Instrument.PIANO), Music.lyrics("*la*", voice)));
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        voiceToLyricLog.put(voice, new LyricLog());
+        final int serverPort = 5006;
+        WebServer server = new WebServer(serverPort);
+        server.start(voiceToLyricLog);
+        PlaybackClock clock = new PlaybackClock();
+        server.startTimeline(LyricTimeline.compile(piece), clock);
+        
+        // the whole timeline comes in one response
+        final URL timelineURL = new URL("http://localhost:" + server.port() + "/timeline/voice_0");
+        BufferedReader timeline = new BufferedReader(new InputStreamReader(timelineURL.openStream(), UTF_8));
+        assertEquals("Expected timeline", 
+                "{\"voice\":\"voice1\",\"durationMillis\":1000,\"lines\":[[0,\"*la*\"]]}", timeline.readLine());
+        assertEquals("Expected end of timeline", null, timeline.readLine());
+        
+        // the clock streams its current state, then every change
+        final URL clockURL = new URL("http://localhost:" + server.port() + "/clock");
+        BufferedReader events = new BufferedReader(new InputStreamReader(clockURL.openStream(), UTF_8));
+        events.readLine(); // Get rid of the retry field.
+        events.readLine();
+        assertEquals("Expected current state", "id: 0", events.readLine());
+        assertTrue("Expected paused", events.readLine().startsWith("data: {\"state\":\"paused\""));
+        events.readLine();
+        clock.start();
+        assertEquals("Expected start event", "id: 1", events.readLine());
+        assertTrue("Expected playing", events.readLine().startsWith("data: {\"state\":\"playing\""));
+        events.readLine();
+        clock.pause();
+        assertEquals("Expected pause event", "id: 2", events.readLine());
+        
+        server.stop();
+    }
+    
+    // Covers the following:
+    //
+    // timed streams and time():
+    //      timed stream with a timebase; time request with t0, without t0
+    @Test
+    public void testTimedStreamAndTime() throws IOException {
+        String voice = "voice1";
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        log.setTimebase(new Timebase(1_000_000, 60));
+        voiceToLyricLog.put(voice, log);
+        final int serverPort = 5007;
+        WebServer server = new WebServer(serverPort);
+        server.start(voiceToLyricLog);
+        
+        // each event carries the wall-clock time of its beat
+        final URL timedURL = new URL("http://localhost:" + server.port() + "/timedStream/voice_0");
+        BufferedReader events = new BufferedReader(new InputStreamReader(timedURL.openStream(), UTF_8));
+        events.readLine(); // Get rid of the retry field.
+        events.readLine();
+        log.append("*A*-maz-ing", 2);
+        assertEquals("Expected event id", "id: 0", events.readLine());
+        assertEquals("Expected scheduled time and line", "data: [1002000,\"*A*-maz-ing\"]", events.readLine());
+        
+        // the server stamps when it received the request and when it replied
+        final long t0 = System.currentTimeMillis();
+        final URL timeURL = new URL("http://localhost:" + server.port() + "/time?t0=" + t0);
+        String reply = new BufferedReader(new InputStreamReader(timeURL.openStream(), UTF_8)).readLine();
+        final long t3 = System.currentTimeMillis();
+        Matcher stamps = Pattern.compile("\\{\"t0\":([0-9]+),\"t1\":([0-9]+),\"t2\":([0-9]+)\\}").matcher(reply);
+        assertTrue("Expected stamps, got " + reply, stamps.matches());
+        assertEquals("Expected t0 echoed", t0, Long.parseLong(stamps.group(1)));
+        long t1 = Long.parseLong(stamps.group(2));
+        long t2 = Long.parseLong(stamps.group(3));
+        assertTrue("Expected same clock, in order", t0 <= t1 && t1 <= t2 && t2 <= t3);
+        
+        final URL noT0 = new URL("http://localhost:" + server.port() + "/time");
+        reply = new BufferedReader(new InputStreamReader(noT0.openStream(), UTF_8)).readLine();
+        assertTrue("Expected null t0, got " + reply, reply.startsWith("{\"t0\":null,\"t1\":"));
+        
+        server.stop();
+    }
+    
+    
+    // Covers the following:
+    //
+    // end of song:
+    //      log closed while a text stream, an event stream is open; 
+    //      event stream client reconnects after the end
+    @Test
+    public void testStreamsEndWhenLogCloses() throws IOException {
+        String voice = "voice1";
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put(voice, log);
+        final int serverPort = 5008;
+        WebServer server = new WebServer(serverPort);
+        server.start(voiceToLyricLog);
+        
+        BufferedReader text = getURLReader(server, 0);
+        text.readLine(); // Get rid of the first 2k spaces.
+        BufferedReader events = getEventReader(server, 0, null);
+        log.append("*grace*");
+        assertEquals("Expected correct response", "*grace*", text.readLine());
+        assertEvent(events, 0, "*grace*");
+        
+        log.close();
+        assertEquals("Expected text stream to end", null, text.readLine());
+        assertEquals("Expected end event", "event: end", events.readLine());
+        assertEquals("Expected end event data", "data: ", events.readLine());
+        assertEquals("Expected end of event", "", events.readLine());
+        assertEquals("Expected event stream to end", null, events.readLine());
+        
+        // a client that reconnects has seen every line, and is told not to reconnect again
+        final URL valid = new URL("http://localhost:" + server.port() + "/eventStream/voice_0");
+        final HttpURLConnection reconnect = (HttpURLConnection) valid.openConnection();
+        reconnect.setRequestProperty("Last-Event-ID", "0");
+        final int noContentCode = 204;
+        assertEquals("Expected no content", noContentCode, reconnect.getResponseCode());
+        
+        server.stop();
+    }
+    
+    // Covers the following:
+    //
+    // routing:
+    //      unknown path, path with a known prefix, path with a query; 
+    //      room added, removed while the server runs
+    @Test
+    public void testRoutesChangeWhileRunning() throws IOException {
+        final int serverPort = 5011;
+        WebServer server = new WebServer(serverPort);
+        server.start();
+        assertNotFound(server, "/room/stage/voice/0");
+        
+        Piece piece = new Piece("Unknown", 1, 1.0 / 4, "4/4", 60, "one voice",
+                Collections.singleton("voice1"), "C",
+                Music.together(Music.note(1, Pitch.MIDDLE_C, Instrument.PIANO), Music.lyrics("*la*", "voice1")));
+        Room room = new Room("stage", piece, piece.createVirtualClockPlayer(1), 1);
+        server.addRoom(room);
+        room.voiceToLyricLog().get("voice1").append("*la*");
+        final URL query = new URL("http://localhost:" + server.port() + "/room/stage/voice/0?from=test");
+        BufferedReader reader = new BufferedReader(new InputStreamReader(query.openStream(), UTF_8));
+        reader.readLine(); // Get rid of the first 2k spaces.
+        assertEquals("Expected newest line", "*la*", reader.readLine());
+        assertNotFound(server, "/room/stage/voice/0/more");
+        assertNotFound(server, "/room/stage/voice");
+        
+        server.removeRoom("stage");
+        assertNotFound(server, "/room/stage/voice/0");
+        room.close();
+        assertEquals("Expected stream of a removed room to end once closed", null, reader.readLine());
+        
+        server.stop();
+    }
+    
+    // Helper method that checks that a path is not served
+    private static void assertNotFound(WebServer server, String path) throws IOException {
+        final URL url = new URL("http://localhost:" + server.port() + path);
+        try {
+            url.openStream().close();
+            fail("Expected " + path + " not found");
+        } catch (FileNotFoundException fnfe) {
+            // not served
+        }
+    }
+    
+    // Covers the following:
+    //
+    // late joiners:
+    //      text stream with no last, last=0, last > 1; last more than the log retains;
+    //      event stream with last > 1
+    @Test
+    public void testSnapshotOnConnect() throws IOException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog(4);
+        voiceToLyricLog.put("voice1", log);
+        final int serverPort = 5012;
+        WebServer server = new WebServer(serverPort);
+        server.start(voiceToLyricLog);
+        for (int i = 0; i < 6; i++) {
+            log.append("line " + i);
+        }
+        
+        final String textStream = "http://localhost:" + server.port() + "/textStream/voice_0";
+        BufferedReader newest = new BufferedReader(new InputStreamReader(new URL(textStream).openStream(), UTF_8));
+        BufferedReader none = new BufferedReader(new InputStreamReader(new URL(textStream + "?last=0").openStream(), UTF_8));
+        BufferedReader three = new BufferedReader(new InputStreamReader(new URL(textStream + "?last=3").openStream(), UTF_8));
+        BufferedReader all = new BufferedReader(new InputStreamReader(new URL(textStream + "?x=y&last=100").openStream(), UTF_8));
+        for (BufferedReader reader : Arrays.asList(newest, none, three, all)) {
+            reader.readLine(); // Get rid of the first 2k spaces.
+        }
+        assertEquals("Expected newest line", "line 5", newest.readLine());
+        assertEquals("Expected last 3 lines", "line 3", three.readLine());
+        assertEquals("Expected last 3 lines", "line 4", three.readLine());
+        assertEquals("Expected last 3 lines", "line 5", three.readLine());
+        for (int i = 2; i < 6; i++) {
+            assertEquals("Expected every line retained", "line " + i, all.readLine());
+        }
+        log.append("line 6");
+        for (BufferedReader reader : Arrays.asList(newest, none, three, all)) {
+            assertEquals("Expected new line after the snapshot", "line 6", reader.readLine());
+        }
+        
+        final URL eventStream = new URL("http://localhost:" + server.port() + "/eventStream/voice_0?last=2");
+        BufferedReader events = new BufferedReader(new InputStreamReader(eventStream.openStream(), UTF_8));
+        events.readLine(); // Get rid of the retry field.
+        events.readLine();
+        assertEvent(events, 5, "line 5");
+        assertEvent(events, 6, "line 6");
+        
+        server.stop();
+    }
+    
+    // Helper method that reads the whole reply to a long poll
+    private static String poll(WebServer server, String query) throws IOException {
+        final URL url = new URL("http://localhost:" + server.port() + "/poll/voice_0" + query);
+        return new BufferedReader(new InputStreamReader(url.openStream(), UTF_8)).readLine();
+    }
+    
+    // Covers the following:
+    //
+    // long polls:
+    //      no since, since of a published line, since = size, since not published yet;
+    //      lines available at once, published while waiting; log closed
+    @Test
+    public void testLongPoll() throws IOException, InterruptedException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        log.setTimebase(new Timebase(1_000_000, 60));
+        voiceToLyricLog.put("voice1", log);
+        final int serverPort = 5013;
+        WebServer server = new WebServer(serverPort);
+        server.start(voiceToLyricLog);
+        for (int i = 0; i < 3; i++) {
+            log.append("line " + i, i);
+        }
+        
+        assertEquals("Expected newest line without since", 
+                "{\"next\":3,\"ended\":false,\"lines\":[[1002000,\"line 2\"]]}", poll(server, ""));
+        assertEquals("Expected newest line for a since not published yet", 
+                "{\"next\":3,\"ended\":false,\"lines\":[[1002000,\"line 2\"]]}", poll(server, "?since=99"));
+        assertEquals("Expected every line since, in one batch", 
+                "{\"next\":3,\"ended\":false,\"lines\":[[1001000,\"line 1\"],[1002000,\"line 2\"]]}", 
+                poll(server, "?since=1"));
+        
+        List<String> replies = Collections.synchronizedList(new ArrayList<>());
+        Thread waiting = new Thread(() -> {
+            try {
+                replies.add(poll(server, "?since=3"));
+            } catch (IOException ioe) {
+                replies.add(ioe.toString());
+            }
+        });
+        waiting.start();
+        Thread.sleep(200);
+        assertEquals("Expected poll to wait for a new line", Collections.emptyList(), replies);
+        log.append("line 3", 3);
+        waiting.join(TimeUnit.SECONDS.toMillis(10));
+        assertEquals("Expected new line once published", 
+                Arrays.asList("{\"next\":4,\"ended\":false,\"lines\":[[1003000,\"line 3\"]]}"), replies);
+        
+        log.close();
+        assertEquals("Expected end of song at once", 
+                "{\"next\":4,\"ended\":true,\"lines\":[]}", poll(server, "?since=4"));
+        
+        server.stop();
+    }
+    
+    // Covers the following:
+    //
+    // metrics:
+    //      stream with a client connected, after lines are written; line traced from its beat
+    @Test
+    public void testMetrics() throws IOException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put("voice1", log);
+        final int serverPort = 5014;
+        WebServer server = new WebServer(serverPort);
+        server.start(voiceToLyricLog);
+        
+        BufferedReader reader = getURLReader(server, 0);
+        reader.readLine(); // Get rid of the first 2k spaces.
+        log.setTimebase(Timebase.startingNow(60));
+        log.append("*A*-maz-ing", 0, 0, System.nanoTime());
+        assertEquals("Expected correct response", "*A*-maz-ing", reader.readLine());
+        
+        final URL metricsURL = new URL("http://localhost:" + server.port() + "/metrics");
+        BufferedReader metrics = new BufferedReader(new InputStreamReader(metricsURL.openStream(), UTF_8));
+        List<String> lines = new ArrayList<>();
+        for (String line = metrics.readLine(); line != null; line = metrics.readLine()) {
+            lines.add(line);
+        }
+        assertTrue("Expected subscriber, got " + lines, lines.contains("lyric_subscribers{stream=\"voice_0\"} 1"));
+        assertTrue("Expected line published", lines.contains("lyric_lines_published_total{stream=\"voice_0\"} 1"));
+        assertTrue("Expected line written", lines.contains("lyric_lines_written_total{stream=\"voice_0\"} 1"));
+        assertTrue("Expected bytes written", lines.contains("lyric_line_bytes_written_total{stream=\"voice_0\"} 12"));
+        assertTrue("Expected latency recorded", 
+                lines.contains("lyric_publish_to_write_seconds_count{stream=\"voice_0\"} 1"));
+        assertTrue("Expected line traced from its beat", 
+                lines.contains("lyric_stage_latency_seconds_count{stream=\"voice_0\",stage=\"beat_to_write\"} 1"));
+        assertTrue("Expected this exchange and the stream in progress", lines.contains("lyric_active_exchanges 2"));
+        
+        server.stop();
+    }
+    
+    // Covers the following:
+    //
+    // slow clients:
+    //      text stream client that never reads: evicted, counted in metrics, others still served
+    @Test
+    public void testSlowClientEvicted() throws IOException, InterruptedException {
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        LyricLog log = new LyricLog();
+        voiceToLyricLog.put("voice1", log);
+        final int serverPort = 5018;
+        final long evictAfterMillis = 200;
+        WebServer server = new WebServer(serverPort, WebServer.ExecutorMode.PLATFORM_THREADS, evictAfterMillis);
+        server.start(voiceToLyricLog);
+        
+        // a client that subscribes, then never reads again
+        SocketChannel slow = SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+        slow.write(ByteBuffer.wrap("GET /textStream/voice_0 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                .getBytes(StandardCharsets.US_ASCII)));
+        
+        // publish far more than the socket buffers hold, until a write to the client blocks
+        char[] filler = new char[1 << 16];
+        Arrays.fill(filler, 'a');
+        final String line = "*" + new String(filler) + "*";
+        final long deadline = System.currentTimeMillis() + 10_000;
+        List<String> metrics = metrics(server);
+        final String evicted = "lyric_clients_evicted_total{stream=\"voice_0\"} 1";
+        while (!metrics.contains(evicted) && System.currentTimeMillis() < deadline) {
+            log.append(line);
+            Thread.sleep(5);
+            metrics = metrics(server);
+        }
+        assertTrue("Expected slow client evicted, got " + metrics, metrics.contains(evicted));
+        assertTrue("Expected slow client disconnected, got " + metrics,
+                metrics.contains("lyric_subscribers{stream=\"voice_0\"} 0"));
+        
+        // the server still streams to clients that keep up
+        BufferedReader reader = getURLReader(server, 0);
+        reader.readLine(); // Get rid of the first 2k spaces.
+        assertEquals("Expected newest line on connect", line, reader.readLine());
+        
+        slow.close();
+        server.stop();
+    }
+    
+    // Helper method that reads every line of the metrics of a server
+    private static List<String> metrics(WebServer server) throws IOException {
+        final URL metricsURL = new URL("http://localhost:" + server.port() + "/metrics");
+        BufferedReader metrics = new BufferedReader(new InputStreamReader(metricsURL.openStream(), UTF_8));
+        List<String> lines = new ArrayList<>();
+        for (String line = metrics.readLine(); line != null; line = metrics.readLine()) {
+            lines.add(line);
+        }
+        return lines;
+    }
 }
@@ -14,6 +14,7 @@ import javax.sound.midi.MidiUnavailableException;
 import org.junit.Test;
 
 import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.LyricLog;
 import karaoke.Music;
 import karaoke.Piece;
 import karaoke.WebServer;
@@ -33,7 +34,7 @@ public class AllADTsTest {
     //
     // Music.play() and SequencePlayer.play()
     //      music created with music constructors, music created with parser 
-    // voiceToLyricsMap
+    // voiceToLyricLog
     //      streamed to web server, not streamed to web server
     //      number of voices is 1, >1 
     //
@@ -43,7 +44,7 @@ public class AllADTsTest {
     //
     // Music.play() and SequencePlayer.play()
     //      music created with music constructors, music created with parser 
-    // voiceToLyricsMap
+    // voiceToLyricLog
     //      not streamed to web server
     //      number of voices is 1
     @Test
@@ -74,15 +75,15 @@ public class AllADTsTest {
                 Music.note(1, new Pitch('C').transpose(Pitch.OCTAVE), Instrument.PIANO), 
                 Music.lyrics("C-D-E-F-G-A-B-*c*", "voice1")));
 
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>(); 
-        voiceToLyricsMap.put("voice1", new ArrayList<String>());
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>(); 
+        voiceToLyricLog.put("voice1", new LyricLog());
         
         // create a new player
         final int beatsPerMinute = 100; // a beat is a quarter note, so this is 100 quarter notes per minute
         final int ticksPerBeat = 64; // allows up to 1/64-beat notes to be played with fidelity
         final double warmup = 0.125;
         SequencePlayer player = new MidiSequencePlayer(beatsPerMinute, ticksPerBeat);
-        music.play(player, warmup, voiceToLyricsMap);
+        music.play(player, warmup, voiceToLyricLog);
         
         // Add a listener at the end of the piece to tell main thread when it's done
         Object lock = new Object();
@@ -104,37 +105,36 @@ public class AllADTsTest {
             }
         }
                         
-        SortedMap<String, List<String>> correctVoiceToLyricsMap = new TreeMap<>(); 
-        correctVoiceToLyricsMap.put("voice1", new ArrayList<String>());  
-        correctVoiceToLyricsMap.get("voice1").add("*C*-D-E-F-G-A-B-c");
-        correctVoiceToLyricsMap.get("voice1").add("C-*D*-E-F-G-A-B-c");
-        correctVoiceToLyricsMap.get("voice1").add("C-D-*E*-F-G-A-B-c");
-        correctVoiceToLyricsMap.get("voice1").add("C-D-E-*F*-G-A-B-c");
-        correctVoiceToLyricsMap.get("voice1").add("C-D-E-F-*G*-A-B-c");
-        correctVoiceToLyricsMap.get("voice1").add("C-D-E-F-G-*A*-B-c");
-        correctVoiceToLyricsMap.get("voice1").add("C-D-E-F-G-A-*B*-c");
-        correctVoiceToLyricsMap.get("voice1").add("C-D-E-F-G-A-B-*c*");
-        assertEquals("Expected correct map", correctVoiceToLyricsMap, voiceToLyricsMap);
+        List<String> correctLyrics = new ArrayList<>();
+        correctLyrics.add("*C*-D-E-F-G-A-B-c");
+        correctLyrics.add("C-*D*-E-F-G-A-B-c");
+        correctLyrics.add("C-D-*E*-F-G-A-B-c");
+        correctLyrics.add("C-D-E-*F*-G-A-B-c");
+        correctLyrics.add("C-D-E-F-*G*-A-B-c");
+        correctLyrics.add("C-D-E-F-G-*A*-B-c");
+        correctLyrics.add("C-D-E-F-G-A-*B*-c");
+        correctLyrics.add("C-D-E-F-G-A-B-*c*");
+        assertEquals("Expected correct lyrics", correctLyrics, voiceToLyricLog.get("voice1").lines());
     }
     
     // Covers the following:
     //
     // Music.play() and SequencePlayer.play()
     //      music created with parser 
-    // voiceToLyricsMap
+    // voiceToLyricLog
     //      not streamed to web server
     //      number of voices is 1
     @Test
     public void testPiece() throws UnableToParseException, IOException, MidiUnavailableException, InvalidMidiDataException {
         Piece piece = Piece.parseFromFile("sample-abc/little_night_music.abc");
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>();
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
         for (String voice : piece.getVoices()) {
-            voiceToLyricsMap.put(voice, new ArrayList<String>());
+            voiceToLyricLog.put(voice, new LyricLog());
         }
         SequencePlayer player = piece.createPlayer();
         final double warmup = 0.125;
         Music music = piece.getMusic();
-        music.play(player, warmup, voiceToLyricsMap);
+        music.play(player, warmup, voiceToLyricLog);
         
         // Add a listener at the end of the piece to tell main thread when it's done
         Object lock = new Object();
@@ -156,19 +156,18 @@ public class AllADTsTest {
             }
         }
         
-        SortedMap<String, List<String>> correctVoiceToLyricsMap = new TreeMap<>(); 
-        correctVoiceToLyricsMap.put("voice1", new ArrayList<String>());  
+        List<String> correctLyrics = new ArrayList<>();
         for (int i = 0; i < 17; i++) {
-            correctVoiceToLyricsMap.get("voice1").add(Music.NO_LYRICS);
+            correctLyrics.add(Music.NO_LYRICS);
         }
-        assertEquals("Expected correct map", correctVoiceToLyricsMap, voiceToLyricsMap);
+        assertEquals("Expected correct lyrics", correctLyrics, voiceToLyricLog.get("voice1").lines());
     }
     
     // Covers the following:
     //
     // Music.play() and SequencePlayer.play()
     //      music created with music constructors
-    // voiceToLyricsMap
+    // voiceToLyricLog
     //      streamed to web server
     //      number of voices is >1 
     @Test
@@ -228,34 +227,32 @@ public class AllADTsTest {
         
         Music music = Music.together(firstVoice, secondVoice);
         
-        // Create a voiceToLyricsMap 
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>();
-        voiceToLyricsMap.put("voice1", new ArrayList<String>());
-        voiceToLyricsMap.put("voice2", new ArrayList<String>());
+        // Create a voiceToLyricLog 
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
+        voiceToLyricLog.put("voice1", new LyricLog());
+        voiceToLyricLog.put("voice2", new LyricLog());
         
         // Start the web-server
         final int serverPort = 5000;
         WebServer server = new WebServer(serverPort);
-        server.start(voiceToLyricsMap);
+        server.start(voiceToLyricLog);
         
         // create a new player
         final int beatsPerMinute = 100; // a beat is a quarter note, so this is 100 quarter notes per minute
         final int ticksPerBeat = 64; // allows up to 1/64-beat notes to be played with fidelity
         final double warmup = 0.125;
         SequencePlayer player = new MidiSequencePlayer(beatsPerMinute, ticksPerBeat);
-        music.play(player, warmup, voiceToLyricsMap);
+        music.play(player, warmup, voiceToLyricLog);
         
         /*
          * Manually: navigate to the printed out URL's, open each URL on more than one tab
          */
         System.out.println("Open each URL on more than one tab within the next 10 seconds");
-        synchronized(voiceToLyricsMap) {
-            int index = 0;
-            for (String voice : voiceToLyricsMap.keySet()) {
-                System.out.println("For voice " + voice + 
-                        ", go to http://localhost:" + serverPort + "/textStream/voice_" + index);
-                index++;
-            }
+        int index = 0;
+        for (String voice : voiceToLyricLog.keySet()) {
+            System.out.println("For voice " + voice + 
+                    ", go to http://localhost:" + serverPort + "/textStream/voice_" + index);
+            index++;
         }
         
         Thread.sleep(10000);
@@ -288,35 +285,33 @@ public class AllADTsTest {
     //
     // Music.play() and SequencePlayer.play()
     //      music created with parser 
-    // voiceToLyricsMap
+    // voiceToLyricLog
     //      streamed to web server
     //      number of voices is >1 
     @Test
     public void testWebServerWithParser() throws IOException, UnableToParseException, MidiUnavailableException, InvalidMidiDataException, InterruptedException {
-        // Parse the file, create a voiceToLyricsMap and a sequence player 
+        // Parse the file, create a voiceToLyricLog and a sequence player 
         Piece piece = Piece.parseFromFile("sample-abc/piece4.abc");
-        SortedMap<String, List<String>> voiceToLyricsMap = new TreeMap<>();
+        SortedMap<String, LyricLog> voiceToLyricLog = new TreeMap<>();
         for (String voice : piece.getVoices()) {
-            voiceToLyricsMap.put(voice, new ArrayList<String>());
+            voiceToLyricLog.put(voice, new LyricLog());
         }
         SequencePlayer player = piece.createPlayer();
         
         // Start the web-server
         final int serverPort = 5001;
         WebServer server = new WebServer(serverPort);
-        server.start(voiceToLyricsMap);
+        server.start(voiceToLyricLog);
         
         /*
          * Manually: navigate to the printed out URL's, open each URL on more than one tab
          */
         System.out.println("Open each URL on more than one tab within the next 10 seconds");
-        synchronized(voiceToLyricsMap) {
-            int index = 0;
-            for (String voice : voiceToLyricsMap.keySet()) {
-                System.out.println("For voice " + voice + 
-                        ", go to http://localhost:" + serverPort + "/textStream/voice_" + index);
-                index++;
-            }
+        int index = 0;
+        for (String voice : voiceToLyricLog.keySet()) {
+            System.out.println("For voice " + voice + 
+                    ", go to http://localhost:" + serverPort + "/textStream/voice_" + index);
+            index++;
         }
         
         Thread.sleep(10000);
@@ -324,7 +319,7 @@ public class AllADTsTest {
         // Initialize the sequence player 
         final double warmup = 0.125;
         Music music = piece.getMusic();
-        music.play(player, warmup, voiceToLyricsMap);
+        music.play(player, warmup, voiceToLyricLog);
         
         // Add a listener at the end of the piece to tell main thread when it's done
         Object lock = new Object();
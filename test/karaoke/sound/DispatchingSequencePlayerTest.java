@@ -0,0 +1,205 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test cases for DispatchingSequencePlayer
+ */
+public class DispatchingSequencePlayerTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for DispatchingSequencePlayer
+    //
+    // addNote():
+    //      forwarded to the wrapped player
+    // addEvent(), play():
+    //      0, 1, > capacity events; callback that blocks, callback that throws
+    //      capacity is a power of two, not a power of two
+    // handoffLatency():
+    //      one record per dispatched callback
+    // firedNanos():
+    //      callback that runs as soon as its event fires, callback that runs later
+    // close():
+    //      after every callback has run; mid-playback, then > capacity events fire
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // addNote():
+    //      forwarded to the wrapped player
+    // addEvent(), play():
+    //      > capacity events; capacity is not a power of two
+    // handoffLatency():
+    //      one record per dispatched callback
+    // close():
+    //      after every callback has run
+    @Test
+    public void testCallbacksRunInOrderOnDispatcher() throws InterruptedException {
+        RecordingSequencePlayer recorder = new RecordingSequencePlayer();
+        final int capacity = 3; // rounded up to 4
+        DispatchingSequencePlayer player = new DispatchingSequencePlayer(recorder, capacity);
+        player.addNote(Instrument.PIANO, new Pitch('C'), 0, 1);
+        assertEquals("Expected note forwarded", 1, recorder.noteCount());
+
+        final int events = 100;
+        final Thread playing = Thread.currentThread();
+        List<Double> beats = Collections.synchronizedList(new ArrayList<>());
+        List<Boolean> onPlayingThread = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(events);
+        // added in reverse, so dispatch order must follow beats, not the order of adding
+        for (int i = events - 1; i >= 0; i--) {
+            player.addEvent(i, (Double beat) -> {
+                beats.add(beat);
+                onPlayingThread.add(Thread.currentThread() == playing);
+                done.countDown();
+            });
+        }
+        // RecordingSequencePlayer fires every callback on this thread before play() returns
+        player.play();
+        assertTrue("Expected every callback to run", done.await(10, TimeUnit.SECONDS));
+        player.close();
+
+        for (int i = 0; i < events; i++) {
+            assertEquals("Expected callbacks in beat order", i, beats.get(i), 0);
+        }
+        assertFalse("Expected callbacks off the player's thread", onPlayingThread.contains(true));
+        assertEquals("Expected one handoff per callback", events, player.handoffLatency().count());
+    }
+
+    // Covers the following:
+    //
+    // addEvent(), play():
+    //      > 1 events; callback that blocks, callback that throws; capacity is a power of two
+    @Test
+    public void testBlockingCallbackDoesNotDelayPlayer() throws InterruptedException {
+        RecordingSequencePlayer recorder = new RecordingSequencePlayer();
+        DispatchingSequencePlayer player = new DispatchingSequencePlayer(recorder, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        player.addEvent(0, (Double beat) -> {
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                return;
+            }
+        });
+        player.addEvent(1, (Double beat) -> {
+            throw new IllegalStateException("a failing callback");
+        });
+        player.addEvent(2, (Double beat) -> done.countDown());
+
+        // returns even though the first callback is still blocked
+        player.play();
+        assertEquals("Expected later callbacks to wait their turn", 1, done.getCount());
+        release.countDown();
+        assertTrue("Expected callbacks after a failing one to run", done.await(10, TimeUnit.SECONDS));
+        player.close();
+    }
+
+    // Covers the following:
+    //
+    // addEvent(), play():
+    //      0 events
+    @Test
+    public void testNoEvents() {
+        DispatchingSequencePlayer player = new DispatchingSequencePlayer(new RecordingSequencePlayer());
+        player.play();
+        player.close();
+        assertEquals("Expected nothing dispatched", 0, player.handoffLatency().count());
+    }
+
+    // Covers the following:
+    //
+    // firedNanos():
+    //      callback that runs as soon as its event fires, callback that runs later
+    @Test
+    public void testFiredNanos() throws InterruptedException {
+        DispatchingSequencePlayer player = new DispatchingSequencePlayer(new RecordingSequencePlayer());
+        final long delayNanos = TimeUnit.MILLISECONDS.toNanos(20);
+        long[] firedAndRun = new long[4];
+        CountDownLatch done = new CountDownLatch(2);
+        player.addEvent(0, (Double beat) -> {
+            firedAndRun[0] = player.firedNanos();
+            firedAndRun[1] = System.nanoTime();
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(delayNanos));
+            } catch (InterruptedException ie) {
+                return;
+            }
+            done.countDown();
+        });
+        player.addEvent(1, (Double beat) -> {
+            firedAndRun[2] = player.firedNanos();
+            firedAndRun[3] = System.nanoTime();
+            done.countDown();
+        });
+
+        final long before = System.nanoTime();
+        // RecordingSequencePlayer fires both events on this thread before play() returns
+        player.play();
+        final long after = System.nanoTime();
+        assertTrue("Expected every callback to run", done.await(10, TimeUnit.SECONDS));
+        player.close();
+
+        assertTrue("Expected first event fired during play()", before <= firedAndRun[0] && firedAndRun[0] <= after);
+        assertTrue("Expected second event fired during play()", before <= firedAndRun[2] && firedAndRun[2] <= after);
+        assertTrue("Expected first callback run after firing", firedAndRun[0] <= firedAndRun[1]);
+        assertTrue("Expected second callback run after the first one's delay",
+                firedAndRun[3] - firedAndRun[2] >= delayNanos);
+    }
+
+    // Covers the following:
+    //
+    // close():
+    //      mid-playback, then > capacity events fire
+    @Test
+    public void testCloseMidPlayback() throws InterruptedException {
+        final int capacity = 4;
+        DispatchingSequencePlayer player = new DispatchingSequencePlayer(new RecordingSequencePlayer(), capacity);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        player.addEvent(0, (Double beat) -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                return;
+            }
+        });
+        final int events = 10 * capacity;
+        List<Double> later = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 1; i <= events; i++) {
+            player.addEvent(i, later::add);
+        }
+
+        // RecordingSequencePlayer fires every event on the thread that plays it, which fills the
+        // queue while the first callback is blocked
+        Thread playing = new Thread(player::play);
+        playing.start();
+        assertTrue("Expected first callback to run", blocked.await(10, TimeUnit.SECONDS));
+        player.close();
+        playing.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse("Expected the player's thread to play to the end once closed", playing.isAlive());
+
+        release.countDown();
+        // give the dispatcher time to run what was queued, and anything it wrongly took after closing
+        Thread.sleep(100);
+        assertTrue("Expected at most the callbacks queued before closing to run, got " + later.size(),
+                later.size() <= capacity);
+    }
+}
@@ -0,0 +1,135 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Test cases for DriftMonitor
+ */
+public class DriftMonitorTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for DriftMonitor
+    //
+    // sample(), drift(), jitter(), lastDriftNanos():
+    //      first sample, later sample; sequencer on tempo, behind, ahead; start offset
+    // excursions(), setBoundMillis():
+    //      drift within bound, beyond bound for 1, > 1 samples, back within bound; bound changed
+    // start(), stop():
+    //      sampling on its own; stop while beyond bound; start after stop; sample after stop
+    //
+    // Cover each part at least once
+
+    // 60 beats per minute at 1000 ticks per beat: one tick per millisecond
+    private static final int BEATS_PER_MINUTE = 60;
+    private static final int TICKS_PER_BEAT = 1000;
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    // Covers the following:
+    //
+    // sample(), drift(), jitter(), lastDriftNanos():
+    //      first sample, later sample; sequencer on tempo, behind, ahead; start offset
+    // excursions(), setBoundMillis():
+    //      drift within bound, beyond bound for 1, > 1 samples, back within bound
+    @Test
+    public void testDrift() {
+        AtomicLong tick = new AtomicLong(7);
+        DriftMonitor monitor = new DriftMonitor(tick::get, BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        final long start = 1_000_000_000;
+        // started late, at tick 7: only drift after the first sample counts
+        monitor.sample(start);
+        assertEquals("Expected nothing recorded by the first sample", 0, monitor.drift().count());
+
+        tick.set(107);
+        monitor.sample(start + millis(100));
+        assertEquals("Expected no drift on tempo", 0, monitor.lastDriftNanos());
+
+        tick.set(177);
+        monitor.sample(start + millis(200));
+        assertEquals("Expected sequencer behind", -millis(30), monitor.lastDriftNanos());
+        assertEquals("Expected an excursion beyond the default bound", 1, monitor.excursions());
+        tick.set(267);
+        monitor.sample(start + millis(300));
+        assertEquals("Expected the same excursion while beyond the bound", 1, monitor.excursions());
+
+        tick.set(397);
+        monitor.sample(start + millis(400));
+        assertEquals("Expected back within the bound", -millis(10), monitor.lastDriftNanos());
+        tick.set(537);
+        monitor.sample(start + millis(500));
+        assertEquals("Expected sequencer ahead", millis(30), monitor.lastDriftNanos());
+        assertEquals("Expected a second excursion", 2, monitor.excursions());
+
+        assertEquals("Expected a drift per sample after the first", 5, monitor.drift().count());
+        assertEquals("Expected largest drift", millis(40), monitor.drift().maxNanos());
+        assertEquals("Expected a jitter per sample after the first", 5, monitor.jitter().count());
+        assertEquals("Expected largest change of drift", millis(40), monitor.jitter().maxNanos());
+        monitor.stop();
+    }
+
+    // Covers the following:
+    //
+    // excursions(), setBoundMillis():
+    //      bound changed
+    // start(), stop():
+    //      stop while beyond bound; start after stop; sample after stop
+    @Test
+    public void testBoundAndStop() {
+        AtomicLong tick = new AtomicLong(0);
+        DriftMonitor monitor = new DriftMonitor(tick::get, BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        monitor.setBoundMillis(50);
+        monitor.sample(0);
+        tick.set(130);
+        monitor.sample(millis(100));
+        assertEquals("Expected drift within a wider bound", 0, monitor.excursions());
+        monitor.setBoundMillis(10);
+        monitor.sample(millis(100));
+        assertEquals("Expected drift beyond a narrower bound", 1, monitor.excursions());
+
+        monitor.stop();
+        monitor.sample(millis(200));
+        assertEquals("Expected no samples once stopped", 2, monitor.drift().count());
+        try {
+            monitor.start();
+            fail("Expected a stopped monitor not to start");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+
+    // Covers the following:
+    //
+    // start(), stop():
+    //      sampling on its own
+    @Test
+    public void testSampling() throws InterruptedException {
+        final long started = System.nanoTime();
+        // a sequencer that keeps perfect time
+        DriftMonitor monitor = new DriftMonitor(
+            () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        monitor.start();
+        final long samples = 3;
+        while (monitor.drift().count() < samples) {
+            Thread.sleep(DriftMonitor.PERIOD_MILLIS);
+        }
+        monitor.stop();
+        // a tick of rounding, plus however long the sampler took between reading its clocks
+        final long fewTicks = millis(5);
+        assertTrue("Expected drift of a few ticks at most, got " + monitor.drift(),
+                monitor.drift().maxNanos() <= fewTicks);
+        assertEquals("Expected no excursions", 0, monitor.excursions());
+    }
+}
@@ -0,0 +1,108 @@
+package karaoke.sound;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sound.midi.MidiChannel;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * Opens fake MIDI engines that need no sound device, and keeps track of the ones it opened and
+ * the ones closed since. Shared by the tests of MidiPlayerPool and of the code that plays on one.
+ */
+public class FakeEngineSource implements MidiPlayerPool.EngineSource {
+
+    // channels of each fake synthesizer, as many as a real one has
+    private static final int CHANNELS = 16;
+
+    final List<MidiPlayerPool.Engine> opened = Collections.synchronizedList(new ArrayList<>());
+    final Set<MidiPlayerPool.Engine> closed = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * @param capacity number of engines to keep warm, >= 1
+     * @return a pool of fake engines opened by this source
+     * @throws MidiUnavailableException never
+     */
+    public MidiPlayerPool pool(int capacity) throws MidiUnavailableException {
+        return new MidiPlayerPool(capacity, this);
+    }
+
+    /**
+     * @return number of engines this source has opened so far
+     */
+    public int openedCount() {
+        return opened.size();
+    }
+
+    /**
+     * @return number of the engines opened by this source that have been closed
+     */
+    public int closedCount() {
+        return closed.size();
+    }
+
+    @Override
+    public MidiPlayerPool.Engine open() {
+        // the engine the fake sequencer belongs to, once made
+        final MidiPlayerPool.Engine[] engine = new MidiPlayerPool.Engine[1];
+        final MidiChannel[] channels = new MidiChannel[CHANNELS];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = fake(MidiChannel.class, name -> null);
+        }
+        Synthesizer synthesizer = fake(Synthesizer.class, name -> {
+            if (name.equals("getChannels")) {
+                return channels;
+            }
+            return null;
+        });
+        Sequencer sequencer = fake(Sequencer.class, name -> {
+            if (name.equals("close")) {
+                closed.add(engine[0]);
+            }
+            return null;
+        });
+        engine[0] = new MidiPlayerPool.Engine(synthesizer, sequencer);
+        opened.add(engine[0]);
+        return engine[0];
+    }
+
+    private interface Behavior {
+        Object answer(String methodName);
+    }
+
+    /**
+     * @param type interface to fake
+     * @param behavior answers calls of methods of type, by name
+     * @return an instance of type whose methods answer as behavior does, or with the default
+     *         value of their return type if behavior answers null
+     */
+    private static <T> T fake(Class<T> type, Behavior behavior) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    if (method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    } else if (method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    Object answer = behavior.answer(method.getName());
+                    if (answer != null || !method.getReturnType().isPrimitive()) {
+                        return answer;
+                    } else if (method.getReturnType() == boolean.class) {
+                        return false;
+                    } else if (method.getReturnType() == void.class) {
+                        return null;
+                    } else if (method.getReturnType() == long.class) {
+                        return 0L;
+                    } else if (method.getReturnType() == float.class) {
+                        return 0f;
+                    }
+                    return 0;
+                }));
+    }
+}
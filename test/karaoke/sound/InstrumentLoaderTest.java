@@ -0,0 +1,172 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sound.midi.Patch;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+
+import org.junit.Test;
+
+/**
+ * Test cases for InstrumentLoader, on a fake synthesizer that needs no sound device
+ */
+public class InstrumentLoaderTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for InstrumentLoader
+    //
+    // load(), awaitLoaded(), failed():
+    //      0, 1, > 1 instruments; same instrument requested twice
+    //      every patch loads, first patch fails, patch in the middle fails
+    //      patch fails by throwing, by being refused; failed patch requested again
+    //      synthesizer with a soundbank, without one
+    //
+    // Cover each part at least once
+
+    /**
+     * @param soundbank default soundbank of the synthesizer, or null for none
+     * @param loaded list to add the program of every patch loaded to
+     * @param failing instrument whose patch fails to load, or null for none
+     * @return a synthesizer that loads patches by adding them to loaded
+     */
+    private static Synthesizer fakeSynthesizer(boolean soundbank, List<Integer> loaded, Instrument failing) {
+        return fakeSynthesizer(soundbank, loaded, failing, Collections.emptySet());
+    }
+
+    /**
+     * @param soundbank default soundbank of the synthesizer, or null for none
+     * @param loaded list to add the program of every patch loaded to
+     * @param failing instrument whose patch fails to load by throwing, or null for none
+     * @param refused instruments whose patches the synthesizer refuses to load for now
+     * @return a synthesizer that loads patches by adding them to loaded
+     */
+    private static Synthesizer fakeSynthesizer(boolean soundbank, List<Integer> loaded, Instrument failing,
+            Set<Instrument> refused) {
+        Soundbank bank = (Soundbank) Proxy.newProxyInstance(Soundbank.class.getClassLoader(),
+                new Class<?>[] { Soundbank.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("getInstrument")) {
+                        return new javax.sound.midi.Instrument((Soundbank) proxy, (Patch) args[0], "fake", null) {
+                            @Override public Object getData() {
+                                return null;
+                            }
+                        };
+                    }
+                    return null;
+                });
+        return (Synthesizer) Proxy.newProxyInstance(Synthesizer.class.getClassLoader(),
+                new Class<?>[] { Synthesizer.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getDefaultSoundbank":
+                        return soundbank ? bank : null;
+                    case "loadInstrument":
+                        final int program = ((javax.sound.midi.Instrument) args[0]).getPatch().getProgram();
+                        if (failing != null && program == failing.ordinal()) {
+                            throw new IllegalArgumentException("cannot load patch " + program);
+                        }
+                        if (refused.contains(Instrument.values()[program])) {
+                            return false;
+                        }
+                        loaded.add(program);
+                        return true;
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    // Covers the following:
+    //
+    // load(), awaitLoaded(), failed():
+    //      0, > 1 instruments; same instrument requested twice; every patch loads;
+    //      synthesizer with a soundbank
+    @Test
+    public void testLoadsInOrder() {
+        List<Integer> loaded = Collections.synchronizedList(new ArrayList<>());
+        InstrumentLoader loader = new InstrumentLoader(fakeSynthesizer(true, loaded, null));
+        loader.awaitLoaded();
+        assertEquals("Expected nothing loaded", Collections.emptyList(), loaded);
+
+        loader.load(Instrument.TRUMPET);
+        loader.load(Instrument.PIANO);
+        loader.load(Instrument.TRUMPET);
+        loader.awaitLoaded();
+        assertEquals("Expected each patch loaded once, in order",
+                Arrays.asList(Instrument.TRUMPET.ordinal(), Instrument.PIANO.ordinal()), loaded);
+        assertEquals("Expected no failures", EnumSet.noneOf(Instrument.class), loader.failed());
+    }
+
+    // Covers the following:
+    //
+    // load(), awaitLoaded(), failed():
+    //      > 1 instruments; first patch fails, patch in the middle fails
+    @Test
+    public void testFailedPatchSkipped() {
+        List<Integer> loaded = Collections.synchronizedList(new ArrayList<>());
+        InstrumentLoader loader = new InstrumentLoader(fakeSynthesizer(true, loaded, Instrument.VIOLIN));
+        loader.load(Instrument.VIOLIN);
+        loader.awaitLoaded();
+        assertEquals("Expected the failure recorded", EnumSet.of(Instrument.VIOLIN), loader.failed());
+
+        loader.load(Instrument.PIANO);
+        loader.awaitLoaded();
+        loader.load(Instrument.TRUMPET);
+        loader.load(Instrument.VIOLIN);
+        loader.load(Instrument.FLUTE);
+        loader.awaitLoaded();
+        assertEquals("Expected every other patch loaded after a failure",
+                Arrays.asList(Instrument.PIANO.ordinal(), Instrument.TRUMPET.ordinal(), Instrument.FLUTE.ordinal()),
+                loaded);
+        assertEquals("Expected only the failure recorded", EnumSet.of(Instrument.VIOLIN), loader.failed());
+    }
+
+    // Covers the following:
+    //
+    // load(), awaitLoaded(), failed():
+    //      1 instrument; synthesizer without a soundbank
+    @Test
+    public void testNoSoundbank() {
+        List<Integer> loaded = Collections.synchronizedList(new ArrayList<>());
+        InstrumentLoader loader = new InstrumentLoader(fakeSynthesizer(false, loaded, null));
+        loader.load(Instrument.PIANO);
+        loader.awaitLoaded();
+        assertEquals("Expected nothing to load", Collections.emptyList(), loaded);
+        assertEquals("Expected no failures", EnumSet.noneOf(Instrument.class), loader.failed());
+    }
+
+    // Covers the following:
+    //
+    // load(), awaitLoaded(), failed():
+    //      patch fails by being refused; failed patch requested again
+    @Test
+    public void testRefusedPatchRetried() {
+        List<Integer> loaded = Collections.synchronizedList(new ArrayList<>());
+        Set<Instrument> refused = Collections.synchronizedSet(EnumSet.of(Instrument.VIOLIN));
+        InstrumentLoader loader = new InstrumentLoader(fakeSynthesizer(true, loaded, null, refused));
+        loader.load(Instrument.VIOLIN);
+        loader.load(Instrument.PIANO);
+        loader.awaitLoaded();
+        assertEquals("Expected the refused patch recorded as failed", EnumSet.of(Instrument.VIOLIN), loader.failed());
+        assertEquals("Expected only the other patch loaded", Arrays.asList(Instrument.PIANO.ordinal()), loaded);
+
+        refused.clear();
+        loader.load(Instrument.PIANO);
+        loader.load(Instrument.VIOLIN);
+        loader.awaitLoaded();
+        assertEquals("Expected the failed patch retried, and the loaded one not",
+                Arrays.asList(Instrument.PIANO.ordinal(), Instrument.VIOLIN.ordinal()), loaded);
+        assertEquals("Expected no failures left", EnumSet.noneOf(Instrument.class), loader.failed());
+    }
+}
@@ -0,0 +1,87 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test cases for LatencyHistogram
+ */
+public class LatencyHistogramTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for LatencyHistogram
+    //
+    // record(), bucketOf():
+    //      latency < 0, 0, power of two, one less than a power of two, Long.MAX_VALUE
+    // count(), maxNanos(), meanNanos(), sumNanos(), percentileNanos():
+    //      empty histogram, 1, > 1 latencies; percentile in first, last, middle bucket
+    // reset(), toString():
+    //      empty, non-empty histogram
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // record(), bucketOf():
+    //      latency < 0, 0, power of two, one less than a power of two, Long.MAX_VALUE
+    @Test
+    public void testBuckets() {
+        assertEquals("Expected 0 in bucket 0", 0, LatencyHistogram.bucketOf(0));
+        assertEquals("Expected 1 in bucket 1", 1, LatencyHistogram.bucketOf(1));
+        assertEquals("Expected 1023 in bucket 10", 10, LatencyHistogram.bucketOf(1023));
+        assertEquals("Expected 1024 in bucket 11", 11, LatencyHistogram.bucketOf(1024));
+        assertEquals("Expected upper bound of bucket 10", 1023, LatencyHistogram.bucketUpperBoundNanos(10));
+        assertEquals("Expected largest latency in last bucket",
+                LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(1024);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals("Expected negative latency as 0", 1, histogram.bucketCount(0));
+        assertEquals("Expected power of two", 1, histogram.bucketCount(11));
+        assertEquals("Expected largest latency", Long.MAX_VALUE, histogram.maxNanos());
+    }
+
+    // Covers the following:
+    //
+    // count(), maxNanos(), meanNanos(), sumNanos(), percentileNanos():
+    //      empty histogram, 1, > 1 latencies; percentile in first, last, middle bucket
+    // reset(), toString():
+    //      empty, non-empty histogram
+    @Test
+    public void testSummaries() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals("Expected empty", 0, histogram.count());
+        assertEquals("Expected no percentile", 0, histogram.percentileNanos(99));
+        assertEquals("Expected no mean", 0, histogram.meanNanos(), 0);
+        assertTrue("Expected summary", histogram.toString().startsWith("count 0,"));
+
+        histogram.record(100);
+        assertEquals("Expected only latency as max", 100, histogram.percentileNanos(100));
+
+        // 98 fast latencies in [64, 127], and two slow ones
+        for (int i = 0; i < 97; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5000);
+        histogram.record(1_000_000);
+        assertEquals("Expected all latencies", 100, histogram.count());
+        assertEquals("Expected mean", (98 * 100 + 5000 + 1_000_000) / 100.0, histogram.meanNanos(), 1e-9);
+        assertEquals("Expected sum", 98 * 100 + 5000 + 1_000_000, histogram.sumNanos());
+        assertEquals("Expected median in first bucket", 127, histogram.percentileNanos(50));
+        assertEquals("Expected 99th percentile in middle bucket", 8191, histogram.percentileNanos(99));
+        assertEquals("Expected max in last bucket", 1_000_000, histogram.percentileNanos(100));
+        assertTrue("Expected one line per non-empty bucket", histogram.toString().split("\n").length == 4);
+
+        histogram.reset();
+        assertEquals("Expected empty after reset", 0, histogram.count());
+        assertEquals("Expected no max after reset", 0, histogram.maxNanos());
+    }
+}
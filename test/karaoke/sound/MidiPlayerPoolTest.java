@@ -0,0 +1,150 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiUnavailableException;
+
+import org.junit.Test;
+
+/**
+ * Test cases for MidiPlayerPool, on fake engines that need no sound device, from FakeEngineSource
+ */
+public class MidiPlayerPoolTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for MidiPlayerPool
+    //
+    // MidiPlayerPool():
+    //      capacity 1, > 1
+    // acquire():
+    //      idle engine in the pool, every engine in use
+    // release():
+    //      pool not full, full; pool closed while engine in use
+    // close():
+    //      idle engines, engines in use; close twice
+    // createPlayer(), idleEngines():
+    //      player closed without being played, closed twice
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // MidiPlayerPool():
+    //      capacity 1
+    // acquire():
+    //      idle engine in the pool, every engine in use
+    // release():
+    //      pool not full
+    @Test
+    public void testReuse() throws MidiUnavailableException {
+        FakeEngineSource source = new FakeEngineSource();
+        MidiPlayerPool pool = new MidiPlayerPool(1, source);
+        assertEquals("Expected an engine warmed up", 1, source.opened.size());
+
+        MidiPlayerPool.Engine engine = pool.acquire();
+        assertSame("Expected the warm engine", source.opened.get(0), engine);
+        pool.release(engine);
+        assertSame("Expected the released engine reused", engine, pool.acquire());
+        assertEquals("Expected no engine opened to reuse one", 1, source.opened.size());
+
+        MidiPlayerPool.Engine another = pool.acquire();
+        assertNotSame("Expected a new engine while the pooled one is in use", engine, another);
+        assertEquals("Expected an engine opened", 2, source.opened.size());
+        assertTrue("Expected no engine closed", source.closed.isEmpty());
+    }
+
+    // Covers the following:
+    //
+    // MidiPlayerPool():
+    //      capacity > 1
+    // release():
+    //      pool full
+    // close():
+    //      idle engines
+    @Test
+    public void testBound() throws MidiUnavailableException {
+        FakeEngineSource source = new FakeEngineSource();
+        final int capacity = 2;
+        MidiPlayerPool pool = new MidiPlayerPool(capacity, source);
+        List<MidiPlayerPool.Engine> inUse = new ArrayList<>();
+        for (int i = 0; i < capacity + 1; i++) {
+            inUse.add(pool.acquire());
+        }
+        assertEquals("Expected one engine beyond the capacity opened", capacity + 1, source.opened.size());
+
+        for (MidiPlayerPool.Engine engine : inUse) {
+            pool.release(engine);
+        }
+        assertEquals("Expected the engine released to a full pool closed",
+                Collections.singleton(inUse.get(capacity)), source.closed);
+
+        pool.close();
+        assertEquals("Expected every engine closed", new HashSet<>(source.opened), source.closed);
+    }
+
+    // Covers the following:
+    //
+    // release():
+    //      pool closed while engine in use
+    // close():
+    //      engines in use; close twice
+    @Test
+    public void testReleaseAfterClose() throws MidiUnavailableException {
+        FakeEngineSource source = new FakeEngineSource();
+        MidiPlayerPool pool = new MidiPlayerPool(2, source);
+        MidiPlayerPool.Engine engine = pool.acquire();
+
+        pool.close();
+        assertEquals("Expected the idle engine closed", 1, source.closed.size());
+        assertFalse("Expected the engine in use left open", source.closed.contains(engine));
+
+        pool.release(engine);
+        assertTrue("Expected the engine closed once released", source.closed.contains(engine));
+        pool.close();
+        assertEquals("Expected every engine closed", new HashSet<>(source.opened), source.closed);
+    }
+
+    // Covers the following:
+    //
+    // createPlayer(), idleEngines():
+    //      player closed without being played, closed twice
+    @Test
+    public void testUnplayedPlayerReleasesEngine() throws MidiUnavailableException, InvalidMidiDataException {
+        FakeEngineSource source = new FakeEngineSource();
+        MidiPlayerPool pool = source.pool(1);
+        assertEquals("Expected the warm engine idle", 1, pool.idleEngines());
+
+        MidiSequencePlayer player = pool.createPlayer(MidiSequencePlayer.DEFAULT_BEATS_PER_MINUTE,
+                MidiSequencePlayer.DEFAULT_TICKS_PER_BEAT);
+        player.addNote(Instrument.PIANO, new Pitch('C'), 0, 1);
+        assertEquals("Expected the engine in use", 0, pool.idleEngines());
+
+        player.close();
+        assertEquals("Expected the engine back in the pool", 1, pool.idleEngines());
+        player.close();
+        assertEquals("Expected the engine released once", 1, pool.idleEngines());
+        assertEquals("Expected no engine opened or closed", 1, source.openedCount());
+        assertEquals("Expected no engine closed", 0, source.closedCount());
+        try {
+            player.play();
+            fail("Expected a closed player not to play");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+}
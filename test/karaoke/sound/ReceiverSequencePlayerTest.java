@@ -0,0 +1,268 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.midi.MidiChannel;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Synthesizer;
+
+import org.junit.Test;
+
+/**
+ * Test cases for ReceiverSequencePlayer, on a fake synthesizer that needs no sound device
+ */
+public class ReceiverSequencePlayerTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for ReceiverSequencePlayer
+    //
+    // addNote(), addEvent(), play():
+    //      0, 1, > 1 instruments; too many instruments
+    //      notes added out of order, at the same tick as an event
+    //      called again after play(); callback slower than the notes after it, callback fails
+    // close():
+    //      before play(), twice
+    // onsetCount(), meanOnsetJitterNanos(), p99OnsetJitterNanos(), maxOnsetJitterNanos(),
+    // onsetLateness():
+    //      before play(), after every note has played; note delayed by a callback
+    //
+    // Cover each part at least once
+
+    // 6000 beats per minute: 10 ms per beat
+    private static final int BEATS_PER_MINUTE = 6000;
+    private static final int TICKS_PER_BEAT = 4;
+    private static final int CHANNELS = 2;
+
+    /**
+     * A receiver that records every message sent to it, as "command channel data1".
+     */
+    private static class FakeReceiver implements Receiver {
+        final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void send(MidiMessage message, long timeStamp) {
+            ShortMessage shortMessage = (ShortMessage) message;
+            messages.add(shortMessage.getCommand() + " " + shortMessage.getChannel() + " " + shortMessage.getData1());
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    /**
+     * @param receiver receiver of the synthesizer
+     * @return a synthesizer with CHANNELS channels and no soundbank, that sends to receiver
+     */
+    private static Synthesizer fakeSynthesizer(Receiver receiver) {
+        return fakeSynthesizer(receiver, new AtomicInteger());
+    }
+
+    /**
+     * @param receiver receiver of the synthesizer
+     * @param closes counter to increment each time the synthesizer is closed
+     * @return a synthesizer with CHANNELS channels and no soundbank, that sends to receiver
+     */
+    private static Synthesizer fakeSynthesizer(Receiver receiver, AtomicInteger closes) {
+        return (Synthesizer) Proxy.newProxyInstance(Synthesizer.class.getClassLoader(),
+                new Class<?>[] { Synthesizer.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getReceiver":
+                        return receiver;
+                    case "getChannels":
+                        return new MidiChannel[CHANNELS];
+                    case "isOpen":
+                        return true;
+                    case "close":
+                        closes.incrementAndGet();
+                        return null;
+                    default:
+                        // getDefaultSoundbank() for no soundbank
+                        return null;
+                    }
+                });
+    }
+
+    private static String message(int command, int channel, int data1) {
+        return command + " " + channel + " " + data1;
+    }
+
+    // Covers the following:
+    //
+    // addNote(), addEvent(), play():
+    //      > 1 instruments; notes added out of order, at the same tick as an event
+    // onsetCount(), meanOnsetJitterNanos(), p99OnsetJitterNanos(), maxOnsetJitterNanos(),
+    // onsetLateness():
+    //      before play(), after every note has played
+    @Test
+    public void testPlaysInOrder() throws InterruptedException {
+        FakeReceiver receiver = new FakeReceiver();
+        ReceiverSequencePlayer player = new ReceiverSequencePlayer(fakeSynthesizer(receiver),
+                BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        final Pitch c = new Pitch('C');
+        final int middleC = MidiSequencePlayer.getMidiNote(c);
+        final int e = MidiSequencePlayer.getMidiNote(new Pitch('E'));
+        player.addNote(Instrument.PIANO, new Pitch('E'), 2, 1);
+        player.addNote(Instrument.TRUMPET, c, 0, 2);
+        List<Double> beats = Collections.synchronizedList(new ArrayList<>());
+        player.addEvent(2, beats::add);
+        assertEquals("Expected no onsets before play()", 0, player.onsetCount());
+        assertEquals("Expected no spread before play()", 0, player.p99OnsetJitterNanos());
+
+        player.play();
+        assertTrue("Expected the receiver closed at the end", receiver.closed.await(10, TimeUnit.SECONDS));
+
+        final int piano = 0;
+        final int trumpet = 1;
+        assertEquals("Expected program changes, then messages in tick order, ties in order added",
+                Arrays.asList(
+                        message(ShortMessage.PROGRAM_CHANGE, piano, Instrument.PIANO.ordinal()),
+                        message(ShortMessage.PROGRAM_CHANGE, trumpet, Instrument.TRUMPET.ordinal()),
+                        message(ShortMessage.NOTE_ON, trumpet, middleC),
+                        message(ShortMessage.NOTE_ON, piano, e),
+                        message(ShortMessage.NOTE_OFF, trumpet, middleC),
+                        message(ShortMessage.NOTE_OFF, piano, e)),
+                receiver.messages);
+        assertEquals("Expected the event at its beat", Arrays.asList(2.0), beats);
+
+        assertEquals("Expected an onset per note", 2, player.onsetCount());
+        assertEquals("Expected the histogram of every onset", 2, player.onsetLateness().count());
+        assertTrue("Expected mean within the spread", player.meanOnsetJitterNanos() <= player.maxOnsetJitterNanos());
+        assertTrue("Expected p99 within the spread", player.p99OnsetJitterNanos() <= player.maxOnsetJitterNanos());
+    }
+
+    // Covers the following:
+    //
+    // addNote(), addEvent(), play():
+    //      0 instruments; called again after play()
+    @Test
+    public void testScheduleAfterPlay() throws InterruptedException {
+        FakeReceiver receiver = new FakeReceiver();
+        ReceiverSequencePlayer player = new ReceiverSequencePlayer(fakeSynthesizer(receiver),
+                BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        player.play();
+        try {
+            player.addNote(Instrument.PIANO, new Pitch('C'), 0, 1);
+            fail("Expected no notes added after play()");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        try {
+            player.play();
+            fail("Expected play() only once");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        assertTrue("Expected the receiver closed at the end", receiver.closed.await(10, TimeUnit.SECONDS));
+        assertEquals("Expected nothing sent", Collections.emptyList(), receiver.messages);
+        assertEquals("Expected no onsets", 0, player.onsetCount());
+    }
+
+    // Covers the following:
+    //
+    // addNote(), addEvent(), play():
+    //      1 instrument; too many instruments
+    @Test(expected=RuntimeException.class)
+    public void testTooManyInstruments() {
+        ReceiverSequencePlayer player = new ReceiverSequencePlayer(fakeSynthesizer(new FakeReceiver()),
+                BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        player.addNote(Instrument.PIANO, new Pitch('C'), 0, 1);
+        player.addNote(Instrument.TRUMPET, new Pitch('C'), 0, 1);
+        player.addNote(Instrument.VIOLIN, new Pitch('C'), 0, 1);
+    }
+
+    // Covers the following:
+    //
+    // addNote(), addEvent(), play():
+    //      callback slower than the notes after it
+    // onsetCount(), meanOnsetJitterNanos(), p99OnsetJitterNanos(), maxOnsetJitterNanos(),
+    // onsetLateness():
+    //      note delayed by a callback
+    @Test
+    public void testSlowCallbackNotCountedAsLateness() throws InterruptedException {
+        FakeReceiver receiver = new FakeReceiver();
+        ReceiverSequencePlayer player = new ReceiverSequencePlayer(fakeSynthesizer(receiver),
+                BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        final long callbackMillis = 100;
+        player.addEvent(0, beat -> {
+            try {
+                Thread.sleep(callbackMillis);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        // due 10 ms after the callback starts, so it comes due while the callback runs
+        player.addNote(Instrument.PIANO, new Pitch('C'), 1, 1);
+
+        player.play();
+        assertTrue("Expected the receiver closed at the end", receiver.closed.await(10, TimeUnit.SECONDS));
+        assertEquals("Expected the note played", 1, player.onsetCount());
+        assertTrue("Expected the callback's delay left out, got " + player.maxOnsetJitterNanos(),
+                player.maxOnsetJitterNanos() < TimeUnit.MILLISECONDS.toNanos(callbackMillis / 2));
+    }
+
+    // Covers the following:
+    //
+    // addNote(), addEvent(), play():
+    //      callback fails
+    @Test
+    public void testFailingCallbackClosesSynthesizer() throws InterruptedException {
+        FakeReceiver receiver = new FakeReceiver();
+        AtomicInteger closes = new AtomicInteger();
+        ReceiverSequencePlayer player = new ReceiverSequencePlayer(fakeSynthesizer(receiver, closes),
+                BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        player.addEvent(0, beat -> {
+            throw new IllegalStateException("a failing callback");
+        });
+        player.addNote(Instrument.PIANO, new Pitch('C'), 1, 1);
+
+        player.play();
+        assertTrue("Expected the receiver closed after the failure", receiver.closed.await(10, TimeUnit.SECONDS));
+        final long deadline = System.currentTimeMillis() + 1000;
+        while (closes.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Expected the synthesizer closed", 1, closes.get());
+        assertEquals("Expected nothing sent after the failure", Collections.emptyList(), receiver.messages);
+    }
+
+    // Covers the following:
+    //
+    // close():
+    //      before play(), twice
+    @Test
+    public void testCloseWithoutPlaying() {
+        AtomicInteger closes = new AtomicInteger();
+        ReceiverSequencePlayer player = new ReceiverSequencePlayer(fakeSynthesizer(new FakeReceiver(), closes),
+                BEATS_PER_MINUTE, TICKS_PER_BEAT);
+        player.addNote(Instrument.PIANO, new Pitch('C'), 0, 1);
+        player.close();
+        player.close();
+        assertEquals("Expected the synthesizer closed once", 1, closes.get());
+        try {
+            player.play();
+            fail("Expected a closed player not to play");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.Music;
+import karaoke.Piece;
+
+/**
+ * Test cases for RecordingSequencePlayer
+ */
+public class RecordingSequencePlayerTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for RecordingSequencePlayer
+    //
+    // addNote(), addEvent():
+    //      0, 1, > initial capacity records
+    // equals(), hashCode():
+    //      same recordings, different notes, different events, different resolution
+    // diff():
+    //      no differences, differences in notes, in events, more differences than limit
+    // dump(), toString():
+    //      empty recording, notes and events
+    // play():
+    //      events in order, out of order; music created with the parser
+    //
+    // Cover each part at least once
+
+    // Covers the following:
+    //
+    // addNote(), addEvent():
+    //      0 records
+    // dump(), toString():
+    //      empty recording
+    // equals(), hashCode():
+    //      same recordings
+    @Test
+    public void testEmpty() throws IOException {
+        RecordingSequencePlayer player = new RecordingSequencePlayer();
+        StringWriter out = new StringWriter();
+        player.dump(out);
+        assertEquals("Expected empty dump", "", out.toString());
+        assertEquals("Expected empty string", "", player.toString());
+        assertEquals("Expected equal recordings", new RecordingSequencePlayer(), player);
+        assertEquals("Expected equal hashes", new RecordingSequencePlayer().hashCode(), player.hashCode());
+    }
+
+    // Covers the following:
+    //
+    // addNote(), addEvent():
+    //      1 record
+    // dump(), toString():
+    //      notes and events
+    // play():
+    //      events out of order
+    @Test
+    public void testDumpAndPlay() {
+        RecordingSequencePlayer player = new RecordingSequencePlayer(4);
+        List<Double> fired = new ArrayList<>();
+        player.addNote(Instrument.PIANO, Pitch.MIDDLE_C, 0.5, 1);
+        player.addEvent(1, beat -> fired.add(beat));
+        player.addEvent(0.3, beat -> fired.add(beat));
+        assertEquals("Expected one record per line",
+                "NOTE 0 60 2 6\nEVENT 4\nEVENT 1\n", player.toString());
+
+        player.play();
+        assertEquals("Expected events in tick order", Arrays.asList(0.25, 1.0), fired);
+    }
+
+    // Covers the following:
+    //
+    // addNote(), addEvent():
+    //      > initial capacity records
+    // equals(), hashCode():
+    //      different notes, different events, different resolution
+    // diff():
+    //      no differences, differences in notes, in events, more differences than limit
+    @Test
+    public void testEqualsAndDiff() {
+        RecordingSequencePlayer expected = new RecordingSequencePlayer();
+        RecordingSequencePlayer actual = new RecordingSequencePlayer();
+        final int records = 100;
+        for (int i = 0; i < records; i++) {
+            expected.addNote(Instrument.PIANO, Pitch.MIDDLE_C.transpose(i), i, 1);
+            actual.addNote(Instrument.PIANO, Pitch.MIDDLE_C.transpose(i), i, 1);
+            expected.addEvent(i, beat -> { });
+            actual.addEvent(i, beat -> { });
+        }
+        assertEquals("Expected equal recordings", expected, actual);
+        assertEquals("Expected equal hashes", expected.hashCode(), actual.hashCode());
+        assertEquals("Expected no differences", Collections.emptyList(), actual.diff(expected, 10));
+        assertNotEquals("Expected different resolution", new RecordingSequencePlayer(4), new RecordingSequencePlayer(8));
+
+        expected.addNote(Instrument.PIANO, Pitch.MIDDLE_C, 0, 1);
+        actual.addNote(Instrument.PIANO, Pitch.MIDDLE_C.transpose(1), 0, 1);
+        assertNotEquals("Expected different notes", expected, actual);
+        assertEquals("Expected note difference",
+                Arrays.asList("note 100: expected NOTE 0 60 0 64, was NOTE 0 61 0 64"), actual.diff(expected, 10));
+
+        expected.addEvent(1, beat -> { });
+        assertEquals("Expected missing event",
+                Arrays.asList("note 100: expected NOTE 0 60 0 64, was NOTE 0 61 0 64",
+                              "event 100: expected EVENT 64, was nothing"),
+                actual.diff(expected, 10));
+        assertEquals("Expected only first difference", 1, actual.diff(expected, 1).size());
+    }
+
+    // Covers the following:
+    //
+    // play():
+    //      music created with the parser
+    // equals():
+    //      same recordings
+    @Test
+    public void testParsedPiece() throws IOException, UnableToParseException {
+        Piece piece = Piece.parseFromFile("sample-abc/abc_song.abc");
+        RecordingSequencePlayer first = new RecordingSequencePlayer();
+        RecordingSequencePlayer second = new RecordingSequencePlayer();
+        Music music = piece.getMusic();
+        music.play(first, 0, Collections.emptyMap());
+        music.play(second, 0, Collections.emptyMap());
+        assertTrue("Expected notes", first.noteCount() > 0);
+        assertEquals("Expected repeatable recording", first, second);
+    }
+}
@@ -0,0 +1,141 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test cases for VirtualClockSequencePlayer
+ */
+public class VirtualClockSequencePlayerTest {
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    // Testing Strategy for VirtualClockSequencePlayer
+    //
+    // addNote():
+    //      0, 1, > initial capacity notes
+    // addEvent():
+    //      0, 1, > 1 events; events added in order, out of order, at the same beat
+    //      called before play(), after play()
+    // play():
+    //      real time, sped up, as fast as possible
+    //      called once, twice
+    //
+    // Cover each part at least once
+
+    // Helper that plays the player and waits until the event at lastBeat has fired
+    private static void playAndWait(SequencePlayer player, double lastBeat) throws InterruptedException {
+        Object lock = new Object();
+        List<Double> done = new ArrayList<>();
+        player.addEvent(lastBeat, (Double beat) -> {
+            synchronized (lock) {
+                done.add(beat);
+                lock.notify();
+            }
+        });
+        player.play();
+        synchronized (lock) {
+            while (done.isEmpty()) {
+                lock.wait();
+            }
+        }
+    }
+
+    // Covers the following:
+    //
+    // addNote():
+    //      > initial capacity notes
+    // addEvent():
+    //      > 1 events; events added out of order, at the same beat
+    // play():
+    //      as fast as possible
+    @Test
+    public void testEventsFireInBeatOrder() throws InterruptedException {
+        VirtualClockSequencePlayer player = new VirtualClockSequencePlayer(
+                120, 64, VirtualClockSequencePlayer.AS_FAST_AS_POSSIBLE);
+        final int notes = 200;
+        for (int i = 0; i < notes; i++) {
+            player.addNote(Instrument.PIANO, new Pitch('C').transpose(i % Pitch.OCTAVE), i, 1);
+        }
+        List<String> fired = new ArrayList<>();
+        player.addEvent(2, beat -> fired.add("c@" + beat));
+        player.addEvent(0.5, beat -> fired.add("a@" + beat));
+        player.addEvent(2, beat -> fired.add("d@" + beat));
+        player.addEvent(1, beat -> fired.add("b@" + beat));
+        assertEquals("Expected all notes", notes, player.noteCount());
+        assertEquals("Expected all events", 4, player.eventCount());
+        assertEquals("Expected last tick", notes * 64, player.lastTick());
+
+        playAndWait(player, 3);
+        assertEquals("Expected events in beat order, ties in insertion order",
+                Arrays.asList("a@0.5", "b@1.0", "c@2.0", "d@2.0"), fired);
+    }
+
+    // Covers the following:
+    //
+    // addEvent():
+    //      1 event
+    // play():
+    //      sped up
+    @Test
+    public void testSpedUpTiming() throws InterruptedException {
+        // 600 beats per minute sped up 10 times is one beat per 10ms
+        VirtualClockSequencePlayer player = new VirtualClockSequencePlayer(600, 64, 10);
+        long start = System.nanoTime();
+        playAndWait(player, 10);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("Expected about 100ms, got " + elapsedMillis, elapsedMillis >= 95);
+    }
+
+    // Covers the following:
+    //
+    // addNote():
+    //      0 notes
+    // addEvent():
+    //      0 events besides the final one; rounded to ticks
+    // play():
+    //      real time
+    @Test
+    public void testEventBeatRoundedToTicks() throws InterruptedException {
+        VirtualClockSequencePlayer player = new VirtualClockSequencePlayer(6000, 4);
+        List<Double> fired = new ArrayList<>();
+        player.addEvent(0.3, beat -> fired.add(beat));
+        playAndWait(player, 0.5);
+        assertEquals("Expected beat rounded down to a tick", Arrays.asList(0.25), fired);
+    }
+
+    // Covers the following:
+    //
+    // addEvent():
+    //      called after play()
+    // play():
+    //      called once
+    @Test(expected=IllegalStateException.class)
+    public void testAddAfterPlay() throws InterruptedException {
+        VirtualClockSequencePlayer player = new VirtualClockSequencePlayer(
+                120, 64, VirtualClockSequencePlayer.AS_FAST_AS_POSSIBLE);
+        playAndWait(player, 0);
+        player.addEvent(1, beat -> { });
+    }
+
+    // Covers the following:
+    //
+    // play():
+    //      called twice
+    @Test(expected=IllegalStateException.class)
+    public void testPlayTwice() throws InterruptedException {
+        VirtualClockSequencePlayer player = new VirtualClockSequencePlayer(
+                120, 64, VirtualClockSequencePlayer.AS_FAST_AS_POSSIBLE);
+        playAndWait(player, 0);
+        player.play();
+    }
+}